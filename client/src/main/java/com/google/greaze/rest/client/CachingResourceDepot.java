@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.rest.client;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+import com.google.greaze.definition.rest.ResourceDepotBase;
+import com.google.greaze.definition.rest.ResourceId;
+import com.google.greaze.definition.rest.RestResourceBase;
+import com.google.greaze.definition.rest.WebContext;
+
+/**
+ * A {@link ResourceDepotBase} that caches the resources returned by GET. Cached resources are
+ * served without contacting the server for the configured time-to-live. After that, they are
+ * revalidated with a conditional GET that the server answers with 304 Not Modified if the
+ * resource has not changed. The least recently used entries are evicted once the cache is full.
+ *
+ * <p>POST, PUT and DELETE are passed through and evict the cached copies of that resource. A GET
+ * that was in flight while any resource was evicted returns what it fetched but does not cache
+ * it, since it may have read the resource before the write.
+ * Resources returned from the cache are shared between callers, so treat them as read-only.
+ */
+public class CachingResourceDepot<I extends ResourceId, R extends RestResourceBase<I, R>>
+    implements ResourceDepotBase<I, R> {
+
+  private static final class Entry<R> {
+    final R resource;
+    final String etag;
+    volatile long expiresAt;
+
+    Entry(R resource, String etag, long expiresAt) {
+      this.resource = resource;
+      this.etag = etag;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final ResourceDepotBaseClient<I, R> delegate;
+  private final long ttlMillis;
+  private final Map<List<Object>, Entry<R>> cache;
+  /** Incremented on every eviction. Guarded by {@link #cache}. */
+  private long generation;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxEntries maximum number of resources to cache
+   * @param ttlMillis how long a cached resource is used before it is revalidated. Use 0 to
+   *   revalidate on every GET.
+   */
+  public CachingResourceDepot(ResourceDepotBaseClient<I, R> delegate, final int maxEntries,
+      long ttlMillis) {
+    GreazePreconditions.checkArgument(maxEntries > 0);
+    GreazePreconditions.checkArgument(ttlMillis >= 0);
+    this.delegate = delegate;
+    this.ttlMillis = ttlMillis;
+    this.cache = new LinkedHashMap<List<Object>, Entry<R>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry<R>> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  @Override
+  public R get(I resourceId, WebContext context) {
+    List<Object> key = Arrays.<Object>asList(resourceId, context);
+    Entry<R> entry;
+    long fetchGeneration;
+    synchronized (cache) {
+      entry = cache.get(key);
+      fetchGeneration = generation;
+    }
+    long now = System.currentTimeMillis();
+    if (entry != null && now < entry.expiresAt) {
+      hits.incrementAndGet();
+      return entry.resource;
+    }
+    String ifNoneMatch = entry == null ? null : entry.etag;
+    ConditionalResponse<I, R> response = delegate.getIfModified(resourceId, context, ifNoneMatch);
+    if (response.isNotModified()) {
+      revalidations.incrementAndGet();
+      synchronized (cache) {
+        if (fetchGeneration == generation) {
+          entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+        }
+      }
+      return entry.resource;
+    }
+    misses.incrementAndGet();
+    R resource = response.getResponse().getResource();
+    if (response.getETag() != null || ttlMillis > 0) {
+      synchronized (cache) {
+        if (fetchGeneration == generation) {
+          cache.put(key, new Entry<R>(resource, response.getETag(), now + ttlMillis));
+        }
+      }
+    }
+    return resource;
+  }
+
+  @Override
+  public R post(R resource, WebContext context) {
+    R posted = delegate.post(resource, context);
+    invalidate(posted == null ? null : posted.getId());
+    return posted;
+  }
+
+  @Override
+  public R put(R resource, WebContext context) {
+    try {
+      return delegate.put(resource, context);
+    } finally {
+      invalidate(resource.getId());
+    }
+  }
+
+  @Override
+  public void delete(I resourceId, WebContext context) {
+    try {
+      delegate.delete(resourceId, context);
+    } finally {
+      invalidate(resourceId);
+    }
+  }
+
+  /**
+   * Evicts the cached copies of the specified resource for all {@link WebContext}s
+   */
+  public void invalidate(I resourceId) {
+    if (resourceId == null) {
+      return;
+    }
+    synchronized (cache) {
+      ++generation;
+      for (Iterator<List<Object>> it = cache.keySet().iterator(); it.hasNext(); ) {
+        if (resourceId.equals(it.next().get(0))) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    synchronized (cache) {
+      ++generation;
+      cache.clear();
+    }
+  }
+
+  /** GETs served from the cache without contacting the server */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** GETs that the server confirmed with 304 Not Modified */
+  public long getRevalidationCount() {
+    return revalidations.get();
+  }
+
+  /** GETs that fetched the resource from the server */
+  public long getMissCount() {
+    return misses.get();
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.rest.client;
+
+import com.google.greaze.definition.rest.ResourceId;
+import com.google.greaze.definition.rest.RestResourceBase;
+import com.google.greaze.definition.rest.RestResponseBase;
+
+/**
+ * The outcome of a conditional GET issued with an If-None-Match header
+ */
+public final class ConditionalResponse<I extends ResourceId, R extends RestResourceBase<I, R>> {
+  private final RestResponseBase<I, R> response;
+  private final String etag;
+
+  ConditionalResponse(RestResponseBase<I, R> response, String etag) {
+    this.response = response;
+    this.etag = etag;
+  }
+
+  /**
+   * @return true if the server responded with 304 Not Modified, so the cached copy is current
+   */
+  public boolean isNotModified() {
+    return response == null;
+  }
+
+  /**
+   * @return the fresh response, or null if {@link #isNotModified()}
+   */
+  public RestResponseBase<I, R> getResponse() {
+    return response;
+  }
+
+  /**
+   * @return the ETag sent by the server, null if it did not send one
+   */
+  public String getETag() {
+    return etag;
+  }
+}
@@ -16,38 +16,48 @@
 package com.google.greaze.rest.client;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import com.google.greaze.definition.CallPath;
-import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HttpMethod;
-import com.google.greaze.definition.UrlParams;
-import com.google.greaze.definition.UrlParamsSpec;
 import com.google.greaze.definition.rest.ResourceDepotBase;
 import com.google.greaze.definition.rest.ResourceId;
 import com.google.greaze.definition.rest.RestCallSpec;
 import com.google.greaze.definition.rest.RestCallSpec.Builder;
 import com.google.greaze.definition.rest.IdGsonTypeAdapterFactory;
 import com.google.greaze.definition.rest.RestRequestBase;
-import com.google.greaze.definition.rest.RestRequestSpec;
 import com.google.greaze.definition.rest.RestResourceBase;
 import com.google.greaze.definition.rest.RestResponseBase;
 import com.google.greaze.definition.rest.WebContext;
 import com.google.greaze.definition.rest.WebContextSpec;
+import com.google.greaze.webservice.client.ClientExecutors;
+import com.google.greaze.webservice.client.Hedger;
+import com.google.greaze.webservice.client.ResponseFuture;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
- * A client class to access a rest resource
+ * A client class to access a rest resource. Each blocking method has an <code>*Async</code>
+ * variant that runs the call on an {@link Executor} and returns a {@link ResponseFuture}.
+ * The call still blocks a thread of that executor for its whole exchange, so the executor
+ * bounds how many calls are in flight. See {@link ClientExecutors#getDefault()} for the limits
+ * of the default one.
  *
  * @author Inderjeet Singh
  */
 public class ResourceDepotBaseClient<I extends ResourceId, R extends RestResourceBase<I, R>>
     implements ResourceDepotBase<I, R> {
+  /** Upper bound on the ids sent in one batch GET to keep the URL at a safe length */
+  public static final int MAX_IDS_PER_BATCH = 100;
+
   private final RestClientStub stub;
   private final RestCallSpec callSpec;
-  private final Type resourceType;
   private final Gson gson;
-  private final boolean inlined;
+  private final RestCallTemplate<I, R> template;
 
   /**
    * @param stub stub containing server info to access the rest client
@@ -66,11 +76,10 @@ public class ResourceDepotBaseClient<I extends ResourceId, R extends RestResourc
       RestCallSpec callSpec, GsonBuilder gsonBuilder, boolean inlined) {
     this.stub = stub;
     this.callSpec = callSpec;
-    this.resourceType = resourceType;
     this.gson = callSpec.addTypeAdapters(gsonBuilder)
         .registerTypeAdapterFactory(new IdGsonTypeAdapterFactory())
         .create();
-    this.inlined = inlined;
+    this.template = stub.compile(callSpec, resourceType, inlined);
   }
 
   public static RestCallSpec generateRestCallSpec(
@@ -83,66 +92,165 @@ public class ResourceDepotBaseClient<I extends ResourceId, R extends RestResourc
     return builder.build();
   }
 
+  public CallPath getCallPath() {
+    return callSpec.getPath();
+  }
+
+  /**
+   * {@inheritDoc}
+   * The GET is hedged if the {@link com.google.greaze.webservice.client.ServerConfig} of the
+   * stub has a {@link com.google.greaze.webservice.client.HedgingPolicy}.
+   */
   @Override
-  public R get(I resourceId, WebContext context) {
-    RestRequestSpec requestSpec = callSpec.getRequestSpec();
-    HeaderMap.Builder requestHeadersBuilder = new HeaderMap.Builder(requestSpec.getHeadersSpec());
-    if (context != null) {
-      context.populate(requestHeadersBuilder);
+  public R get(final I resourceId, final WebContext context) {
+    Hedger hedger = stub.getHedger();
+    if (hedger == null) {
+      return getOnce(resourceId, context);
     }
-    HeaderMap requestHeaders = requestHeadersBuilder.build();
-    UrlParamsSpec urlParamsSpec = callSpec.getRequestSpec().getUrlParamsSpec();
-    UrlParams urlParams = new UrlParams.Builder(urlParamsSpec).build();
-    RestRequestBase<I, R> request = new RestRequestBase<I, R>(
-        HttpMethod.GET, requestHeaders, urlParams, resourceId, null, resourceType, inlined);
-    RestResponseBase<I, R> response = stub.getResponse(callSpec, request, gson);
+    return hedger.execute(callSpec.getPath(), new Callable<R>() {
+      @Override
+      public R call() {
+        return getOnce(resourceId, context);
+      }
+    });
+  }
+
+  private R getOnce(I resourceId, WebContext context) {
+    RestRequestBase<I, R> request = template.newRequest(HttpMethod.GET, resourceId, null, context);
+    RestResponseBase<I, R> response = stub.getResponse(template, request, gson);
     return response.getResource();
   }
 
+  /**
+   * Fetches several resources with batch GETs of up to {@link #MAX_IDS_PER_BATCH} ids each,
+   * instead of one round trip per id.
+   *
+   * @return the resources that exist, in the order of the ids. Missing ids are skipped.
+   */
+  public List<R> getAll(Collection<I> resourceIds, WebContext context) {
+    List<R> resources = new ArrayList<R>(resourceIds.size());
+    List<I> batch = new ArrayList<I>(Math.min(resourceIds.size(), MAX_IDS_PER_BATCH));
+    for (I resourceId : resourceIds) {
+      batch.add(resourceId);
+      if (batch.size() == MAX_IDS_PER_BATCH) {
+        resources.addAll(getBatch(batch, context));
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      resources.addAll(getBatch(batch, context));
+    }
+    return resources;
+  }
+
+  private List<R> getBatch(List<I> resourceIds, WebContext context) {
+    RestRequestBase<I, R> request = template.newRequest(HttpMethod.GET, null, null, context);
+    return stub.getAll(callSpec, request, resourceIds, gson);
+  }
+
+  /**
+   * Fetches the resource unless it still matches the specified ETag
+   *
+   * @param ifNoneMatch ETag of the copy the caller already has. May be null.
+   */
+  public ConditionalResponse<I, R> getIfModified(I resourceId, WebContext context,
+      String ifNoneMatch) {
+    RestRequestBase<I, R> request = template.newRequest(HttpMethod.GET, resourceId, null, context);
+    return stub.getResponseIfModified(callSpec, request, gson, ifNoneMatch);
+  }
+
   @Override
   public R post(R resource, WebContext context) {
-    RestRequestSpec requestSpec = callSpec.getRequestSpec();
-    HeaderMap.Builder requestHeadersBuilder = new HeaderMap.Builder(requestSpec.getHeadersSpec());
-    if (context != null) {
-      context.populate(requestHeadersBuilder);
-    }
-    HeaderMap requestHeaders = requestHeadersBuilder.build();
-    UrlParamsSpec urlParamsSpec = callSpec.getRequestSpec().getUrlParamsSpec();
-    UrlParams urlParams = new UrlParams.Builder(urlParamsSpec).build();
-    RestRequestBase<I, R> request = new RestRequestBase<I, R>(
-        HttpMethod.POST, requestHeaders, urlParams, resource.getId(), resource, resourceType, inlined);
-    RestResponseBase<I, R> response = stub.getResponse(callSpec, request, gson);
+    RestRequestBase<I, R> request =
+        template.newRequest(HttpMethod.POST, resource.getId(), resource, context);
+    RestResponseBase<I, R> response = stub.getResponse(template, request, gson);
     return response.getResource();
   }
 
   @Override
   public R put(R resource, WebContext context) {
-    RestRequestSpec requestSpec = callSpec.getRequestSpec();
-    HeaderMap.Builder requestHeadersBuilder = new HeaderMap.Builder(requestSpec.getHeadersSpec());
-    if (context != null) {
-      context.populate(requestHeadersBuilder);
-    }
-    HeaderMap requestHeaders = requestHeadersBuilder.build();
-    UrlParamsSpec urlParamsSpec = callSpec.getRequestSpec().getUrlParamsSpec();
-    UrlParams urlParams = new UrlParams.Builder(urlParamsSpec).build();
-    RestRequestBase<I, R> request = new RestRequestBase<I, R>(
-        HttpMethod.PUT, requestHeaders, urlParams, resource.getId(), resource, resourceType, inlined);
-    RestResponseBase<I, R> response = stub.getResponse(callSpec, request, gson);
+    RestRequestBase<I, R> request =
+        template.newRequest(HttpMethod.PUT, resource.getId(), resource, context);
+    RestResponseBase<I, R> response = stub.getResponse(template, request, gson);
     return response.getResource();
   }
 
   @Override
   public void delete(I resourceId, WebContext context) {
-    RestRequestSpec requestSpec = callSpec.getRequestSpec();
-    HeaderMap.Builder requestHeadersBuilder = new HeaderMap.Builder(requestSpec.getHeadersSpec());
-    if (context != null) {
-      context.populate(requestHeadersBuilder);
-    }
-    HeaderMap requestHeaders = requestHeadersBuilder.build();
-    UrlParamsSpec urlParamsSpec = callSpec.getRequestSpec().getUrlParamsSpec();
-    UrlParams urlParams = new UrlParams.Builder(urlParamsSpec).build();
-    RestRequestBase<I, R> request = new RestRequestBase<I, R>(
-        HttpMethod.DELETE, requestHeaders, urlParams, resourceId, null, resourceType, inlined);
-    stub.getResponse(callSpec, request, gson);
+    RestRequestBase<I, R> request =
+        template.newRequest(HttpMethod.DELETE, resourceId, null, context);
+    stub.getResponse(template, request, gson);
+  }
+
+  /**
+   * Same as {@link #get(ResourceId, WebContext)} but runs on {@link ClientExecutors#getDefault()}
+   */
+  public ResponseFuture<R> getAsync(I resourceId, WebContext context) {
+    return getAsync(resourceId, context, ClientExecutors.getDefault());
+  }
+
+  public ResponseFuture<R> getAsync(final I resourceId, final WebContext context,
+      Executor executor) {
+    return ResponseFuture.submit(new Callable<R>() {
+      @Override
+      public R call() {
+        return get(resourceId, context);
+      }
+    }, executor);
+  }
+
+  /**
+   * Same as {@link #post(RestResourceBase, WebContext)} but runs on
+   * {@link ClientExecutors#getDefault()}
+   */
+  public ResponseFuture<R> postAsync(R resource, WebContext context) {
+    return postAsync(resource, context, ClientExecutors.getDefault());
+  }
+
+  public ResponseFuture<R> postAsync(final R resource, final WebContext context,
+      Executor executor) {
+    return ResponseFuture.submit(new Callable<R>() {
+      @Override
+      public R call() {
+        return post(resource, context);
+      }
+    }, executor);
+  }
+
+  /**
+   * Same as {@link #put(RestResourceBase, WebContext)} but runs on
+   * {@link ClientExecutors#getDefault()}
+   */
+  public ResponseFuture<R> putAsync(R resource, WebContext context) {
+    return putAsync(resource, context, ClientExecutors.getDefault());
+  }
+
+  public ResponseFuture<R> putAsync(final R resource, final WebContext context,
+      Executor executor) {
+    return ResponseFuture.submit(new Callable<R>() {
+      @Override
+      public R call() {
+        return put(resource, context);
+      }
+    }, executor);
+  }
+
+  /**
+   * Same as {@link #delete(ResourceId, WebContext)} but runs on
+   * {@link ClientExecutors#getDefault()}
+   */
+  public ResponseFuture<Void> deleteAsync(I resourceId, WebContext context) {
+    return deleteAsync(resourceId, context, ClientExecutors.getDefault());
+  }
+
+  public ResponseFuture<Void> deleteAsync(final I resourceId, final WebContext context,
+      Executor executor) {
+    return ResponseFuture.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        delete(resourceId, context);
+        return null;
+      }
+    }, executor);
   }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.rest.client;
+
+import java.lang.reflect.Type;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import com.google.greaze.client.internal.utils.UrlParamStringBuilder;
+import com.google.greaze.definition.ContentBodyType;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HeaderMap;
+import com.google.greaze.definition.HeaderMapSpec;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.UrlParams;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.rest.ResourceId;
+import com.google.greaze.definition.rest.RestCallSpec;
+import com.google.greaze.definition.rest.RestRequestBase;
+import com.google.greaze.definition.rest.RestRequestSpec;
+import com.google.greaze.definition.rest.RestResourceBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.definition.webservice.RequestBody;
+import com.google.greaze.definition.webservice.RequestBodySpec;
+import com.google.gson.Gson;
+
+/**
+ * The parts of a REST request that only depend on the {@link RestCallSpec}, built once so that
+ * each call only has to fill in the id, the context and the body. This includes the service path,
+ * the request specs, and the empty headers, URL parameters and body that most requests use.
+ * Create one with {@link RestClientStub#compile(RestCallSpec, Type, boolean)}.
+ */
+public final class RestCallTemplate<I extends ResourceId, R extends RestResourceBase<I, R>> {
+  private final RestCallSpec callSpec;
+  private final String servicePath;
+  private final boolean inlined;
+  private final HeaderMapSpec headersSpec;
+  private final HeaderMap emptyHeaders;
+  private final UrlParams emptyUrlParams;
+  private final RestRequestSpec requestSpec;
+  private final RequestBodySpec bodySpec;
+  private final RequestBody emptyBody;
+
+  RestCallTemplate(RestCallSpec callSpec, String servicePath, Type resourceType, boolean inlined) {
+    this.callSpec = callSpec;
+    this.servicePath = servicePath;
+    this.inlined = inlined;
+    this.headersSpec = callSpec.getRequestSpec().getHeadersSpec();
+    this.emptyHeaders = new HeaderMap.Builder(headersSpec).build();
+    this.emptyUrlParams =
+        new UrlParams.Builder(callSpec.getRequestSpec().getUrlParamsSpec()).build();
+    this.requestSpec = new RestRequestSpec(headersSpec, resourceType);
+    this.bodySpec = new RequestBodySpec(ContentBodyType.SIMPLE, null, resourceType);
+    this.emptyBody = new RequestBody.Builder(bodySpec).build();
+  }
+
+  public RestCallSpec getCallSpec() {
+    return callSpec;
+  }
+
+  public RestRequestBase<I, R> newRequest(HttpMethod method, I resourceId, R resource,
+      WebContext context) {
+    HeaderMap headers = emptyHeaders;
+    if (context != null) {
+      HeaderMap.Builder headersBuilder = new HeaderMap.Builder(headersSpec);
+      context.populate(headersBuilder);
+      headers = headersBuilder.build();
+    }
+    RequestBody body = resource == null
+        ? emptyBody : new RequestBody.Builder(bodySpec).setSimpleBody(resource).build();
+    return new RestRequestBase<I, R>(
+        method, headers, emptyUrlParams, resourceId, body, requestSpec, inlined);
+  }
+
+  /**
+   * @param serviceBaseUrl the base URL of the endpoint the request is sent to
+   */
+  public URL getUrl(String serviceBaseUrl, RestRequestBase<I, R> request, Gson gson) {
+    ResourceId id = request.getId();
+    String idValue = id == null ? null : id.getValue();
+    UrlParams urlParams = request.getUrlParameters();
+    String urlParamString = urlParams == emptyUrlParams
+        ? "" : new UrlParamStringBuilder(gson).add(urlParams).build();
+    StringBuilder url = new StringBuilder(serviceBaseUrl.length() + servicePath.length() + 32
+        + urlParamString.length())
+      .append(serviceBaseUrl)
+      .append(servicePath);
+    if (idValue != null) {
+      url.append('/').append(idValue);
+    }
+    url.append(urlParamString);
+    try {
+      return new URL(url.toString());
+    } catch (MalformedURLException e) {
+      // Not an IOException reason: retrying the same URL can not help
+      throw new WebServiceSystemException(ErrorReason.BAD_REQUEST, e.getMessage(), e);
+    }
+  }
+}
@@ -15,11 +15,24 @@
  */
 package com.google.greaze.rest.client;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import com.google.greaze.client.internal.utils.UrlParamStringBuilder;
+import com.google.greaze.definition.EntityTags;
 import com.google.greaze.definition.UrlParams;
 import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.definition.rest.Id;
@@ -31,10 +44,15 @@ import com.google.greaze.definition.rest.RestResource;
 import com.google.greaze.definition.rest.RestResourceBase;
 import com.google.greaze.definition.rest.RestResponse;
 import com.google.greaze.definition.rest.RestResponseBase;
+import com.google.greaze.webservice.client.ClientExecutors;
+import com.google.greaze.webservice.client.ClientMetrics.Timer;
+import com.google.greaze.webservice.client.ClientTransport;
+import com.google.greaze.webservice.client.CodecRegistry;
+import com.google.greaze.webservice.client.Endpoint;
+import com.google.greaze.webservice.client.ResponseFuture;
 import com.google.greaze.webservice.client.ServerConfig;
 import com.google.greaze.webservice.client.WebServiceClient;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 /**
  * A stub to access the rest service
@@ -47,9 +65,19 @@ public class RestClientStub extends WebServiceClient {
     super(serverConfig);
   }
 
-  private <I extends ResourceId> URL getWebServiceUrl(RestCallSpec callSpec, ResourceId id,
-      UrlParams urlParams, Gson gson) {
-    StringBuilder url = new StringBuilder(buildBasePath(callSpec));
+  public RestClientStub(ServerConfig serverConfig, ClientTransport transport) {
+    super(serverConfig, transport);
+  }
+
+  private <I extends ResourceId> URL getWebServiceUrl(String serviceBaseUrl,
+      RestCallSpec callSpec, ResourceId id, UrlParams urlParams, Gson gson) {
+    return getWebServiceUrl(serviceBaseUrl, callSpec, id, urlParams, gson, null);
+  }
+
+  private <I extends ResourceId> URL getWebServiceUrl(String serviceBaseUrl,
+      RestCallSpec callSpec, ResourceId id, UrlParams urlParams, Gson gson,
+      Collection<? extends ResourceId> ids) {
+    StringBuilder url = new StringBuilder(buildBasePath(serviceBaseUrl, callSpec));
     if (id != null && id.getValue() != null) {
       url.append('/').append(id.getValue());
     }
@@ -58,12 +86,35 @@ public class RestClientStub extends WebServiceClient {
         .add(urlParams)
         .build();
       url.append(urlParamString);
+      if (ids != null) {
+        url.append(urlParamString.length() == 0 ? '?' : '&')
+          .append(RestRequestBase.IDS_URL_PARAM).append('=');
+        boolean first = true;
+        for (ResourceId resourceId : ids) {
+          if (!first) {
+            url.append(',');
+          }
+          first = false;
+          url.append(URLEncoder.encode(resourceId.getValue(), "UTF-8"));
+        }
+      }
       return new URL(url.toString());
     } catch (MalformedURLException e) {
       throw new RuntimeException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Precomputes the parts of requests for the specified call spec that do not change between
+   * calls. Use the template with {@link #getResponse(RestCallTemplate, RestRequestBase, Gson)}.
+   */
+  public <I extends ResourceId, R extends RestResourceBase<I, R>> RestCallTemplate<I, R> compile(
+      RestCallSpec callSpec, Type resourceType, boolean inlined) {
+    return new RestCallTemplate<I, R>(callSpec, buildServicePath(callSpec), resourceType, inlined);
+  }
+
   public <R extends RestResource<R>> RestResponse<R> getResponse(
       RestCallSpec callSpec, RestRequest<R> request) {
     return (RestResponse<R>) getResponse(callSpec, (RestRequestBase<Id<R>, R>)request);
@@ -71,7 +122,7 @@ public class RestClientStub extends WebServiceClient {
 
   public <I extends ResourceId, R extends RestResourceBase<I, R>> RestResponseBase<I, R> getResponse(
       RestCallSpec callSpec, RestRequestBase<I, R> request) {
-    Gson gson = new GsonBuilder().setVersion(callSpec.getVersion()).create();
+    Gson gson = CodecRegistry.getDefault().getGson(callSpec.getVersion());
     return getResponse(callSpec, request, gson);
   }
 
@@ -81,15 +132,228 @@ public class RestClientStub extends WebServiceClient {
   }
 
   public <I extends ResourceId, R extends RestResourceBase<I, R>> RestResponseBase<I, R> getResponse(
-      RestCallSpec callSpec, RestRequestBase<I, R> request, Gson gson) {
+      final RestCallSpec callSpec, final RestRequestBase<I, R> request, final Gson gson) {
+    Exchange<RestResponseBase<I, R>> exchange = new Exchange<RestResponseBase<I, R>>() {
+      @Override public RestResponseBase<I, R> run(String serviceBaseUrl, Timer timer) {
+        URL webServiceUrl = getWebServiceUrl(serviceBaseUrl, callSpec, request.getId(),
+            request.getUrlParameters(), gson);
+        return getResponseOnce(callSpec, webServiceUrl, request, gson, timer);
+      }
+    };
+    String shardKey = shardKeyOf(request.getId());
+    return execute(callSpec.getPath(), request.getMethod(), shardKey, exchange);
+  }
+
+  /**
+   * Same as {@link #getResponse(RestCallSpec, RestRequestBase, Gson)} but uses the precomputed
+   * template to build the URL.
+   */
+  public <I extends ResourceId, R extends RestResourceBase<I, R>> RestResponseBase<I, R> getResponse(
+      final RestCallTemplate<I, R> template, final RestRequestBase<I, R> request,
+      final Gson gson) {
+    Exchange<RestResponseBase<I, R>> exchange = new Exchange<RestResponseBase<I, R>>() {
+      @Override public RestResponseBase<I, R> run(String serviceBaseUrl, Timer timer) {
+        URL webServiceUrl = template.getUrl(serviceBaseUrl, request, gson);
+        return getResponseOnce(template.getCallSpec(), webServiceUrl, request, gson, timer);
+      }
+    };
+    String shardKey = shardKeyOf(request.getId());
+    return execute(template.getCallSpec().getPath(), request.getMethod(), shardKey, exchange);
+  }
+
+  private <I extends ResourceId, R extends RestResourceBase<I, R>>
+      RestResponseBase<I, R> getResponseOnce(RestCallSpec callSpec, URL webServiceUrl,
+          RestRequestBase<I, R> request, Gson gson, Timer timer) {
     HttpURLConnection conn = null;
+    boolean completed = false;
     try {
-      URL webServiceUrl = getWebServiceUrl(callSpec, request.getId(),
+      conn = openConnection(webServiceUrl);
+      timer.connected();
+      RestResponseBase<I, R> response = getResponse(callSpec, request, gson, conn, timer);
+      completed = true;
+      return response;
+    } finally {
+      releaseConnection(conn, completed);
+    }
+  }
+
+  /**
+   * Fetches several resources in a single batch GET. The request must be a GET without an id.
+   * If the endpoints are shards, the ids are split per shard and the batches run in parallel on
+   * {@link ClientExecutors#getFanOut()}.
+   *
+   * @return the resources that exist, in the order of the ids. Missing ids are skipped.
+   */
+  public <I extends ResourceId, R extends RestResourceBase<I, R>> List<R> getAll(
+      final RestCallSpec callSpec, final RestRequestBase<I, R> request, Collection<I> ids,
+      final Gson gson) {
+    if (!isSharded()) {
+      return getBatch(callSpec, request, ids, gson, null);
+    }
+    Map<Endpoint, List<I>> shards = new LinkedHashMap<Endpoint, List<I>>();
+    for (I id : ids) {
+      Endpoint shard = getShard(id.getValue());
+      List<I> shardIds = shards.get(shard);
+      if (shardIds == null) {
+        shardIds = new ArrayList<I>();
+        shards.put(shard, shardIds);
+      }
+      shardIds.add(id);
+    }
+    if (shards.size() <= 1) {
+      return getBatch(callSpec, request, ids, gson, shards.isEmpty() ? null
+          : shardKeyOf(ids.iterator().next()));
+    }
+    // The last batch runs in the calling thread
+    List<ResponseFuture<List<R>>> futures = new ArrayList<ResponseFuture<List<R>>>();
+    List<I> lastShardIds = null;
+    for (final List<I> shardIds : shards.values()) {
+      if (lastShardIds != null) {
+        final List<I> batch = lastShardIds;
+        futures.add(ResponseFuture.submit(new Callable<List<R>>() {
+          @Override
+          public List<R> call() {
+            return getBatch(callSpec, request, batch, gson, shardKeyOf(batch.get(0)));
+          }
+        }, ClientExecutors.getFanOut()));
+      }
+      lastShardIds = shardIds;
+    }
+    Map<String, R> resourcesById = new HashMap<String, R>();
+    try {
+      addById(resourcesById,
+          getBatch(callSpec, request, lastShardIds, gson, shardKeyOf(lastShardIds.get(0))));
+      for (ResponseFuture<List<R>> future : futures) {
+        addById(resourcesById, future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WebServiceSystemException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new WebServiceSystemException(e);
+    } finally {
+      for (ResponseFuture<List<R>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    List<R> resources = new ArrayList<R>(resourcesById.size());
+    for (I id : ids) {
+      R resource = resourcesById.get(id.getValue());
+      if (resource != null) {
+        resources.add(resource);
+      }
+    }
+    return resources;
+  }
+
+  private static <R extends RestResourceBase<?, R>> void addById(Map<String, R> resourcesById,
+      List<R> resources) {
+    for (R resource : resources) {
+      resourcesById.put(resource.getId().getValue(), resource);
+    }
+  }
+
+  private static String shardKeyOf(ResourceId id) {
+    return id == null ? null : id.getValue();
+  }
+
+  private <I extends ResourceId, R extends RestResourceBase<I, R>> List<R> getBatch(
+      final RestCallSpec callSpec, final RestRequestBase<I, R> request, final Collection<I> ids,
+      final Gson gson, String shardKey) {
+    return execute(callSpec.getPath(), request.getMethod(), shardKey, new Exchange<List<R>>() {
+      @Override public List<R> run(String serviceBaseUrl, Timer timer) {
+        return getAllOnce(serviceBaseUrl, callSpec, request, ids, gson, timer);
+      }
+    });
+  }
+
+  private <I extends ResourceId, R extends RestResourceBase<I, R>> List<R> getAllOnce(
+      String serviceBaseUrl, RestCallSpec callSpec, RestRequestBase<I, R> request,
+      Collection<I> ids, Gson gson, Timer timer) {
+    HttpURLConnection conn = null;
+    boolean completed = false;
+    try {
+      URL webServiceUrl = getWebServiceUrl(serviceBaseUrl, callSpec, null,
+          request.getUrlParameters(), gson, ids);
+      conn = openConnection(webServiceUrl);
+      timer.connected();
+      RestRequestSender requestSender = new RestRequestSender(gson, config);
+      requestSender.send(conn, request);
+      timer.sent(requestSender.getBytesSent());
+      timer.firstByte(conn);
+      RestResponseBaseReceiver<I, R> responseReceiver =
+          new RestResponseBaseReceiver<I, R>(gson, callSpec.getResponseSpec());
+      List<R> resources = responseReceiver.receiveList(conn);
+      timer.received(responseReceiver.getBytesReceived());
+      completed = true;
+      return resources;
+    } catch (IllegalArgumentException e) {
+      throw new WebServiceSystemException(e);
+    } finally {
+      releaseConnection(conn, completed);
+    }
+  }
+
+  /**
+   * Issues a conditional request that the server answers with 304 Not Modified if the resource
+   * still matches the specified ETag.
+   *
+   * @param ifNoneMatch ETag of the cached copy. If null, this is a plain request.
+   */
+  public <I extends ResourceId, R extends RestResourceBase<I, R>>
+      ConditionalResponse<I, R> getResponseIfModified(final RestCallSpec callSpec,
+          final RestRequestBase<I, R> request, final Gson gson, final String ifNoneMatch) {
+    Exchange<ConditionalResponse<I, R>> exchange = new Exchange<ConditionalResponse<I, R>>() {
+      @Override public ConditionalResponse<I, R> run(String serviceBaseUrl, Timer timer) {
+        return getResponseIfModifiedOnce(
+            serviceBaseUrl, callSpec, request, gson, ifNoneMatch, timer);
+      }
+    };
+    String shardKey = shardKeyOf(request.getId());
+    return execute(callSpec.getPath(), request.getMethod(), shardKey, exchange);
+  }
+
+  private <I extends ResourceId, R extends RestResourceBase<I, R>>
+      ConditionalResponse<I, R> getResponseIfModifiedOnce(String serviceBaseUrl,
+          RestCallSpec callSpec, RestRequestBase<I, R> request, Gson gson, String ifNoneMatch,
+          Timer timer) {
+    HttpURLConnection conn = null;
+    boolean completed = false;
+    try {
+      URL webServiceUrl = getWebServiceUrl(serviceBaseUrl, callSpec, request.getId(),
           request.getUrlParameters(), gson);
       conn = openConnection(webServiceUrl);
-      return getResponse(callSpec, request, gson, conn);
+      timer.connected();
+      if (ifNoneMatch != null) {
+        conn.setRequestProperty(EntityTags.IF_NONE_MATCH_HEADER, ifNoneMatch);
+      }
+      RestRequestSender requestSender = new RestRequestSender(gson, config);
+      requestSender.send(conn, request);
+      timer.sent(requestSender.getBytesSent());
+      timer.firstByte(conn);
+      String etag;
+      RestResponseBase<I, R> response = null;
+      if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        etag = ifNoneMatch;
+        timer.received(0L);
+      } else {
+        RestResponseBaseReceiver<I, R> responseReceiver =
+            new RestResponseBaseReceiver<I, R>(gson, callSpec.getResponseSpec());
+        response = responseReceiver.receive(conn);
+        timer.received(responseReceiver.getBytesReceived());
+        etag = conn.getHeaderField(EntityTags.ETAG_HEADER);
+      }
+      completed = true;
+      return new ConditionalResponse<I, R>(response, etag);
+    } catch (IOException e) {
+      throw new WebServiceSystemException(e);
+    } catch (IllegalArgumentException e) {
+      throw new WebServiceSystemException(e);
     } finally {
-      closeIgnoringErrors(conn);
+      releaseConnection(conn, completed);
     }
   }
 
@@ -108,12 +372,22 @@ public class RestClientStub extends WebServiceClient {
    */
   public <I extends ResourceId, R extends RestResourceBase<I, R>> RestResponseBase<I, R> getResponse(
       RestCallSpec callSpec, RestRequestBase<I, R> request, Gson gson, HttpURLConnection conn) {
+    return getResponse(callSpec, request, gson, conn, Timer.DISABLED);
+  }
+
+  private <I extends ResourceId, R extends RestResourceBase<I, R>> RestResponseBase<I, R> getResponse(
+      RestCallSpec callSpec, RestRequestBase<I, R> request, Gson gson, HttpURLConnection conn,
+      Timer timer) {
     try {
-      RestRequestSender requestSender = new RestRequestSender(gson);
+      RestRequestSender requestSender = new RestRequestSender(gson, config);
       requestSender.send(conn, request);
+      timer.sent(requestSender.getBytesSent());
+      timer.firstByte(conn);
       RestResponseBaseReceiver<I, R> responseReceiver =
         new RestResponseBaseReceiver<I, R>(gson, callSpec.getResponseSpec());
-      return responseReceiver.receive(conn);
+      RestResponseBase<I, R> response = responseReceiver.receive(conn);
+      timer.received(responseReceiver.getBytesReceived());
+      return response;
     } catch (IllegalArgumentException e) {
       throw new WebServiceSystemException(e);
     }
@@ -21,6 +21,7 @@ import com.google.greaze.definition.rest.ResourceId;
 import com.google.greaze.definition.rest.RestRequestBase;
 import com.google.greaze.definition.rest.RestResourceBase;
 import com.google.greaze.webservice.client.RequestSender;
+import com.google.greaze.webservice.client.ServerConfig;
 import com.google.gson.Gson;
 
 /**
@@ -34,6 +35,10 @@ public final class RestRequestSender extends RequestSender {
     super(gson);
   }
 
+  public RestRequestSender(Gson gson, ServerConfig config) {
+    super(gson, config);
+  }
+
   public <I extends ResourceId, R extends RestResourceBase<I, R>> void send(
       HttpURLConnection conn, RestRequestBase<I, R> request) {
     super.send(conn, request);
@@ -16,19 +16,17 @@
 package com.google.greaze.rest.client;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringWriter;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
+import java.util.List;
 
 import com.google.greaze.client.internal.utils.ConnectionPreconditions;
 import com.google.greaze.definition.ContentBodySpec;
 import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HeaderMapSpec;
-import com.google.greaze.definition.LogConfig;
 import com.google.greaze.definition.WebServiceSystemException;
-import com.google.greaze.definition.internal.utils.Streams;
+import com.google.greaze.definition.internal.utils.$GreazeTypes;
 import com.google.greaze.definition.rest.ResourceId;
 import com.google.greaze.definition.rest.RestResourceBase;
 import com.google.greaze.definition.rest.RestResponseBase;
@@ -68,20 +66,29 @@ public class RestResponseBaseReceiver<I extends ResourceId, R extends RestResour
     }
   }
 
+  /**
+   * Receives the response to a batch GET, a JSON array of resources
+   */
+  public List<R> receiveList(HttpURLConnection conn) {
+    try {
+      handleResponseCode(conn);
+      Type listType = $GreazeTypes.newParameterizedTypeWithOwner(
+          null, List.class, getSpec().getResourceType());
+      return readResponseBody(conn, listType);
+    } catch (IOException e) {
+      ErrorReason reason = ErrorReason.fromValue(conn, e);
+      throw new WebServiceSystemException(reason, e);
+    }
+  }
+
   // We could reuse the base classes method, readResponseBody. However, that requires that
   // a RequestBody.GsonTypeAdapter is registered. We avoid that registration for REST resources
   // with this implementation
-  @SuppressWarnings("unchecked")
-  private R readResponseBody(
+  private <T> T readResponseBody(
       HttpURLConnection conn, Type resourceType) throws IOException {
     String connContentType = conn.getContentType();
     ConnectionPreconditions.checkArgument(connContentType != null && 
       connContentType.contains(ContentBodySpec.JSON_CONTENT_TYPE), conn);
-    StringWriter writer = new StringWriter();
-    Streams.copy(new InputStreamReader(conn.getInputStream()), writer, true, true);
-    String json = writer.getBuffer().toString();
-    if (LogConfig.INFO) logger.info("Response Body: " + json);
-    R body = (R) gson.fromJson(json, resourceType);
-    return body;
+    return this.<T>parseBody(conn, resourceType);
   }
 }
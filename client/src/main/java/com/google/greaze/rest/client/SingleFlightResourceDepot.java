@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.rest.client;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import com.google.greaze.definition.rest.ResourceDepotBase;
+import com.google.greaze.definition.rest.ResourceId;
+import com.google.greaze.definition.rest.RestResourceBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.webservice.client.SingleFlight;
+
+/**
+ * A {@link ResourceDepotBase} that coalesces concurrent identical GETs into a single call to the
+ * server. GETs are identical if they are for the same
+ * {@link com.google.greaze.definition.CallPath}, resource id and {@link WebContext}. POST, PUT and DELETE are always passed through.
+ *
+ * <p>All callers of a coalesced GET receive the same resource instance, so treat it as
+ * read-only.
+ */
+public class SingleFlightResourceDepot<I extends ResourceId, R extends RestResourceBase<I, R>>
+    implements ResourceDepotBase<I, R> {
+
+  private final ResourceDepotBaseClient<I, R> delegate;
+  private final SingleFlight singleFlight;
+
+  public SingleFlightResourceDepot(ResourceDepotBaseClient<I, R> delegate) {
+    this(delegate, new SingleFlight());
+  }
+
+  /**
+   * @param singleFlight may be shared with other depots and queries
+   */
+  public SingleFlightResourceDepot(ResourceDepotBaseClient<I, R> delegate,
+      SingleFlight singleFlight) {
+    this.delegate = delegate;
+    this.singleFlight = singleFlight;
+  }
+
+  @Override
+  public R get(final I resourceId, final WebContext context) {
+    Object key = Arrays.asList(delegate.getCallPath(), resourceId, context);
+    return singleFlight.execute(key, new Callable<R>() {
+      @Override
+      public R call() {
+        return delegate.get(resourceId, context);
+      }
+    });
+  }
+
+  @Override
+  public R post(R resource, WebContext context) {
+    return delegate.post(resource, context);
+  }
+
+  @Override
+  public R put(R resource, WebContext context) {
+    return delegate.put(resource, context);
+  }
+
+  @Override
+  public void delete(I resourceId, WebContext context) {
+    delegate.delete(resourceId, context);
+  }
+}
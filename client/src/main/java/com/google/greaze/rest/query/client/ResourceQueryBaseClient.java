@@ -17,6 +17,8 @@ package com.google.greaze.rest.query.client;
 
 import java.lang.reflect.Type;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import com.google.greaze.definition.CallPath;
 import com.google.greaze.definition.HeaderMap;
@@ -36,6 +38,9 @@ import com.google.greaze.definition.webservice.ResponseBody;
 import com.google.greaze.definition.webservice.WebServiceCallSpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
 import com.google.greaze.definition.webservice.WebServiceResponse;
+import com.google.greaze.webservice.client.ClientExecutors;
+import com.google.greaze.webservice.client.Hedger;
+import com.google.greaze.webservice.client.ResponseFuture;
 import com.google.greaze.webservice.client.WebServiceClient;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -86,9 +91,27 @@ public class ResourceQueryBaseClient<
     this.inlined = inlined;
   }
 
-  @SuppressWarnings({"unchecked", "rawtypes"})
+  /**
+   * {@inheritDoc}
+   * The query is hedged if the {@link com.google.greaze.webservice.client.ServerConfig} of the
+   * stub has a {@link com.google.greaze.webservice.client.HedgingPolicy}.
+   */
   @Override
-  public List<R> query(Q query, WebContext context) {
+  public List<R> query(final Q query, final WebContext context) {
+    Hedger hedger = stub.getHedger();
+    if (hedger == null) {
+      return queryOnce(query, context);
+    }
+    return hedger.execute(callSpec.getPath(), new Callable<List<R>>() {
+      @Override
+      public List<R> call() {
+        return queryOnce(query, context);
+      }
+    });
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private List<R> queryOnce(Q query, WebContext context) {
     RequestSpec requestSpec = callSpec.getRequestSpec();
     HeaderMap.Builder requestHeadersBuilder = new HeaderMap.Builder(requestSpec.getHeadersSpec());
     if (context != null) {
@@ -106,6 +129,28 @@ public class ResourceQueryBaseClient<
     return (List)listBody;
   }
 
+  /**
+   * Same as {@link #query(ResourceQueryParams, WebContext)} but runs on
+   * {@link ClientExecutors#getDefault()}, holding one of its threads for the whole call
+   */
+  public ResponseFuture<List<R>> queryAsync(Q query, WebContext context) {
+    return queryAsync(query, context, ClientExecutors.getDefault());
+  }
+
+  public ResponseFuture<List<R>> queryAsync(final Q query, final WebContext context,
+      Executor executor) {
+    return ResponseFuture.submit(new Callable<List<R>>() {
+      @Override
+      public List<R> call() {
+        return query(query, context);
+      }
+    }, executor);
+  }
+
+  public CallPath getCallPath() {
+    return callSpec.getPath();
+  }
+
   @Override
   public Type getResourceType() {
     return resourceType;
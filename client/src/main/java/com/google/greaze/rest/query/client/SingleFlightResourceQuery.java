@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.rest.query.client;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.google.greaze.definition.rest.ResourceId;
+import com.google.greaze.definition.rest.RestResourceBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.definition.rest.WebContextSpec;
+import com.google.greaze.definition.rest.query.ResourceQueryBase;
+import com.google.greaze.definition.rest.query.ResourceQueryParams;
+import com.google.greaze.webservice.client.SingleFlight;
+import com.google.gson.Gson;
+
+/**
+ * A {@link ResourceQueryBase} that coalesces concurrent identical queries into a single call to
+ * the server. Queries are identical if they are for the same
+ * {@link com.google.greaze.definition.CallPath}, have the same query parameters and the same
+ * {@link WebContext}.
+ *
+ * <p>All callers of a coalesced query receive the same list instance, so treat it as read-only.
+ */
+public class SingleFlightResourceQuery<
+    I extends ResourceId, R extends RestResourceBase<I, R>, Q extends ResourceQueryParams>
+        implements ResourceQueryBase<I, R, Q> {
+
+  private static final Gson KEY_GSON = new Gson();
+
+  private final ResourceQueryBaseClient<I, R, Q> delegate;
+  private final SingleFlight singleFlight;
+
+  public SingleFlightResourceQuery(ResourceQueryBaseClient<I, R, Q> delegate) {
+    this(delegate, new SingleFlight());
+  }
+
+  /**
+   * @param singleFlight may be shared with other depots and queries
+   */
+  public SingleFlightResourceQuery(ResourceQueryBaseClient<I, R, Q> delegate,
+      SingleFlight singleFlight) {
+    this.delegate = delegate;
+    this.singleFlight = singleFlight;
+  }
+
+  @Override
+  public List<R> query(final Q query, final WebContext context) {
+    Object key = Arrays.asList(delegate.getCallPath(), keyOf(query), context);
+    return singleFlight.execute(key, new Callable<List<R>>() {
+      @Override
+      public List<R> call() {
+        return delegate.query(query, context);
+      }
+    });
+  }
+
+  /**
+   * Identifies identical query parameters. The default uses their JSON form since query
+   * parameter classes typically do not implement equals and hashCode.
+   */
+  protected Object keyOf(Q query) {
+    return query == null ? null : query.getClass().getName() + KEY_GSON.toJson(query);
+  }
+
+  @Override
+  public Type getResourceType() {
+    return delegate.getResourceType();
+  }
+
+  @Override
+  public Type getQueryType() {
+    return delegate.getQueryType();
+  }
+
+  @Override
+  public WebContextSpec getWebContextSpec() {
+    return delegate.getWebContextSpec();
+  }
+}
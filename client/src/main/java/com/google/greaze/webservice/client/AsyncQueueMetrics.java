@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters updated by {@link WebServiceClientAsync} and its {@link QueueConsumer}s
+ */
+final class AsyncQueueMetrics {
+  private final AtomicLong maxDepth = new AtomicLong();
+  private final AtomicLong enqueued = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong dequeued = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  void recordEnqueued(int depth) {
+    enqueued.incrementAndGet();
+    updateMax(maxDepth, depth);
+  }
+
+  void recordRejected() {
+    rejected.incrementAndGet();
+  }
+
+  void recordDropped() {
+    dropped.incrementAndGet();
+  }
+
+  void recordExpired() {
+    expired.incrementAndGet();
+  }
+
+  void recordDequeued(QueueEntry entry) {
+    long waitNanos = System.nanoTime() - entry.enqueuedNanos;
+    dequeued.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+    updateMax(maxWaitNanos, waitNanos);
+  }
+
+  WebServiceClientAsync.Stats snapshot(int depth) {
+    return new WebServiceClientAsync.Stats(depth, (int) maxDepth.get(), enqueued.get(),
+        rejected.get(), dropped.get(), expired.get(), dequeued.get(), totalWaitNanos.get(),
+        maxWaitNanos.get());
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current;
+    while (value > (current = max.get())) {
+      if (max.compareAndSet(current, value)) {
+        return;
+      }
+    }
+  }
+}
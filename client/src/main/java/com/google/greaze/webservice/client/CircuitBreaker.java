@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.greaze.definition.LogConfig;
+
+/**
+ * A circuit breaker for the calls to one call path on one endpoint. While closed, it records
+ * the outcome of the last calls in a sliding window, and trips open once too many of them
+ * failed or were slow. While open, calls fail right away with
+ * {@link com.google.greaze.definition.ErrorReason#SERVER_UNAVAILABLE} instead of tying up a
+ * thread on a degraded backend. Once the open period is over, the breaker is half-open and lets
+ * a few trial calls through to decide whether to close again.
+ */
+public final class CircuitBreaker {
+  private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private static final byte FAILED = 1;
+  private static final byte SLOW = 2;
+
+  private final String name;
+  private final CircuitBreakerPolicy policy;
+  private final long slowCallNanos;
+  private final byte[] window;
+  private int position;
+  private int calls;
+  private int failures;
+  private int slowCalls;
+  private State state = State.CLOSED;
+  private long openedAtNanos;
+  private int trialsStarted;
+  private int trialsSucceeded;
+  private long rejected;
+  private long opened;
+
+  public CircuitBreaker(String name, CircuitBreakerPolicy policy) {
+    this.name = name;
+    this.policy = policy;
+    this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(policy.getSlowCallMillis());
+    this.window = new byte[policy.getWindowSize()];
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return true if the call may proceed, in which case its outcome must be reported with
+   *   {@link #record(long, boolean)}
+   */
+  public synchronized boolean tryAcquire() {
+    if (state == State.OPEN) {
+      long openNanos = TimeUnit.MILLISECONDS.toNanos(policy.getOpenMillis());
+      if (System.nanoTime() - openedAtNanos < openNanos) {
+        ++rejected;
+        return false;
+      }
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialsStarted >= policy.getHalfOpenCalls()) {
+        ++rejected;
+        return false;
+      }
+      ++trialsStarted;
+    }
+    return true;
+  }
+
+  /**
+   * Records the outcome of a call that was let through by {@link #tryAcquire()}
+   *
+   * @param failed whether the call failed because of the server or the network
+   */
+  public synchronized void record(long latencyNanos, boolean failed) {
+    boolean slow = latencyNanos >= slowCallNanos;
+    if (state == State.HALF_OPEN) {
+      if (failed || slow) {
+        transitionTo(State.OPEN);
+      } else if (++trialsSucceeded >= policy.getHalfOpenCalls()) {
+        transitionTo(State.CLOSED);
+      }
+      return;
+    }
+    if (state == State.OPEN) {
+      // A call that started before the breaker tripped
+      return;
+    }
+    byte evicted = window[position];
+    if (calls == window.length) {
+      failures -= evicted & FAILED;
+      slowCalls -= (evicted & SLOW) >> 1;
+    } else {
+      ++calls;
+    }
+    byte outcome = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+    window[position] = outcome;
+    position = (position + 1) % window.length;
+    failures += outcome & FAILED;
+    slowCalls += (outcome & SLOW) >> 1;
+    if (calls >= policy.getMinCalls()
+        && (failures * 100 >= policy.getFailureRatePercent() * calls
+            || slowCalls * 100 >= policy.getSlowCallRatePercent() * calls)) {
+      transitionTo(State.OPEN);
+    }
+  }
+
+  private void transitionTo(State newState) {
+    if (LogConfig.INFO) logger.info(String.format("Circuit breaker %s: %s -> %s, %s",
+        name, state, newState, getStats()));
+    state = newState;
+    if (newState == State.OPEN) {
+      openedAtNanos = System.nanoTime();
+      ++opened;
+    }
+    trialsStarted = 0;
+    trialsSucceeded = 0;
+    if (newState != State.HALF_OPEN) {
+      position = 0;
+      calls = 0;
+      failures = 0;
+      slowCalls = 0;
+    }
+  }
+
+  public synchronized Stats getStats() {
+    return new Stats(state, calls, failures, slowCalls, rejected, opened);
+  }
+
+  @Override
+  public String toString() {
+    return name + ":" + getState();
+  }
+
+  /**
+   * A snapshot of the state of a {@link CircuitBreaker}
+   */
+  public static final class Stats {
+    private final State state;
+    private final int calls;
+    private final int failures;
+    private final int slowCalls;
+    private final long rejected;
+    private final long opened;
+
+    Stats(State state, int calls, int failures, int slowCalls, long rejected, long opened) {
+      this.state = state;
+      this.calls = calls;
+      this.failures = failures;
+      this.slowCalls = slowCalls;
+      this.rejected = rejected;
+      this.opened = opened;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /** Calls in the current window */
+    public int getCalls() {
+      return calls;
+    }
+
+    /** Percentage of the calls in the current window that failed */
+    public int getFailureRatePercent() {
+      return calls == 0 ? 0 : failures * 100 / calls;
+    }
+
+    /** Percentage of the calls in the current window that were slow */
+    public int getSlowCallRatePercent() {
+      return calls == 0 ? 0 : slowCalls * 100 / calls;
+    }
+
+    /** Calls failed right away because the breaker was not closed */
+    public long getRejected() {
+      return rejected;
+    }
+
+    /** Number of times the breaker tripped open */
+    public long getOpened() {
+      return opened;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("state:%s, calls:%d, failures:%d%%, slow:%d%%, rejected:%d, opened:%d",
+          state, calls, getFailureRatePercent(), getSlowCallRatePercent(), rejected, opened);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * Configures the {@link CircuitBreaker}s that a client keeps for each endpoint and call path.
+ * Set the policy with {@link ServerConfig.Builder#setCircuitBreakerPolicy(CircuitBreakerPolicy)}.
+ */
+public final class CircuitBreakerPolicy {
+
+  public static final class Builder {
+    private int windowSize = 100;
+    private int minCalls = 20;
+    private int failureRatePercent = 50;
+    private long slowCallMillis = 5000L;
+    private int slowCallRatePercent = 100;
+    private long openMillis = 10000L;
+    private int halfOpenCalls = 5;
+
+    /**
+     * The breaker looks at the outcomes of the last windowSize calls, and only trips once at
+     * least minCalls of them were made. Defaults to 100 and 20.
+     */
+    public Builder setWindow(int windowSize, int minCalls) {
+      this.windowSize = windowSize;
+      this.minCalls = minCalls;
+      return this;
+    }
+
+    /**
+     * Trips the breaker once this percentage of the calls in the window failed with a server or
+     * network error. Defaults to 50.
+     */
+    public Builder setFailureRateThreshold(int percent) {
+      this.failureRatePercent = percent;
+      return this;
+    }
+
+    /**
+     * Trips the breaker once this percentage of the calls in the window took longer than
+     * slowCallMillis, whether they failed or not. Defaults to 100% of calls slower than 5s.
+     */
+    public Builder setSlowCallRateThreshold(int percent, long slowCallMillis) {
+      this.slowCallRatePercent = percent;
+      this.slowCallMillis = slowCallMillis;
+      return this;
+    }
+
+    /**
+     * How long a tripped breaker fails calls right away before letting trial calls through.
+     * Defaults to 10s.
+     */
+    public Builder setOpenMillis(long openMillis) {
+      this.openMillis = openMillis;
+      return this;
+    }
+
+    /**
+     * The number of trial calls let through once the open period is over. The breaker closes
+     * once they all succeed, and opens again as soon as one of them fails. Defaults to 5.
+     */
+    public Builder setHalfOpenCalls(int halfOpenCalls) {
+      this.halfOpenCalls = halfOpenCalls;
+      return this;
+    }
+
+    public CircuitBreakerPolicy build() {
+      GreazePreconditions.checkArgument(windowSize >= 1);
+      GreazePreconditions.checkArgument(minCalls >= 1 && minCalls <= windowSize);
+      GreazePreconditions.checkArgument(failureRatePercent > 0 && failureRatePercent <= 100);
+      GreazePreconditions.checkArgument(slowCallRatePercent > 0 && slowCallRatePercent <= 100);
+      GreazePreconditions.checkArgument(slowCallMillis > 0L && openMillis >= 0L);
+      GreazePreconditions.checkArgument(halfOpenCalls >= 1);
+      return new CircuitBreakerPolicy(this);
+    }
+  }
+
+  private final int windowSize;
+  private final int minCalls;
+  private final int failureRatePercent;
+  private final long slowCallMillis;
+  private final int slowCallRatePercent;
+  private final long openMillis;
+  private final int halfOpenCalls;
+
+  private CircuitBreakerPolicy(Builder builder) {
+    this.windowSize = builder.windowSize;
+    this.minCalls = builder.minCalls;
+    this.failureRatePercent = builder.failureRatePercent;
+    this.slowCallMillis = builder.slowCallMillis;
+    this.slowCallRatePercent = builder.slowCallRatePercent;
+    this.openMillis = builder.openMillis;
+    this.halfOpenCalls = builder.halfOpenCalls;
+  }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  public int getMinCalls() {
+    return minCalls;
+  }
+
+  public int getFailureRatePercent() {
+    return failureRatePercent;
+  }
+
+  public long getSlowCallMillis() {
+    return slowCallMillis;
+  }
+
+  public int getSlowCallRatePercent() {
+    return slowCallRatePercent;
+  }
+
+  public long getOpenMillis() {
+    return openMillis;
+  }
+
+  public int getHalfOpenCalls() {
+    return halfOpenCalls;
+  }
+}
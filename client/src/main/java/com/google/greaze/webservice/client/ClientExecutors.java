@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used by the <code>*Async</code> client methods when the caller does not supply one
+ */
+public final class ClientExecutors {
+
+  /** Number of calls that can wait for a thread of {@link #getDefault()} */
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private static final class DefaultHolder {
+    static final Executor INSTANCE = newDaemonPool(
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), DEFAULT_QUEUE_CAPACITY,
+        "greaze-async");
+  }
+
+  /**
+   * A shared pool of daemon threads, sized at twice the number of processors (at least four).
+   * Idle threads are released after a minute.
+   *
+   * <p>The client sends requests over blocking {@link java.net.HttpURLConnection}s, so each call
+   * holds a pool thread for its whole exchange, and at most that many calls are in flight. Up to
+   * {@link #DEFAULT_QUEUE_CAPACITY} more wait in a queue. Once the queue is full, further calls
+   * are rejected right away: their {@link ResponseFuture} fails with a
+   * {@link com.google.greaze.definition.WebServiceSystemException} with
+   * {@link com.google.greaze.definition.ErrorReason#UNEXPECTED_RETRYABLE_ERROR}. Supply a
+   * dedicated executor for large fan-outs that need more concurrency.
+   */
+  public static Executor getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  private static final class HedgingHolder {
+    static final Executor INSTANCE = newDaemonCachedPool("greaze-hedge");
+  }
+
+  /**
+   * An unbounded pool of daemon threads that sends hedged requests. It is separate from
+   * {@link #getDefault()}, because the <code>*Async</code> methods run calls on that pool and
+   * the hedged call then waits on its attempts; sharing a bounded pool would deadlock once all
+   * its threads are waiting.
+   */
+  public static Executor getHedging() {
+    return HedgingHolder.INSTANCE;
+  }
+
+  private static final class FanOutHolder {
+    static final Executor INSTANCE = newDaemonCachedPool("greaze-fanout");
+  }
+
+  /**
+   * An unbounded pool of daemon threads that sends the per-shard batches of a sharded
+   * <code>getAll</code>. Like {@link #getHedging()}, it is kept apart from {@link #getDefault()}
+   * because the caller waits for the batches and may itself be running on that pool.
+   */
+  public static Executor getFanOut() {
+    return FanOutHolder.INSTANCE;
+  }
+
+  /**
+   * Creates a fixed-size pool of daemon threads whose idle threads time out after a minute.
+   * Tasks submitted while all threads are busy and the queue is full are rejected with a
+   * {@link java.util.concurrent.RejectedExecutionException}.
+   *
+   * @param queueCapacity maximum number of tasks waiting for a thread
+   */
+  public static ThreadPoolExecutor newDaemonPool(int threads, int queueCapacity,
+      String namePrefix) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(queueCapacity), newDaemonThreadFactory(namePrefix));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Creates a pool of daemon threads that grows as needed. Idle threads are released after a
+   * minute.
+   */
+  public static ThreadPoolExecutor newDaemonCachedPool(String namePrefix) {
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), newDaemonThreadFactory(namePrefix));
+  }
+
+  private static ThreadFactory newDaemonThreadFactory(final String namePrefix) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, namePrefix + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private ClientExecutors() {
+  }
+}
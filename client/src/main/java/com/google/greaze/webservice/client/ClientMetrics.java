@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
+
+/**
+ * Records the latency, size and outcome of every attempt made by the clients of a
+ * {@link ServerConfig}, per {@link CallPath} and {@link HttpMethod}. Latencies are split into
+ * {@link Phase}s so that slow calls can be traced to the network, the server or the client.
+ * Retried and hedged attempts are recorded individually. Install with
+ * {@link ServerConfig.Builder#setMetrics(ClientMetrics)}, and export periodically with
+ * {@link #getSnapshot()}.
+ */
+public final class ClientMetrics {
+
+  /**
+   * The consecutive phases of an attempt
+   */
+  public enum Phase {
+    /** Obtaining a connection from the {@link ClientTransport}, including pool waits */
+    CONNECT,
+    /** Opening the socket if needed, and writing the request headers and body */
+    SEND,
+    /** Waiting for the status line of the response. This is mostly server time. */
+    FIRST_BYTE,
+    /** Reading and deserializing the response body */
+    DESERIALIZE,
+    /** The whole attempt, including failed ones */
+    TOTAL
+  }
+
+  private final ConcurrentMap<String, CallMetrics> calls =
+    new ConcurrentHashMap<String, CallMetrics>();
+
+  /**
+   * Starts timing an attempt
+   */
+  Timer start(CallPath callPath, HttpMethod method) {
+    String key = method + " " + callPath.getFullPath();
+    CallMetrics metrics = calls.get(key);
+    if (metrics == null) {
+      metrics = new CallMetrics(callPath, method);
+      CallMetrics existing = calls.putIfAbsent(key, metrics);
+      if (existing != null) {
+        metrics = existing;
+      }
+    }
+    return new Timer(metrics);
+  }
+
+  /**
+   * @return the metrics of each call path and method called so far
+   */
+  public List<Stats> getSnapshot() {
+    List<Stats> snapshot = new ArrayList<Stats>(calls.size());
+    for (CallMetrics metrics : calls.values()) {
+      snapshot.add(metrics.snapshot());
+    }
+    return snapshot;
+  }
+
+  /**
+   * Clears all the metrics. Attempts in progress while resetting may go unrecorded.
+   */
+  public void reset() {
+    calls.clear();
+  }
+
+  /**
+   * Times the phases of a single attempt. Each method ends the corresponding {@link Phase}.
+   */
+  public static final class Timer {
+    /** A timer that records nothing, for calls made without {@link ClientMetrics} */
+    public static final Timer DISABLED = new Timer(null);
+
+    private final CallMetrics metrics;
+    private final long startNanos;
+    private long markNanos;
+
+    private Timer(CallMetrics metrics) {
+      this.metrics = metrics;
+      this.startNanos = metrics == null ? 0L : System.nanoTime();
+      this.markNanos = startNanos;
+    }
+
+    public void connected() {
+      mark(Phase.CONNECT);
+    }
+
+    /**
+     * @param requestBytes the number of bytes in the request body as sent on the wire
+     */
+    public void sent(long requestBytes) {
+      if (metrics != null) {
+        mark(Phase.SEND);
+        metrics.requestBytes.addAndGet(requestBytes);
+      }
+    }
+
+    /**
+     * Waits for the status line of the response on the connection. Failures are left to be
+     * reported by the {@link ResponseReceiver}, which runs into the same exception.
+     */
+    public void firstByte(HttpURLConnection conn) {
+      if (metrics != null) {
+        try {
+          conn.getResponseCode();
+        } catch (IOException e) {
+          // reported by the receiver
+        }
+        mark(Phase.FIRST_BYTE);
+      }
+    }
+
+    /**
+     * @param responseBytes the number of bytes in the response body as received on the wire
+     */
+    public void received(long responseBytes) {
+      if (metrics != null) {
+        mark(Phase.DESERIALIZE);
+        metrics.responseBytes.addAndGet(responseBytes);
+      }
+    }
+
+    /**
+     * Ends the attempt
+     *
+     * @param failure the reason the attempt failed, or null if it succeeded
+     */
+    void stop(ErrorReason failure) {
+      if (metrics != null) {
+        metrics.latencies.get(Phase.TOTAL).record(System.nanoTime() - startNanos,
+            TimeUnit.NANOSECONDS);
+        metrics.calls.incrementAndGet();
+        if (failure != null) {
+          metrics.errors.incrementAndGet(failure.ordinal());
+        }
+      }
+    }
+
+    private void mark(Phase phase) {
+      if (metrics != null) {
+        long now = System.nanoTime();
+        metrics.latencies.get(phase).record(now - markNanos, TimeUnit.NANOSECONDS);
+        markNanos = now;
+      }
+    }
+  }
+
+  private static final class CallMetrics {
+    private final CallPath callPath;
+    private final HttpMethod method;
+    private final Map<Phase, LatencyHistogram> latencies =
+      new EnumMap<Phase, LatencyHistogram>(Phase.class);
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLongArray errors = new AtomicLongArray(ErrorReason.values().length);
+
+    CallMetrics(CallPath callPath, HttpMethod method) {
+      this.callPath = callPath;
+      this.method = method;
+      for (Phase phase : Phase.values()) {
+        latencies.put(phase, new LatencyHistogram());
+      }
+    }
+
+    Stats snapshot() {
+      Map<Phase, LatencyHistogram> latencyCopies =
+        new EnumMap<Phase, LatencyHistogram>(Phase.class);
+      for (Map.Entry<Phase, LatencyHistogram> entry : latencies.entrySet()) {
+        latencyCopies.put(entry.getKey(), entry.getValue().copy());
+      }
+      Map<ErrorReason, Long> errorCounts = new EnumMap<ErrorReason, Long>(ErrorReason.class);
+      for (ErrorReason reason : ErrorReason.values()) {
+        long count = errors.get(reason.ordinal());
+        if (count > 0) {
+          errorCounts.put(reason, count);
+        }
+      }
+      return new Stats(callPath, method, calls.get(), requestBytes.get(), responseBytes.get(),
+          Collections.unmodifiableMap(errorCounts), Collections.unmodifiableMap(latencyCopies));
+    }
+  }
+
+  /**
+   * A point-in-time snapshot of the metrics of a call path and method
+   */
+  public static final class Stats {
+    private final CallPath callPath;
+    private final HttpMethod method;
+    private final long calls;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final Map<ErrorReason, Long> errors;
+    private final Map<Phase, LatencyHistogram> latencies;
+
+    Stats(CallPath callPath, HttpMethod method, long calls, long requestBytes,
+        long responseBytes, Map<ErrorReason, Long> errors,
+        Map<Phase, LatencyHistogram> latencies) {
+      this.callPath = callPath;
+      this.method = method;
+      this.calls = calls;
+      this.requestBytes = requestBytes;
+      this.responseBytes = responseBytes;
+      this.errors = errors;
+      this.latencies = latencies;
+    }
+
+    public CallPath getCallPath() {
+      return callPath;
+    }
+
+    public HttpMethod getMethod() {
+      return method;
+    }
+
+    /** Attempts made, including failed ones */
+    public long getCalls() {
+      return calls;
+    }
+
+    /** Total bytes of request bodies sent */
+    public long getRequestBytes() {
+      return requestBytes;
+    }
+
+    /** Total bytes of response bodies received */
+    public long getResponseBytes() {
+      return responseBytes;
+    }
+
+    /** Failed attempts by reason. Reasons that never occurred are left out. */
+    public Map<ErrorReason, Long> getErrors() {
+      return errors;
+    }
+
+    /** A copy of the latencies recorded for the specified phase */
+    public LatencyHistogram getLatency(Phase phase) {
+      return latencies.get(phase);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(method).append(' ').append(callPath.getFullPath())
+        .append(" calls:").append(calls);
+      for (Phase phase : Phase.values()) {
+        LatencyHistogram latency = latencies.get(phase);
+        sb.append(", ").append(phase.name().toLowerCase())
+          .append(" p50/p99:").append(latency.getPercentile(50, TimeUnit.MICROSECONDS))
+          .append('/').append(latency.getPercentile(99, TimeUnit.MICROSECONDS)).append("us");
+      }
+      sb.append(", sent:").append(requestBytes).append("B, received:").append(responseBytes)
+        .append("B, errors:").append(errors);
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Pluggable transport used by {@link WebServiceClient} to obtain and release connections.
+ * {@link RequestSender} and {@link ResponseReceiver} only talk to the abstract
+ * {@link HttpURLConnection}, so a transport is free to hand out any implementation of it
+ * (a pooled one, a multiplexed one, or a fake for tests).
+ */
+public interface ClientTransport {
+
+  /**
+   * Returns a new, unconnected connection for the specified URL.
+   */
+  HttpURLConnection openConnection(URL url) throws IOException;
+
+  /**
+   * Called once the client is done with a connection obtained from
+   * {@link #openConnection(URL)}. The response stream is left open for the transport to drain
+   * and close.
+   *
+   * @param reusable true if the exchange completed normally and the underlying channel can be
+   *   kept around for subsequent requests. false if the exchange failed midway.
+   */
+  void releaseConnection(HttpURLConnection conn, boolean reusable);
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * A cache of the {@link Gson} instances used by clients, so that they are built once per API
+ * version instead of once per call. Since a {@link Gson} instance also caches the type adapters
+ * it resolves, sharing it shares those as well.
+ */
+public final class CodecRegistry {
+  private static final CodecRegistry DEFAULT = new CodecRegistry();
+
+  private final ConcurrentMap<Double, Gson> versioned = new ConcurrentHashMap<Double, Gson>();
+
+  /**
+   * @return the registry shared by all clients
+   */
+  public static CodecRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * @return a plain {@link Gson} that honors the specified API version
+   */
+  public Gson getGson(double version) {
+    Gson gson = versioned.get(version);
+    if (gson == null) {
+      gson = new GsonBuilder().setVersion(version).create();
+      Gson existing = versioned.putIfAbsent(version, gson);
+      if (existing != null) {
+        gson = existing;
+      }
+    }
+    return gson;
+  }
+}
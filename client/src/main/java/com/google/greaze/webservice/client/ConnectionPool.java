@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.LogConfig;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * A {@link ClientTransport} that manages keep-alive connections per host. It limits the number
+ * of connections leased out to a host at any time, decides which released connections are handed
+ * back for reuse, and can pre-connect at startup. Attach it to a {@link ServerConfig} with
+ * {@link ServerConfig.Builder#setConnectionPool(ConnectionPool)}, and share that configuration
+ * across all clients of the service.
+ *
+ * <p>The physical sockets are owned by the delegate transport ({@link UrlConnectionTransport}
+ * by default, which relies on the JDK keep-alive cache). The pool only sees leases and releases,
+ * not sockets, so apart from {@link Stats#getLeased()} its {@link Stats} are estimates of what
+ * the keep-alive cache holds. Configure the JDK with the <code>http.maxConnections</code> system
+ * property set to at least {@link Builder#setMaxIdleConnectionsPerHost(int)} so that it does not
+ * close sockets this pool counts as idle.
+ */
+public final class ConnectionPool implements ClientTransport {
+  private static final Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+
+  public static final class Builder {
+    private ClientTransport transport = new UrlConnectionTransport();
+    private int maxConnectionsPerHost = 20;
+    private int maxIdleConnectionsPerHost = 5;
+    private long idleTimeoutMillis = 5000L;
+    private long leaseTimeoutMillis = 10000L;
+
+    /**
+     * The transport that actually opens and closes connections. Defaults to
+     * {@link UrlConnectionTransport}.
+     */
+    public Builder setTransport(ClientTransport transport) {
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Maximum number of connections leased to a host at the same time. Callers block once the
+     * limit is reached, see {@link #setLeaseTimeoutMillis(long)}. Defaults to 20.
+     */
+    public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+      this.maxConnectionsPerHost = maxConnectionsPerHost;
+      return this;
+    }
+
+    /**
+     * Maximum number of idle connections kept around per host. Connections released beyond
+     * this limit are closed. Defaults to 5, the JDK default for <code>http.maxConnections</code>.
+     */
+    public Builder setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+      this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+      return this;
+    }
+
+    /**
+     * Releases kept for reuse longer than this are no longer counted as idle, since the JDK
+     * closes such sockets on its own. Defaults to 5 seconds, the JDK keep-alive default.
+     */
+    public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Maximum time a caller waits for a connection once the host is at its connection limit. The
+     * current {@link Deadline} bounds the wait further. A caller that times out fails with a
+     * retryable error. Defaults to 10 seconds; set it to about the connect timeout of the
+     * clients.
+     */
+    public Builder setLeaseTimeoutMillis(long leaseTimeoutMillis) {
+      this.leaseTimeoutMillis = leaseTimeoutMillis;
+      return this;
+    }
+
+    public ConnectionPool build() {
+      GreazePreconditions.checkNotNull(transport);
+      GreazePreconditions.checkArgument(maxConnectionsPerHost > 0);
+      GreazePreconditions.checkArgument(maxIdleConnectionsPerHost >= 0);
+      GreazePreconditions.checkArgument(idleTimeoutMillis >= 0);
+      GreazePreconditions.checkArgument(leaseTimeoutMillis >= 0);
+      return new ConnectionPool(transport, maxConnectionsPerHost, maxIdleConnectionsPerHost,
+          idleTimeoutMillis, leaseTimeoutMillis);
+    }
+  }
+
+  /**
+   * A point-in-time snapshot of the pool counters. Only the leases are exact. The other counters
+   * are based on the releases the pool kept for reuse, and estimate what the JDK keep-alive cache
+   * did with the sockets: it may have closed a socket kept for reuse, or handed it to a
+   * connection that is not leased from this pool.
+   */
+  public static final class Stats {
+    private final int leased;
+    private final int keptForReuse;
+    private final long leasesWithoutIdle;
+    private final long leasesFromIdle;
+    private final long releasesDiscarded;
+
+    Stats(int leased, int keptForReuse, long leasesWithoutIdle, long leasesFromIdle,
+        long releasesDiscarded) {
+      this.leased = leased;
+      this.keptForReuse = keptForReuse;
+      this.leasesWithoutIdle = leasesWithoutIdle;
+      this.leasesFromIdle = leasesFromIdle;
+      this.releasesDiscarded = releasesDiscarded;
+    }
+
+    /** Connections currently leased out */
+    public int getLeased() {
+      return leased;
+    }
+
+    /**
+     * Releases currently kept for reuse that have not timed out yet. Estimates the idle sockets
+     * in the keep-alive cache.
+     */
+    public int getKeptForReuse() {
+      return keptForReuse;
+    }
+
+    /**
+     * Leases made while nothing was kept for reuse for the host. Estimates the sockets that had
+     * to be newly established.
+     */
+    public long getLeasesWithoutIdle() {
+      return leasesWithoutIdle;
+    }
+
+    /**
+     * Leases made while a release was kept for reuse for the host. Estimates the leases served
+     * by an idle socket.
+     */
+    public long getLeasesFromIdle() {
+      return leasesFromIdle;
+    }
+
+    /**
+     * Releases that were not kept for reuse, because their exchange failed or the idle limit was
+     * reached, plus kept releases that timed out
+     */
+    public long getReleasesDiscarded() {
+      return releasesDiscarded;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "leased:%d, keptForReuse:%d, leasesWithoutIdle:%d, leasesFromIdle:%d, discarded:%d",
+          leased, keptForReuse, leasesWithoutIdle, leasesFromIdle, releasesDiscarded);
+    }
+  }
+
+  /** Per-host state */
+  private static final class HostPool {
+    final Semaphore permits;
+    /** Times of the releases kept for reuse, most recent last */
+    final LinkedList<Long> idleSince = new LinkedList<Long>();
+    int leased;
+
+    HostPool(int maxConnections) {
+      this.permits = new Semaphore(maxConnections, true);
+    }
+  }
+
+  private final ClientTransport transport;
+  private final int maxConnectionsPerHost;
+  private final int maxIdleConnectionsPerHost;
+  private final long idleTimeoutMillis;
+  private final long leaseTimeoutMillis;
+  private final ConcurrentMap<String, HostPool> hosts = new ConcurrentHashMap<String, HostPool>();
+  /**
+   * The host each leased connection was leased for. The URL of a connection changes if it
+   * follows a redirect, so it can not be used to find the host on release.
+   */
+  private final Map<HttpURLConnection, HostPool> leases =
+    Collections.synchronizedMap(new IdentityHashMap<HttpURLConnection, HostPool>());
+  private final AtomicLong leasesWithoutIdle = new AtomicLong();
+  private final AtomicLong leasesFromIdle = new AtomicLong();
+  private final AtomicLong releasesDiscarded = new AtomicLong();
+
+  private ConnectionPool(ClientTransport transport, int maxConnectionsPerHost,
+      int maxIdleConnectionsPerHost, long idleTimeoutMillis, long leaseTimeoutMillis) {
+    this.transport = transport;
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.leaseTimeoutMillis = leaseTimeoutMillis;
+  }
+
+  @Override
+  public HttpURLConnection openConnection(URL url) throws IOException {
+    HostPool host = getHostPool(url);
+    long waitMillis = leaseTimeoutMillis;
+    Deadline deadline = Deadline.getCurrent();
+    if (deadline != null) {
+      waitMillis = Math.max(0L, Math.min(waitMillis, deadline.getRemaining(TimeUnit.MILLISECONDS)));
+    }
+    try {
+      if (!host.permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+        throw new SocketTimeoutException("Timed out after " + waitMillis
+            + "ms waiting for a connection to " + url);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection to " + url);
+    }
+    boolean leased = false;
+    try {
+      HttpURLConnection conn = transport.openConnection(url);
+      synchronized (host) {
+        evictExpired(host, System.currentTimeMillis());
+        if (host.idleSince.isEmpty()) {
+          leasesWithoutIdle.incrementAndGet();
+        } else {
+          host.idleSince.removeLast();
+          leasesFromIdle.incrementAndGet();
+        }
+        ++host.leased;
+      }
+      leases.put(conn, host);
+      leased = true;
+      return conn;
+    } finally {
+      if (!leased) {
+        host.permits.release();
+      }
+    }
+  }
+
+  @Override
+  public void releaseConnection(HttpURLConnection conn, boolean reusable) {
+    HostPool host = leases.remove(conn);
+    if (host == null) {
+      // Not leased from this pool, or already released
+      transport.releaseConnection(conn, false);
+      return;
+    }
+    try {
+      synchronized (host) {
+        --host.leased;
+        evictExpired(host, System.currentTimeMillis());
+        if (reusable && host.idleSince.size() < maxIdleConnectionsPerHost) {
+          host.idleSince.addLast(System.currentTimeMillis());
+        } else {
+          reusable = false;
+          releasesDiscarded.incrementAndGet();
+        }
+      }
+      transport.releaseConnection(conn, reusable);
+    } finally {
+      host.permits.release();
+    }
+  }
+
+  /**
+   * Establishes connections to the service ahead of time so that the first calls do not pay
+   * for connection setup. Each connection is warmed up with a HEAD request to the service base
+   * URL and then handed back to the pool.
+   *
+   * @param count number of connections to establish to each endpoint. Capped at the idle limit
+   *   for the host.
+   */
+  public void preconnect(ServerConfig serverConfig, int count) {
+    for (String endpointUrl : serverConfig.getEndpointUrls()) {
+      try {
+        preconnect(new URL(endpointUrl), count);
+      } catch (MalformedURLException e) {
+        throw new WebServiceSystemException(e);
+      }
+    }
+  }
+
+  private void preconnect(URL url, int count) {
+    count = Math.min(count, maxIdleConnectionsPerHost);
+    List<HttpURLConnection> conns = new ArrayList<HttpURLConnection>(count);
+    try {
+      // Connect all of them first so that each warm-up request gets a socket of its own
+      for (int i = 0; i < count; ++i) {
+        HttpURLConnection conn = openConnection(url);
+        conns.add(conn);
+        conn.setRequestMethod("HEAD");
+        conn.connect();
+      }
+    } catch (IOException e) {
+      if (LogConfig.INFO) logger.info("Preconnect to " + url + " failed: " + e);
+    }
+    for (HttpURLConnection conn : conns) {
+      boolean reusable = false;
+      try {
+        conn.getResponseCode();
+        reusable = true;
+      } catch (IOException e) {
+        if (LogConfig.INFO) logger.info("Preconnect to " + url + " failed: " + e);
+      } finally {
+        releaseConnection(conn, reusable);
+      }
+    }
+  }
+
+  /**
+   * Stops counting the releases kept for reuse that have exceeded the idle timeout. Invoked
+   * automatically as connections are leased and released, but can also be called periodically.
+   */
+  public void evictIdleConnections() {
+    long now = System.currentTimeMillis();
+    for (HostPool host : hosts.values()) {
+      synchronized (host) {
+        evictExpired(host, now);
+      }
+    }
+  }
+
+  public Stats getStats() {
+    int leased = 0;
+    int keptForReuse = 0;
+    for (HostPool host : hosts.values()) {
+      synchronized (host) {
+        leased += host.leased;
+        keptForReuse += host.idleSince.size();
+      }
+    }
+    return new Stats(leased, keptForReuse, leasesWithoutIdle.get(), leasesFromIdle.get(),
+        releasesDiscarded.get());
+  }
+
+  private void evictExpired(HostPool host, long now) {
+    while (!host.idleSince.isEmpty() && now - host.idleSince.getFirst() > idleTimeoutMillis) {
+      host.idleSince.removeFirst();
+      releasesDiscarded.incrementAndGet();
+    }
+  }
+
+  private HostPool getHostPool(URL url) {
+    String key = getHostKey(url);
+    HostPool host = hosts.get(key);
+    if (host == null) {
+      HostPool newHost = new HostPool(maxConnectionsPerHost);
+      host = hosts.putIfAbsent(key, newHost);
+      if (host == null) {
+        host = newHost;
+      }
+    }
+    return host;
+  }
+
+  private static String getHostKey(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    return url.getProtocol() + "://" + url.getHost() + ":" + port;
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionPool(" + getStats() + ")";
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of the server nodes of a {@link ServerConfig}, along with what the client has observed
+ * about it: the calls currently outstanding, a moving average of its latency, and whether it has
+ * been ejected from the rotation because of repeated failures.
+ */
+public final class Endpoint {
+  private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10L);
+
+  private final String baseUrl;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicLong ejections = new AtomicLong();
+  private volatile boolean ejected;
+  private volatile long ejectedUntilNanos;
+  private boolean measured;
+  private double latencyEwmaNanos;
+  private long lastMeasuredNanos;
+
+  Endpoint(String baseUrl) {
+    this.baseUrl = baseUrl;
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+
+  /**
+   * @return the number of calls to this endpoint that are currently in progress
+   */
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  /**
+   * @return a moving average of the latency of this endpoint that decays over about 10 seconds
+   *   and jumps up right away on a slower call, or 0 if no call completed yet
+   */
+  public synchronized long getLatencyEwmaNanos() {
+    return (long) latencyEwmaNanos;
+  }
+
+  /**
+   * @return the number of times this endpoint was ejected from the rotation
+   */
+  public long getEjectionCount() {
+    return ejections.get();
+  }
+
+  public boolean isAvailable() {
+    return isAvailable(System.nanoTime());
+  }
+
+  boolean isAvailable(long nowNanos) {
+    if (ejected && nowNanos - ejectedUntilNanos >= 0) {
+      ejected = false;
+    }
+    return !ejected;
+  }
+
+  void begin() {
+    outstanding.incrementAndGet();
+  }
+
+  void end() {
+    outstanding.decrementAndGet();
+  }
+
+  void recordSuccess(long latencyNanos) {
+    consecutiveFailures.set(0);
+    long now = System.nanoTime();
+    synchronized (this) {
+      if (!measured || latencyNanos > latencyEwmaNanos) {
+        latencyEwmaNanos = latencyNanos;
+        measured = true;
+      } else {
+        double weight = Math.exp(-(now - lastMeasuredNanos) / DECAY_NANOS);
+        latencyEwmaNanos = latencyEwmaNanos * weight + latencyNanos * (1D - weight);
+      }
+      lastMeasuredNanos = now;
+    }
+  }
+
+  /**
+   * @return true if this failure caused the endpoint to be ejected
+   */
+  boolean recordFailure(int maxConsecutiveFailures, long ejectionNanos) {
+    if (maxConsecutiveFailures <= 0
+        || consecutiveFailures.incrementAndGet() < maxConsecutiveFailures) {
+      return false;
+    }
+    consecutiveFailures.set(0);
+    ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+    ejected = true;
+    ejections.incrementAndGet();
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[outstanding:%d, ewma:%dus%s]", baseUrl, getOutstanding(),
+        TimeUnit.NANOSECONDS.toMicros(getLatencyEwmaNanos()), ejected ? ", ejected" : "");
+  }
+}
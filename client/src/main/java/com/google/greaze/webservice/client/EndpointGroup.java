@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.LogConfig;
+
+/**
+ * The endpoints of a {@link ServerConfig} as seen by a single client. Selects the endpoint for
+ * each call through the {@link LoadBalancer}, skipping the ones that were ejected after
+ * failing {@link ServerConfig#getMaxConsecutiveFailures()} times in a row. If all endpoints are
+ * ejected, all of them are considered again rather than failing every call. If the endpoints
+ * are shards, calls with a shard key always go to the owner of the key on the {@link ShardRing}.
+ */
+final class EndpointGroup {
+  private static final Logger logger = Logger.getLogger(EndpointGroup.class.getName());
+
+  private final List<Endpoint> endpoints;
+  private final LoadBalancer loadBalancer;
+  private final int maxConsecutiveFailures;
+  private final long ejectionNanos;
+  private final ShardRing shardRing;
+
+  EndpointGroup(ServerConfig config) {
+    List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    for (String url : config.getEndpointUrls()) {
+      endpoints.add(new Endpoint(url));
+    }
+    this.endpoints = Collections.unmodifiableList(endpoints);
+    this.loadBalancer = config.getLoadBalancer();
+    this.maxConsecutiveFailures = config.getMaxConsecutiveFailures();
+    this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(config.getEjectionMillis());
+    this.shardRing = config.isSharded()
+        ? new ShardRing(this.endpoints, config.getVirtualNodes()) : null;
+  }
+
+  boolean isSharded() {
+    return shardRing != null;
+  }
+
+  List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  /**
+   * @param shardKey the key that determines the shard, or null to load balance the call
+   */
+  Endpoint select(String shardKey) {
+    if (endpoints.size() == 1) {
+      return endpoints.get(0);
+    }
+    if (shardRing != null && shardKey != null) {
+      return shardRing.get(shardKey);
+    }
+    long now = System.nanoTime();
+    List<Endpoint> available = new ArrayList<Endpoint>(endpoints.size());
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint.isAvailable(now)) {
+        available.add(endpoint);
+      }
+    }
+    return loadBalancer.select(available.isEmpty() ? endpoints : available);
+  }
+
+  void recordFailure(Endpoint endpoint, ErrorReason reason) {
+    if (reason != null && reason.isServerFailure()
+        && endpoint.recordFailure(maxConsecutiveFailures, ejectionNanos)) {
+      if (LogConfig.INFO) logger.info("Ejected " + endpoint + " after " + reason);
+    }
+  }
+}
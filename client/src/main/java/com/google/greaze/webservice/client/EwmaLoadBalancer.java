@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@link LoadBalancer} that picks two endpoints at random and sends the call to the one with
+ * the lower expected cost, which is its {@link Endpoint#getLatencyEwmaNanos() latency average}
+ * multiplied by the number of calls it has in progress plus one. Endpoints that have not been
+ * measured yet cost nothing so that they get probed right away.
+ */
+public final class EwmaLoadBalancer implements LoadBalancer {
+  private final Random random = new Random();
+
+  @Override
+  public Endpoint select(List<Endpoint> endpoints) {
+    int size = endpoints.size();
+    if (size == 1) {
+      return endpoints.get(0);
+    }
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      ++second;
+    }
+    Endpoint a = endpoints.get(first);
+    Endpoint b = endpoints.get(second);
+    return costOf(b) < costOf(a) ? b : a;
+  }
+
+  private static double costOf(Endpoint endpoint) {
+    return (double) endpoint.getLatencyEwmaNanos() * (endpoint.getOutstanding() + 1);
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+/**
+ * A client-supplied callback that is invoked once a {@link ResponseFuture} completes.
+ *
+ * @param <T> type of the result
+ */
+public interface FutureCallback<T> {
+  public void handleResult(T result);
+
+  /**
+   * @param t the failure. A {@link java.util.concurrent.CancellationException} if the call was
+   *   cancelled, typically a {@link com.google.greaze.definition.WebServiceSystemException}
+   *   otherwise.
+   */
+  public void handleError(Throwable t);
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Runs idempotent calls with hedging as configured by a {@link HedgingPolicy}. The latencies of
+ * successful calls are recorded in a {@link LatencyHistogram} per {@link CallPath}, and a call
+ * that is still outstanding after the configured percentile of those latencies is sent a second
+ * time. The first successful response wins and the other call is cancelled: it is not sent if it
+ * has not started yet, and its thread is interrupted otherwise. An interrupt does not abort
+ * blocking socket I/O, so a losing call that is already on the wire runs until it completes or
+ * hits its read timeout or {@link com.google.greaze.definition.Deadline}.
+ *
+ * <p>The attempts run on {@link ClientExecutors#getHedging()} unless the policy supplies an
+ * executor. Callers wait for their attempts, so that executor must not be a bounded pool that
+ * the callers themselves run on: once all its threads are waiting, no attempt could run.
+ */
+public final class Hedger {
+
+  private final HedgingPolicy policy;
+  private final Executor executor;
+  private final RetryBudget budget;
+  private final ConcurrentMap<CallPath, LatencyHistogram> histograms =
+    new ConcurrentHashMap<CallPath, LatencyHistogram>();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
+  public Hedger(HedgingPolicy policy) {
+    this.policy = policy;
+    this.executor = policy.getExecutor() == null
+        ? ClientExecutors.getHedging() : policy.getExecutor();
+    this.budget = policy.newBudget();
+  }
+
+  /**
+   * @return the latencies of the successful calls made to the specified call path
+   */
+  public LatencyHistogram getHistogram(CallPath callPath) {
+    LatencyHistogram histogram = histograms.get(callPath);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      LatencyHistogram existing = histograms.putIfAbsent(callPath, histogram);
+      if (existing != null) {
+        histogram = existing;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * @return the delay in microseconds after which calls to the call path are hedged, or -1 if
+   *   not enough latencies have been recorded yet
+   */
+  public long getHedgeDelayMicros(CallPath callPath) {
+    LatencyHistogram histogram = getHistogram(callPath);
+    if (histogram.getCount() < policy.getMinSamples()) {
+      return -1L;
+    }
+    long delay = histogram.getPercentile(policy.getPercentile(), TimeUnit.MICROSECONDS);
+    return Math.max(delay, TimeUnit.MILLISECONDS.toMicros(policy.getMinDelayMillis()));
+  }
+
+  /**
+   * Runs the call, and runs it a second time in parallel if it takes too long
+   *
+   * @return the result of the call that completed successfully first
+   * @throws WebServiceSystemException if all calls failed
+   */
+  public <T> T execute(CallPath callPath, Callable<T> call) {
+    LatencyHistogram histogram = getHistogram(callPath);
+    BlockingQueue<ResponseFuture<T>> completed = new LinkedBlockingQueue<ResponseFuture<T>>();
+    budget.deposit();
+    ResponseFuture<T> primary = start(call, histogram, completed);
+    ResponseFuture<T> hedge = null;
+    try {
+      long delay = getHedgeDelayMicros(callPath);
+      ResponseFuture<T> done = delay < 0 ? null : completed.poll(delay, TimeUnit.MICROSECONDS);
+      if (done == null && delay >= 0 && budget.tryWithdraw()) {
+        hedge = start(call, histogram, completed);
+      }
+      int outstanding = hedge == null ? 1 : 2;
+      Throwable failure = null;
+      for (int i = 0; i < outstanding; ++i, done = null) {
+        if (done == null) {
+          done = completed.take();
+        }
+        try {
+          T result = done.get();
+          if (done == hedge) {
+            hedgeWins.incrementAndGet();
+          }
+          return result;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+      throw toSystemException(failure);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WebServiceSystemException(e);
+    } finally {
+      primary.cancel(true);
+      if (hedge != null) {
+        hedge.cancel(true);
+      }
+    }
+  }
+
+  private <T> ResponseFuture<T> start(final Callable<T> call, final LatencyHistogram histogram,
+      final BlockingQueue<ResponseFuture<T>> completed) {
+    final ResponseFuture<T> future = ResponseFuture.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        long start = System.nanoTime();
+        T result = call.call();
+        histogram.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+      }
+    }, executor);
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        completed.offer(future);
+      }
+    }, ResponseFuture.DIRECT_EXECUTOR);
+    return future;
+  }
+
+  private static RuntimeException toSystemException(Throwable failure) {
+    if (failure instanceof RuntimeException) {
+      return (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    return new WebServiceSystemException(ErrorReason.UNEXPECTED_PERMANENT_ERROR,
+        (Exception) failure);
+  }
+
+  /**
+   * @return the number of hedged requests sent
+   */
+  public long getHedgeCount() {
+    return budget.getRetryCount();
+  }
+
+  /**
+   * @return the number of calls that were not hedged because the hedge rate cap was reached
+   */
+  public long getThrottledCount() {
+    return budget.getRejectedCount();
+  }
+
+  /**
+   * @return the number of hedged calls where the second request responded first
+   */
+  public long getHedgeWinCount() {
+    return hedgeWins.get();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.Executor;
+
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * Configures hedged requests: if an idempotent call has not completed after the specified
+ * percentile of the recent latencies of its {@link com.google.greaze.definition.CallPath}, a
+ * second copy of the request is sent, and whichever response arrives first is used. Set the
+ * policy with {@link ServerConfig.Builder#setHedgingPolicy(HedgingPolicy)}.
+ */
+public final class HedgingPolicy {
+
+  public static final class Builder {
+    private double percentile = 95D;
+    private long minDelayMillis = 5L;
+    private int minSamples = 100;
+    private double maxHedgeRatio = 0.05D;
+    private int maxBurst = 10;
+    private Executor executor;
+
+    /**
+     * A call is hedged once it has been outstanding for longer than this percentile of the
+     * latencies observed for its call path. Defaults to 95, which hedges about 5% of the calls.
+     */
+    public Builder setPercentile(double percentile) {
+      this.percentile = percentile;
+      return this;
+    }
+
+    /**
+     * Lower bound on the hedge delay so that calls to very fast services are not hedged on
+     * noise. Defaults to 5ms.
+     */
+    public Builder setMinDelayMillis(long minDelayMillis) {
+      this.minDelayMillis = minDelayMillis;
+      return this;
+    }
+
+    /**
+     * The number of latencies that need to be recorded for a call path before its calls are
+     * hedged. Defaults to 100.
+     */
+    public Builder setMinSamples(int minSamples) {
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Caps the hedged requests to a fraction of the calls, with bursts of up to maxBurst hedges.
+     * Defaults to 0.05 and 10.
+     */
+    public Builder setMaxHedgeRatio(double maxHedgeRatio, int maxBurst) {
+      this.maxHedgeRatio = maxHedgeRatio;
+      this.maxBurst = maxBurst;
+      return this;
+    }
+
+    /**
+     * The executor that sends the requests. Defaults to {@link ClientExecutors#getHedging()}.
+     * Do not use the executor that the hedged calls themselves run on, such as
+     * {@link ClientExecutors#getDefault()} for the <code>*Async</code> methods: each call waits
+     * for its attempts, so a bounded pool deadlocks once all its threads are waiting.
+     */
+    public Builder setExecutor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public HedgingPolicy build() {
+      GreazePreconditions.checkArgument(percentile > 0D && percentile < 100D);
+      GreazePreconditions.checkArgument(minDelayMillis >= 0L);
+      GreazePreconditions.checkArgument(minSamples >= 1);
+      GreazePreconditions.checkArgument(maxHedgeRatio >= 0D && maxBurst >= 0);
+      return new HedgingPolicy(this);
+    }
+  }
+
+  private final double percentile;
+  private final long minDelayMillis;
+  private final int minSamples;
+  private final double maxHedgeRatio;
+  private final int maxBurst;
+  private final Executor executor;
+
+  private HedgingPolicy(Builder builder) {
+    this.percentile = builder.percentile;
+    this.minDelayMillis = builder.minDelayMillis;
+    this.minSamples = builder.minSamples;
+    this.maxHedgeRatio = builder.maxHedgeRatio;
+    this.maxBurst = builder.maxBurst;
+    this.executor = builder.executor;
+  }
+
+  public double getPercentile() {
+    return percentile;
+  }
+
+  public long getMinDelayMillis() {
+    return minDelayMillis;
+  }
+
+  public int getMinSamples() {
+    return minSamples;
+  }
+
+  /**
+   * @return the executor that sends the requests, or null to use
+   *   {@link ClientExecutors#getHedging()}
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * @return a new token bucket that caps the hedged requests of a single client
+   */
+  RetryBudget newBudget() {
+    return new RetryBudget(maxHedgeRatio, maxBurst);
+  }
+}
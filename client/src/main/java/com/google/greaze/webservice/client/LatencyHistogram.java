@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * A lock-free histogram of latencies. Values are kept in microseconds in logarithmic buckets,
+ * four per power of two, so percentiles are accurate to within 25% over the range of a
+ * microsecond to several days while using a fixed amount of memory.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKETS = 4;
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Records a latency
+   */
+  public void record(long duration, TimeUnit unit) {
+    long micros = unit.toMicros(duration);
+    counts.incrementAndGet(indexOf(micros < 0 ? 0 : micros));
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @param percentile a value between 0 and 100, for example 99 for the p99 latency
+   * @return an upper bound of the specified percentile of the recorded latencies, or 0 if none
+   *   were recorded
+   */
+  public long getPercentile(double percentile, TimeUnit unit) {
+    GreazePreconditions.checkArgument(percentile >= 0D && percentile <= 100D);
+    long[] snapshot = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0L;
+    }
+    long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100D));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return unit.convert(upperBoundOf(i), TimeUnit.MICROSECONDS);
+      }
+    }
+    return unit.convert(upperBoundOf(BUCKETS - 1), TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * @return a histogram with the latencies recorded so far. Later changes to either histogram
+   *   do not affect the other.
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram();
+    for (int i = 0; i < BUCKETS; ++i) {
+      copy.counts.set(i, counts.get(i));
+    }
+    return copy;
+  }
+
+  /**
+   * Clears all recorded latencies
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; ++i) {
+      counts.set(i, 0L);
+    }
+  }
+
+  static int indexOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+  }
+
+  static long upperBoundOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = index % SUB_BUCKETS;
+    long lowerBound = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return exponent >= 62 ? Long.MAX_VALUE : lowerBound + width - 1;
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.List;
+
+/**
+ * Picks the endpoint for each call when a {@link ServerConfig} has several of them. The
+ * implementations are {@link RoundRobinLoadBalancer}, {@link LeastOutstandingLoadBalancer} and
+ * {@link EwmaLoadBalancer}.
+ */
+public interface LoadBalancer {
+
+  /**
+   * @param endpoints the endpoints that have not been ejected. Never empty.
+   * @return the endpoint to send the next call to
+   */
+  Endpoint select(List<Endpoint> endpoints);
+}
@@ -17,6 +17,8 @@ package com.google.greaze.webservice.client;
 
 import java.util.concurrent.BlockingQueue;
 
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.definition.webservice.WebServiceCall;
 import com.google.greaze.definition.webservice.WebServiceResponse;
@@ -32,18 +34,23 @@ final class QueueConsumer implements Runnable {
   private final BlockingQueue<QueueEntry> queue;
   private final WebServiceClient client;
   private final Gson gson;
+  private final AsyncQueueMetrics metrics;
 
-  QueueConsumer(BlockingQueue<QueueEntry> queue, WebServiceClient client, Gson gson) {
+  QueueConsumer(BlockingQueue<QueueEntry> queue, WebServiceClient client, Gson gson,
+      AsyncQueueMetrics metrics) {
     this.queue = queue;
     this.client = client;
     this.gson = gson;
+    this.metrics = metrics;
   }
 
   @Override
   public void run() {
     try {
       while(true) {
-        consume(queue.take());
+        QueueEntry entry = queue.take();
+        metrics.recordDequeued(entry);
+        consume(entry);
       }
     } catch (InterruptedException e) {
       // exit
@@ -51,6 +58,16 @@ final class QueueConsumer implements Runnable {
   }
 
   private void consume(QueueEntry entry) {
+    if (entry.deadline != null && entry.deadline.isExpired()) {
+      metrics.recordExpired();
+      if (entry.responseCallback != null) {
+        entry.responseCallback.handleError(new WebServiceSystemException(
+            ErrorReason.DEADLINE_EXCEEDED, "Deadline passed in the async queue"),
+            entry.request, entry.callSpec);
+      }
+      return;
+    }
+    Deadline previous = Deadline.setCurrent(entry.deadline);
     try {
       WebServiceResponse response = client.getResponse(entry.callSpec, entry.request, gson);
       WebServiceCall call = new WebServiceCall(entry.callSpec, entry.request, response);
@@ -61,6 +78,8 @@ final class QueueConsumer implements Runnable {
       if (entry.responseCallback != null) {
         entry.responseCallback.handleError(e, entry.request, entry.callSpec);
       }
+    } finally {
+      Deadline.setCurrent(previous);
     }
   }  
 }
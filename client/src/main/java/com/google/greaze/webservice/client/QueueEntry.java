@@ -15,6 +15,7 @@
  */
 package com.google.greaze.webservice.client;
 
+import com.google.greaze.definition.Deadline;
 import com.google.greaze.definition.webservice.WebServiceCallSpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
 
@@ -28,11 +29,15 @@ final class QueueEntry {
   final WebServiceCallSpec callSpec;
   final WebServiceRequest request;
   final ResponseCallback responseCallback;
+  final long enqueuedNanos;
+  final Deadline deadline;
 
   QueueEntry(WebServiceCallSpec callSpec, WebServiceRequest request,
-      ResponseCallback responseCallback) {
+      ResponseCallback responseCallback, Deadline deadline) {
     this.callSpec = callSpec;
     this.request = request;
     this.responseCallback = responseCallback;
+    this.enqueuedNanos = System.nanoTime();
+    this.deadline = deadline;
   }
 }
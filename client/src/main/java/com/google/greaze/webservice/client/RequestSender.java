@@ -15,24 +15,33 @@
  */
 package com.google.greaze.webservice.client;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.SocketException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.greaze.client.internal.utils.UrlParamsToStringMapConverter;
+import com.google.greaze.definition.ContentEncoding;
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HeaderMapSpec;
 import com.google.greaze.definition.HttpMethod;
 import com.google.greaze.definition.LogConfig;
 import com.google.greaze.definition.UrlParams;
 import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.CountingOutputStream;
 import com.google.greaze.definition.internal.utils.GreazeStrings;
-import com.google.greaze.definition.internal.utils.Streams;
 import com.google.greaze.definition.webservice.RequestBody;
 import com.google.greaze.definition.webservice.RequestBodySpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
@@ -47,10 +56,36 @@ import com.google.gson.Gson;
 public class RequestSender {
   private static final boolean SIMULATE_POST_WITH_PUT = true;
   private final Gson gson;
+  private final int chunkLength;
+  private final ContentEncoding requestEncoding;
+  private final int compressionThreshold;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private long bytesSent;
   private static final Logger logger = Logger.getLogger(RequestSender.class.getName());
 
   public RequestSender(Gson gson) {
     this.gson = gson;
+    this.chunkLength = -1;
+    this.requestEncoding = null;
+    this.compressionThreshold = 0;
+    this.connectTimeoutMillis = 0;
+    this.readTimeoutMillis = 0;
+  }
+
+  /**
+   * @param config used to determine the socket timeouts and whether request bodies are
+   *   streamed or compressed. See {@link ServerConfig.Builder#setTimeouts(int, int)},
+   *   {@link ServerConfig.Builder#setChunkedStreamingMode(int)} and
+   *   {@link ServerConfig.Builder#setCompression(ContentEncoding, int)}
+   */
+  public RequestSender(Gson gson, ServerConfig config) {
+    this.gson = gson;
+    this.chunkLength = config.getChunkLength();
+    this.requestEncoding = config.getRequestEncoding();
+    this.compressionThreshold = config.getCompressionThreshold();
+    this.connectTimeoutMillis = config.getConnectTimeoutMillis();
+    this.readTimeoutMillis = config.getReadTimeoutMillis();
   }
 
   public void send(HttpURLConnection conn, WebServiceRequest request) {
@@ -61,35 +96,30 @@ public class RequestSender {
         setHeader(conn, HttpMethod.SIMULATED_METHOD_HEADER, HttpMethod.PUT.toString(), true);
       }
       if (LogConfig.INFO) logger.info(method + " to " + conn.getURL());
+      setTimeouts(conn, Deadline.getCurrent());
       conn.setRequestMethod(method.toString());
       // Assume conservatively that the response will need to be read.
       // This is done here instead of in the response receiver because this property must be set
       // before sending any data on the connection.
       conn.setDoInput(true);
       setHeader(conn, "Accept", request.getContentType(), true);
+      if (requestEncoding != null) {
+        setHeader(conn, ContentEncoding.ACCEPT_ENCODING_HEADER,
+            ContentEncoding.ACCEPT_ENCODING_VALUE, true);
+      }
       if (method != HttpMethod.GET && method != HttpMethod.DELETE) {
         setHeader(conn, "Content-Type", request.getContentType(), true);
       }
-      String requestBodyContents = null;
       if (request.isInlined()) {
         WebServiceRequestInlined inlinedBody = convertToInlinedBody(request);
-        requestBodyContents = bodyToJson(inlinedBody);
+        writeBody(conn, inlinedBody, WebServiceRequestInlined.class);
       } else {
         addRequestParams(conn, request.getHeaders());
         if (method != HttpMethod.GET && method != HttpMethod.DELETE) {
           RequestBody requestBody = request.getBody();
-          requestBodyContents = bodyToJson(requestBody);
+          writeBody(conn, requestBody);
         }
       }
-      requestBodyContents = stripEnclosingQuotes(requestBodyContents);
-      if (GreazeStrings.isNotEmpty(requestBodyContents)) {
-        if (LogConfig.INFO) logger.log(Level.INFO, "Request Body: " + requestBodyContents);
-        // Android Java VM ignore Content-Length if setDoOutput is not set
-        conn.setDoOutput(true);
-        String contentLength = String.valueOf(requestBodyContents.length());
-        setHeader(conn, "Content-Length", contentLength, true);
-        Streams.copy(requestBodyContents, conn.getOutputStream(), false);
-      }
       // Initiate the sending of the request.
       conn.connect();
     } catch (SocketException e) {
@@ -99,6 +129,35 @@ public class RequestSender {
     }
   }
 
+  /**
+   * Bounds the socket timeouts by the time left before the deadline, and sends the deadline
+   * to the server. The read timeout applies to each read rather than the whole response, so a
+   * server trickling a response can still overrun the deadline.
+   */
+  private void setTimeouts(HttpURLConnection conn, Deadline deadline) {
+    int connectTimeout = connectTimeoutMillis;
+    int readTimeout = readTimeoutMillis;
+    if (deadline != null) {
+      long remaining = deadline.getRemaining(TimeUnit.MILLISECONDS);
+      if (remaining <= 0) {
+        throw new WebServiceSystemException(ErrorReason.DEADLINE_EXCEEDED,
+            "Deadline passed before sending to " + conn.getURL());
+      }
+      connectTimeout = boundTimeout(connectTimeout, remaining);
+      readTimeout = boundTimeout(readTimeout, remaining);
+      setHeader(conn, Deadline.HTTP_HEADER_NAME, deadline.toHeaderValue(), true);
+    }
+    conn.setConnectTimeout(connectTimeout);
+    conn.setReadTimeout(readTimeout);
+  }
+
+  private static int boundTimeout(int timeoutMillis, long remainingMillis) {
+    if (timeoutMillis > 0 && timeoutMillis <= remainingMillis) {
+      return timeoutMillis;
+    }
+    return (int) Math.min(remainingMillis, Integer.MAX_VALUE);
+  }
+
   private WebServiceRequestInlined convertToInlinedBody(WebServiceRequest request) {
     Map<String, String> headers = getAsStringMap(request.getHeaders());
     Map<String, String> urlParams = getAsStringMap(request.getUrlParameters());
@@ -106,24 +165,84 @@ public class RequestSender {
         headers, urlParams, request.getBody());
   }
 
-  private String bodyToJson(WebServiceRequestInlined inlinedBody) {
-    return gson.toJson(inlinedBody);
-  }
-
-  private String bodyToJson(RequestBody requestBody) {
+  private void writeBody(HttpURLConnection conn, RequestBody requestBody) throws IOException {
     RequestBodySpec spec = requestBody.getSpec();
     switch (spec.getContentBodyType()) {
       case SIMPLE:
-        return gson.toJson(requestBody.getSimpleBody(), spec.getBodyJavaType());
+        writeBody(conn, requestBody.getSimpleBody(), spec.getBodyJavaType());
+        break;
       case LIST:
-        return gson.toJson(requestBody.getListBody(), spec.getBodyJavaType());
+        writeBody(conn, requestBody.getListBody(), spec.getBodyJavaType());
+        break;
       case MAP:
-        return gson.toJson(requestBody, spec.getBodyJavaType());
+        writeBody(conn, requestBody, spec.getBodyJavaType());
+        break;
       default:
         throw new UnsupportedOperationException();
     }
   }
 
+  private void writeBody(HttpURLConnection conn, Object body, Type bodyType) throws IOException {
+    if (chunkLength >= 0 && canStream(body)) {
+      if (LogConfig.INFO) logger.log(Level.INFO, "Request Body: streamed");
+      conn.setDoOutput(true);
+      conn.setChunkedStreamingMode(chunkLength);
+      CountingOutputStream counted = new CountingOutputStream(conn.getOutputStream());
+      OutputStream out = counted;
+      if (requestEncoding != null) {
+        setHeader(conn, ContentEncoding.CONTENT_ENCODING_HEADER,
+            requestEncoding.getHeaderValue(), true);
+        out = requestEncoding.encode(out);
+      }
+      Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+      gson.toJson(body, bodyType, writer);
+      writer.close();
+      bytesSent = counted.getCount();
+      return;
+    }
+    String requestBodyContents = stripEnclosingQuotes(gson.toJson(body, bodyType));
+    if (GreazeStrings.isNotEmpty(requestBodyContents)) {
+      if (LogConfig.INFO) logger.log(Level.INFO, "Request Body: " + requestBodyContents);
+      byte[] bytes = requestBodyContents.getBytes("UTF-8");
+      if (requestEncoding != null && bytes.length >= compressionThreshold) {
+        setHeader(conn, ContentEncoding.CONTENT_ENCODING_HEADER,
+            requestEncoding.getHeaderValue(), true);
+        bytes = encode(bytes, requestEncoding);
+      }
+      // Android Java VM ignore Content-Length if setDoOutput is not set
+      conn.setDoOutput(true);
+      conn.setFixedLengthStreamingMode(bytes.length);
+      setHeader(conn, "Content-Length", String.valueOf(bytes.length), true);
+      OutputStream out = conn.getOutputStream();
+      out.write(bytes);
+      out.flush();
+      bytesSent = bytes.length;
+    }
+  }
+
+  /**
+   * @return the number of bytes of the request body sent on the wire, after compression
+   */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  private static byte[] encode(byte[] bytes, ContentEncoding encoding) throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    OutputStream out = encoding.encode(encoded);
+    out.write(bytes);
+    out.close();
+    return encoded.toByteArray();
+  }
+
+  /**
+   * Bodies that serialize to a JSON string are sent without the enclosing quotes, so they
+   * can not be written out as-is with a streaming writer. Such bodies are small anyway.
+   */
+  private static boolean canStream(Object body) {
+    return !(body instanceof CharSequence || body instanceof Character || body instanceof Enum);
+  }
+
   private Map<String, String> getAsStringMap(UrlParams urlParams) {
     UrlParamsToStringMapConverter converter = new UrlParamsToStringMapConverter(gson);
     converter.add(urlParams);
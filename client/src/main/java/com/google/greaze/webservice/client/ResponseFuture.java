@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * The pending result of a call started with one of the <code>*Async</code> client methods.
+ * In addition to the {@link java.util.concurrent.Future} methods, callbacks can be registered
+ * that are invoked once the call completes, fails or is cancelled.
+ *
+ * <p>Cancelling a call that has not started yet prevents it from being sent. Cancelling a running
+ * call with <code>mayInterruptIfRunning</code> interrupts the thread executing it, which aborts
+ * waits such as those for a pooled connection.
+ *
+ * @param <T> type of the result
+ */
+public class ResponseFuture<T> extends FutureTask<T> {
+  private static final Logger logger = Logger.getLogger(ResponseFuture.class.getName());
+
+  static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private final List<Runnable> listeners = new ArrayList<Runnable>();
+  private boolean listenersRun;
+
+  /**
+   * Starts the task on the specified executor. The {@link Deadline} of the calling thread, if
+   * any, is made current in the thread that runs the task. If the executor rejects the task,
+   * the future fails with {@link ErrorReason#UNEXPECTED_RETRYABLE_ERROR}.
+   */
+  public static <T> ResponseFuture<T> submit(Callable<T> task, Executor executor) {
+    GreazePreconditions.checkNotNull(executor);
+    Deadline deadline = Deadline.getCurrent();
+    if (deadline != null) {
+      task = withDeadline(task, deadline);
+    }
+    ResponseFuture<T> future = new ResponseFuture<T>(task);
+    try {
+      executor.execute(future);
+    } catch (RejectedExecutionException e) {
+      future.setException(new WebServiceSystemException(ErrorReason.UNEXPECTED_RETRYABLE_ERROR,
+          "Executor rejected the call", e));
+    }
+    return future;
+  }
+
+  private static <T> Callable<T> withDeadline(final Callable<T> task, final Deadline deadline) {
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        Deadline previous = Deadline.setCurrent(deadline);
+        try {
+          return task.call();
+        } finally {
+          Deadline.setCurrent(previous);
+        }
+      }
+    };
+  }
+
+  public ResponseFuture(Callable<T> task) {
+    super(task);
+  }
+
+  /**
+   * Registers a callback that is invoked in the thread that completes the call, or right away in
+   * the calling thread if the call is already done.
+   */
+  public void addCallback(FutureCallback<? super T> callback) {
+    addCallback(callback, DIRECT_EXECUTOR);
+  }
+
+  /**
+   * Registers a callback that is invoked on the specified executor once the call is done
+   */
+  public void addCallback(final FutureCallback<? super T> callback, Executor executor) {
+    GreazePreconditions.checkNotNull(callback);
+    addListener(new Runnable() {
+      @Override
+      public void run() {
+        T result;
+        try {
+          result = get();
+        } catch (CancellationException e) {
+          callback.handleError(e);
+          return;
+        } catch (ExecutionException e) {
+          callback.handleError(e.getCause());
+          return;
+        } catch (InterruptedException e) {
+          // Can not happen since the future is already done
+          Thread.currentThread().interrupt();
+          callback.handleError(e);
+          return;
+        }
+        callback.handleResult(result);
+      }
+    }, executor);
+  }
+
+  /**
+   * Registers a listener that is run on the specified executor once the call is done
+   */
+  public void addListener(final Runnable listener, final Executor executor) {
+    GreazePreconditions.checkNotNull(listener);
+    GreazePreconditions.checkNotNull(executor);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          executor.execute(listener);
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Listener failed: " + listener, e);
+        }
+      }
+    };
+    synchronized (listeners) {
+      if (!listenersRun) {
+        listeners.add(task);
+        return;
+      }
+    }
+    task.run();
+  }
+
+  @Override
+  protected void done() {
+    List<Runnable> toRun;
+    synchronized (listeners) {
+      listenersRun = true;
+      toRun = new ArrayList<Runnable>(listeners);
+      listeners.clear();
+    }
+    for (Runnable listener : toRun) {
+      listener.run();
+    }
+  }
+}
@@ -15,9 +15,10 @@
  */
 package com.google.greaze.webservice.client;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringWriter;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.util.Map;
@@ -25,11 +26,14 @@ import java.util.logging.Logger;
 
 import com.google.greaze.client.internal.utils.ConnectionPreconditions;
 import com.google.greaze.definition.ContentBodyType;
+import com.google.greaze.definition.ContentEncoding;
 import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HeaderMapSpec;
 import com.google.greaze.definition.LogConfig;
 import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.BoundedTeeInputStream;
+import com.google.greaze.definition.internal.utils.CountingInputStream;
 import com.google.greaze.definition.internal.utils.GreazeStrings;
 import com.google.greaze.definition.internal.utils.Streams;
 import com.google.greaze.definition.webservice.ResponseBody;
@@ -37,6 +41,7 @@ import com.google.greaze.definition.webservice.ResponseBodySpec;
 import com.google.greaze.definition.webservice.ResponseSpec;
 import com.google.greaze.definition.webservice.WebServiceResponse;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 
 /**
  * Receives a response coming on an {@link HttpURLConnection}.
@@ -46,7 +51,10 @@ import com.google.gson.Gson;
 public class ResponseReceiver {
   protected final Gson gson;
   protected final ResponseSpec spec;
+  /** Maximum number of body bytes included in the wire log */
+  private static final int MAX_LOGGED_BODY_BYTES = 4096;
   protected static final Logger logger = Logger.getLogger(ResponseReceiver.class.getName());
+  private long bytesReceived;
 
   public ResponseReceiver(Gson gson, ResponseSpec spec) {
     this.gson = gson;
@@ -75,11 +83,20 @@ public class ResponseReceiver {
       ErrorReason reason = GreazeStrings.isEmpty(errorReason)
           ? ErrorReason.fromHttpResponseCode(responseCode)
               : ErrorReason.valueOf(errorReason);
-      String msg = Streams.readAsString(conn.getInputStream());
+      // getInputStream() throws for error codes, which would lose the reason computed above
+      InputStream errorStream = conn.getErrorStream();
+      String msg = errorStream == null ? "" : Streams.readAsString(errorStream);
       throw new WebServiceSystemException(reason, "Server input: " + msg);
     }
   }
 
+  /**
+   * @return the number of bytes of the response body received on the wire, before decompression
+   */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
   protected HeaderMap readResponseHeaders(HttpURLConnection conn, HeaderMapSpec paramsSpec) {
     HeaderMap.Builder paramsBuilder = new HeaderMap.Builder(paramsSpec);    
     for (Map.Entry<String, Type> entry : paramsSpec.entrySet()) {
@@ -102,14 +119,61 @@ public class ResponseReceiver {
     }
     String connContentType = conn.getContentType();
     ConnectionPreconditions.checkArgument(connContentType.contains(bodySpec.getContentType()), conn);
-    StringWriter writer = new StringWriter();
-    Streams.copy(new InputStreamReader(conn.getInputStream()), writer, true, true);
-    String json = writer.getBuffer().toString();
-    if (LogConfig.INFO) logger.info("Response Body: " + json);
-    ResponseBody body = gson.fromJson(json, ResponseBody.class);
+    ResponseBody body = parseBody(conn, ResponseBody.class);
     if (body == null) {
       body = new ResponseBody.Builder(spec.getBodySpec()).build();
     }
     return body;
   }
+
+  /**
+   * Parses the response body directly off the connection stream as UTF-8 JSON, decompressing it
+   * if needed. The stream is consumed till the end but left open: the {@link ClientTransport}
+   * closes it when the connection is released, and can then tell a fully read response from a
+   * broken one.
+   *
+   * @return the parsed body, or null if the response body was empty
+   */
+  protected <T> T parseBody(HttpURLConnection conn, Type typeOfT) throws IOException {
+    String contentEncoding = conn.getContentEncoding();
+    ContentEncoding encoding = ContentEncoding.fromHeader(contentEncoding);
+    if (encoding == null) {
+      throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+    CountingInputStream counted =
+        new CountingInputStream(new UnclosedInputStream(conn.getInputStream()));
+    InputStream in = encoding.decode(counted);
+    BoundedTeeInputStream wireLog = null;
+    if (LogConfig.INFO) {
+      wireLog = new BoundedTeeInputStream(in, MAX_LOGGED_BODY_BYTES);
+      in = wireLog;
+    }
+    try {
+      JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+      T body = gson.<T>fromJson(reader, typeOfT);
+      // Consume any trailing whitespace
+      byte[] buf = new byte[256];
+      while (in.read(buf) != -1) {
+        // discard
+      }
+      return body;
+    } finally {
+      in.close();
+      bytesReceived += counted.getCount();
+      if (wireLog != null) logger.info("Response Body: " + wireLog.getCaptured());
+    }
+  }
+
+  /**
+   * Releases the decoders without closing the connection stream underneath them
+   */
+  private static final class UnclosedInputStream extends FilterInputStream {
+    UnclosedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+/**
+ * A token bucket that limits retries to a fraction of the calls made by a client. Every call
+ * deposits a fraction of a token, and every retry withdraws a whole token. Once the bucket is
+ * empty, failures are reported to the caller right away instead of being retried.
+ */
+public final class RetryBudget {
+
+  private final double ratio;
+  private final double maxTokens;
+  private double tokens;
+  private long retries;
+  private long rejected;
+
+  public RetryBudget(double ratio, int maxTokens) {
+    this.ratio = ratio;
+    this.maxTokens = maxTokens;
+    this.tokens = maxTokens;
+  }
+
+  /**
+   * Records a call, which earns a fraction of a token
+   */
+  public synchronized void deposit() {
+    tokens = Math.min(maxTokens, tokens + ratio);
+  }
+
+  /**
+   * @return true if a retry is allowed, in which case a token has been spent on it
+   */
+  public synchronized boolean tryWithdraw() {
+    if (tokens >= 1D) {
+      tokens -= 1D;
+      ++retries;
+      return true;
+    }
+    ++rejected;
+    return false;
+  }
+
+  public synchronized double getBalance() {
+    return tokens;
+  }
+
+  /**
+   * @return the number of retries allowed by this budget so far
+   */
+  public synchronized long getRetryCount() {
+    return retries;
+  }
+
+  /**
+   * @return the number of retries that were denied because the budget was exhausted
+   */
+  public synchronized long getRejectedCount() {
+    return rejected;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * Decides whether a failed call is retried, and how long to wait before the next attempt. Only
+ * failures whose {@link ErrorReason#isRetryableError()} is true are retried, and only for
+ * idempotent {@link HttpMethod}s (GET, PUT and DELETE by default). The wait between attempts
+ * grows exponentially and is fully jittered so that clients that failed together do not come
+ * back together.
+ *
+ * <p>Retries are also bounded by a {@link RetryBudget} held by each client, so that an outage
+ * does not get amplified by a retry storm. Set the policy with
+ * {@link ServerConfig.Builder#setRetryPolicy(RetryPolicy)}.
+ */
+public final class RetryPolicy {
+
+  public static final class Builder {
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 50L;
+    private long maxBackoffMillis = 2000L;
+    private Set<HttpMethod> retryableMethods =
+      EnumSet.of(HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE);
+    private double budgetRatio = 0.1D;
+    private int budgetMaxTokens = 10;
+
+    /**
+     * Maximum number of attempts for a call, including the first one. Defaults to 3.
+     */
+    public Builder setMaxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * The backoff before the first retry is chosen uniformly between 0 and initialBackoffMillis.
+     * The upper bound doubles with every subsequent retry up to maxBackoffMillis. Defaults to
+     * 50ms and 2s.
+     */
+    public Builder setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+      this.initialBackoffMillis = initialBackoffMillis;
+      this.maxBackoffMillis = maxBackoffMillis;
+      return this;
+    }
+
+    /**
+     * The methods that are safe to retry. Defaults to GET, PUT and DELETE. Add POST only if the
+     * service deduplicates its POST requests.
+     */
+    public Builder setRetryableMethods(HttpMethod... methods) {
+      this.retryableMethods = methods.length == 0
+          ? EnumSet.noneOf(HttpMethod.class) : EnumSet.copyOf(Arrays.asList(methods));
+      return this;
+    }
+
+    /**
+     * Caps retries as a fraction of the traffic of a client. Each call earns ratio tokens and
+     * each retry spends one token, so a ratio of 0.1 allows retrying up to 10% of the calls.
+     * Tokens accumulate up to maxTokens, which is also the initial balance and allows for
+     * retries right after startup. Defaults to 0.1 and 10.
+     */
+    public Builder setBudget(double ratio, int maxTokens) {
+      this.budgetRatio = ratio;
+      this.budgetMaxTokens = maxTokens;
+      return this;
+    }
+
+    public RetryPolicy build() {
+      GreazePreconditions.checkArgument(maxAttempts >= 1);
+      GreazePreconditions.checkArgument(initialBackoffMillis >= 0L);
+      GreazePreconditions.checkArgument(maxBackoffMillis >= initialBackoffMillis);
+      GreazePreconditions.checkArgument(budgetRatio >= 0D);
+      GreazePreconditions.checkArgument(budgetMaxTokens >= 0);
+      return new RetryPolicy(this);
+    }
+  }
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final Set<HttpMethod> retryableMethods;
+  private final double budgetRatio;
+  private final int budgetMaxTokens;
+  private final Random random = new Random();
+
+  private RetryPolicy(Builder builder) {
+    this.maxAttempts = builder.maxAttempts;
+    this.initialBackoffMillis = builder.initialBackoffMillis;
+    this.maxBackoffMillis = builder.maxBackoffMillis;
+    this.retryableMethods = Collections.unmodifiableSet(EnumSet.copyOf(builder.retryableMethods));
+    this.budgetRatio = builder.budgetRatio;
+    this.budgetMaxTokens = builder.budgetMaxTokens;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public Set<HttpMethod> getRetryableMethods() {
+    return retryableMethods;
+  }
+
+  /**
+   * @return a new budget to be owned by a single client
+   */
+  public RetryBudget newBudget() {
+    return new RetryBudget(budgetRatio, budgetMaxTokens);
+  }
+
+  /**
+   * Whether a call that failed with the specified exception should be attempted again. This
+   * does not consult the budget.
+   *
+   * @param attempt the number of attempts already made, starting at 1
+   */
+  public boolean shouldRetry(HttpMethod method, WebServiceSystemException e, int attempt) {
+    return attempt < maxAttempts && retryableMethods.contains(method)
+      && e.getReason() != null && e.getReason().isRetryableError();
+  }
+
+  /**
+   * @param attempt the number of attempts already made, starting at 1
+   * @return the time to wait in milliseconds before the next attempt
+   */
+  public long getBackoffMillis(int attempt) {
+    long ceiling = initialBackoffMillis;
+    for (int i = 1; i < attempt && ceiling < maxBackoffMillis; ++i) {
+      ceiling *= 2;
+    }
+    ceiling = Math.min(ceiling, maxBackoffMillis);
+    if (ceiling <= 0L) {
+      return 0L;
+    }
+    synchronized (random) {
+      return (long) (random.nextDouble() * ceiling);
+    }
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+
+/**
+ * A bounded lock-free ring buffer. Producers and consumers claim slots with a single CAS on their
+ * respective cursor, and a per-slot sequence number hands each slot over between them (the
+ * bounded queue design by Dmitry Vyukov). Any number of producers and consumers are supported.
+ * Threads only fall back to waiting on a monitor when the buffer is empty (consumers) or full
+ * (producers).
+ *
+ * <p>{@link #remove(Object)} empties the slot of the element, which consumers then skip. Until a
+ * consumer passes over such a slot, it still counts towards {@link #size()}. The iterator is
+ * weakly consistent: it walks a snapshot of the elements taken when it was created.
+ */
+final class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+  /** Upper bound on a single wait so that a missed wake-up can only delay, not hang, a thread */
+  private static final long MAX_WAIT_MILLIS = 10L;
+
+  private final int mask;
+  private final AtomicReferenceArray<E> buffer;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong head = new AtomicLong();
+  private final Object notEmpty = new Object();
+  private final Object notFull = new Object();
+  private final AtomicInteger waitingConsumers = new AtomicInteger();
+  private final AtomicInteger waitingProducers = new AtomicInteger();
+
+  /**
+   * @param capacity rounded up to the next power of two
+   */
+  RingBufferQueue(int capacity) {
+    GreazePreconditions.checkArgument(capacity > 0 && capacity <= (1 << 30));
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.buffer = new AtomicReferenceArray<E>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      sequences.set(i, i);
+    }
+  }
+
+  @Override
+  public boolean offer(E e) {
+    GreazePreconditions.checkNotNull(e);
+    long pos = tail.get();
+    int index;
+    while (true) {
+      index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        return false; // full
+      } else {
+        pos = tail.get();
+      }
+    }
+    buffer.set(index, e);
+    sequences.set(index, pos + 1);
+    signal(waitingConsumers, notEmpty);
+    return true;
+  }
+
+  @Override
+  public E poll() {
+    while (true) {
+      long pos = head.get();
+      int index;
+      while (true) {
+        index = (int) (pos & mask);
+        long diff = sequences.get(index) - (pos + 1);
+        if (diff == 0) {
+          if (head.compareAndSet(pos, pos + 1)) {
+            break;
+          }
+          pos = head.get();
+        } else if (diff < 0) {
+          return null; // empty
+        } else {
+          pos = head.get();
+        }
+      }
+      // getAndSet so that exactly one of this and a concurrent remove() takes the element
+      E e = buffer.getAndSet(index, null);
+      sequences.set(index, pos + mask + 1);
+      signal(waitingProducers, notFull);
+      if (e != null) {
+        return e;
+      }
+      // The element was removed while it was waiting, move on to the next slot
+    }
+  }
+
+  @Override
+  public E peek() {
+    for (long pos = head.get();; ++pos) {
+      int index = (int) (pos & mask);
+      if (sequences.get(index) != pos + 1) {
+        return null;
+      }
+      E e = buffer.get(index);
+      if (e != null) {
+        return e;
+      }
+    }
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (o == null) {
+      return false;
+    }
+    for (long pos = head.get(), end = tail.get(); pos < end; ++pos) {
+      int index = (int) (pos & mask);
+      E e = elementAt(pos);
+      if (e != null && o.equals(e) && buffer.compareAndSet(index, e, null)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the element that was produced at {@code pos} and has neither been consumed nor
+   *   removed, or null
+   */
+  private E elementAt(long pos) {
+    int index = (int) (pos & mask);
+    if (sequences.get(index) != pos + 1) {
+      return null;
+    }
+    E e = buffer.get(index);
+    // Still the same lap, so e was produced at pos
+    return sequences.get(index) == pos + 1 ? e : null;
+  }
+
+  @Override
+  public int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, mask + 1));
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return mask + 1 - size();
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    while (!offer(e)) {
+      await(waitingProducers, notFull, MAX_WAIT_MILLIS, true);
+    }
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offer(e)) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis <= 0) {
+        return false;
+      }
+      await(waitingProducers, notFull, Math.min(remainingMillis, MAX_WAIT_MILLIS), true);
+    }
+    return true;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    E e;
+    while ((e = poll()) == null) {
+      await(waitingConsumers, notEmpty, MAX_WAIT_MILLIS, false);
+    }
+    return e;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    while ((e = poll()) == null) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis <= 0) {
+        return null;
+      }
+      await(waitingConsumers, notEmpty, Math.min(remainingMillis, MAX_WAIT_MILLIS), false);
+    }
+    return e;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    int count = 0;
+    E e;
+    while (count < maxElements && (e = poll()) != null) {
+      c.add(e);
+      ++count;
+    }
+    return count;
+  }
+
+  /**
+   * Returns a weakly consistent iterator over a snapshot of the elements. Its
+   * {@link Iterator#remove()} removes the element only if it is still waiting in the buffer.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    List<E> elements = new ArrayList<E>();
+    List<Long> positions = new ArrayList<Long>();
+    for (long pos = head.get(), end = tail.get(); pos < end; ++pos) {
+      E e = elementAt(pos);
+      if (e != null) {
+        elements.add(e);
+        positions.add(pos);
+      }
+    }
+    return new SnapshotIterator(elements, positions);
+  }
+
+  private final class SnapshotIterator implements Iterator<E> {
+    private final List<E> elements;
+    private final List<Long> positions;
+    private int next;
+    private int last = -1;
+
+    SnapshotIterator(List<E> elements, List<Long> positions) {
+      this.elements = elements;
+      this.positions = positions;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < elements.size();
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return elements.get(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      long pos = positions.get(last);
+      E e = elements.get(last);
+      if (elementAt(pos) == e) {
+        buffer.compareAndSet((int) (pos & mask), e, null);
+      }
+      last = -1;
+    }
+  }
+
+  /**
+   * Waits on the monitor after registering as a waiter and re-checking the condition, so a
+   * concurrent {@link #signal} is not lost.
+   */
+  private void await(AtomicInteger waiters, Object monitor, long millis, boolean forSpace)
+      throws InterruptedException {
+    synchronized (monitor) {
+      waiters.incrementAndGet();
+      try {
+        boolean ready = forSpace ? size() <= mask : peek() != null;
+        if (!ready) {
+          monitor.wait(millis);
+        }
+      } finally {
+        waiters.decrementAndGet();
+      }
+    }
+  }
+
+  private static void signal(AtomicInteger waiters, Object monitor) {
+    if (waiters.get() > 0) {
+      synchronized (monitor) {
+        monitor.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RingBufferQueue(size:" + size() + ", capacity:" + (mask + 1) + ")";
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link LoadBalancer} that cycles through the endpoints in order
+ */
+public final class RoundRobinLoadBalancer implements LoadBalancer {
+  private final AtomicInteger next = new AtomicInteger();
+
+  @Override
+  public Endpoint select(List<Endpoint> endpoints) {
+    int index = (next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size();
+    return endpoints.get(index);
+  }
+}
@@ -15,24 +15,337 @@
  */
 package com.google.greaze.webservice.client;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.greaze.definition.ContentEncoding;
+
 /**
  * Configuration needed to access a Gson web service.
  * 
  * @author inder
  */
 public class ServerConfig {
+
+  public static class Builder {
+    private final String serviceBaseUrl;
+    private final List<String> endpointUrls = new ArrayList<String>();
+    private LoadBalancer loadBalancer;
+    private int maxConsecutiveFailures = 5;
+    private long ejectionMillis = 30000L;
+    private int virtualNodes;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    private int chunkLength = -1;
+    private ContentEncoding requestEncoding;
+    private int compressionThreshold;
+    private RetryPolicy retryPolicy;
+    private HedgingPolicy hedgingPolicy;
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+    private ClientMetrics metrics;
+    private ConnectionPool connectionPool;
+
+    public Builder(String serviceBaseUrl) {
+      this.serviceBaseUrl = serviceBaseUrl;
+      this.endpointUrls.add(serviceBaseUrl);
+    }
+
+    /**
+     * Adds another node that serves the same service. Calls are spread over all the endpoints
+     * by the {@link LoadBalancer}.
+     *
+     * @param serviceBaseUrl the base URL of the service on that node
+     */
+    public Builder addEndpoint(String serviceBaseUrl) {
+      this.endpointUrls.add(serviceBaseUrl);
+      return this;
+    }
+
+    /**
+     * Declares the endpoints as shards of a partitioned fleet rather than replicas. Calls for a
+     * resource id always go to the endpoint that owns the id on a consistent-hash ring, and
+     * batch calls are split per shard. Calls without an id are still load balanced.
+     *
+     * @param virtualNodes the number of points per endpoint on the ring. More points spread the
+     *   ids more evenly. 100 to 200 is typical.
+     */
+    public Builder setSharding(int virtualNodes) {
+      this.virtualNodes = virtualNodes;
+      return this;
+    }
+
+    /**
+     * Picks the endpoint for each call. Defaults to a {@link RoundRobinLoadBalancer}.
+     */
+    public Builder setLoadBalancer(LoadBalancer loadBalancer) {
+      this.loadBalancer = loadBalancer;
+      return this;
+    }
+
+    /**
+     * An endpoint that fails with a server or network error (see
+     * {@link com.google.greaze.definition.ErrorReason#isServerFailure()}) maxConsecutiveFailures
+     * times in a row is taken out of the rotation for ejectionMillis. Defaults to 5 failures and
+     * 30 seconds. Pass 0 failures to never eject endpoints.
+     */
+    public Builder setEjection(int maxConsecutiveFailures, long ejectionMillis) {
+      this.maxConsecutiveFailures = maxConsecutiveFailures;
+      this.ejectionMillis = ejectionMillis;
+      return this;
+    }
+
+    /**
+     * Sets the socket timeouts of the connections to the endpoints. If the calling thread has a
+     * {@link com.google.greaze.definition.Deadline}, the time left before it further bounds both
+     * timeouts. Pass 0 (the default) to wait forever, subject to the deadline.
+     */
+    public Builder setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      this.readTimeoutMillis = readTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Stream request bodies straight to the connection with HTTP chunked transfer encoding
+     * instead of serializing them in memory first. Use this for services that accept large
+     * request bodies.
+     *
+     * @param chunkLength the number of bytes to write in each chunk. Pass 0 to use the JDK
+     *   default. Pass -1 (the default) to buffer request bodies and send them with a
+     *   Content-Length.
+     */
+    public Builder setChunkedStreamingMode(int chunkLength) {
+      this.chunkLength = chunkLength;
+      return this;
+    }
+
+    /**
+     * Enables compression. Responses are requested with all the supported encodings, and request
+     * bodies of at least minBytes are compressed with requestEncoding. Streamed request bodies
+     * are always compressed since their size is not known upfront. The server must be a Greaze
+     * server that understands Content-Encoding on requests.
+     */
+    public Builder setCompression(ContentEncoding requestEncoding, int minBytes) {
+      this.requestEncoding = requestEncoding;
+      this.compressionThreshold = minBytes;
+      return this;
+    }
+
+    /**
+     * Retries failed calls according to the specified policy. By default, calls are not retried.
+     */
+    public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Hedges GETs made by the resource and query clients according to the specified policy. By
+     * default, calls are not hedged.
+     */
+    public Builder setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+      this.hedgingPolicy = hedgingPolicy;
+      return this;
+    }
+
+    /**
+     * Guards the calls to each call path on each endpoint with a {@link CircuitBreaker}
+     * configured by the specified policy. By default, there are no circuit breakers.
+     */
+    public Builder setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+      this.circuitBreakerPolicy = circuitBreakerPolicy;
+      return this;
+    }
+
+    /**
+     * Records the latency, size and outcome of each call in the specified metrics. By default,
+     * calls are not measured.
+     */
+    public Builder setMetrics(ClientMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * Leases the connections of the clients of this configuration from the specified pool, which
+     * bounds and tracks the connections to each endpoint. By default, clients open connections
+     * through a plain {@link UrlConnectionTransport}.
+     */
+    public Builder setConnectionPool(ConnectionPool connectionPool) {
+      this.connectionPool = connectionPool;
+      return this;
+    }
+
+    public ServerConfig build() {
+      return new ServerConfig(this);
+    }
+  }
+
   private final String serviceBaseUrl;
+  private final List<String> endpointUrls;
+  private final LoadBalancer loadBalancer;
+  private final int maxConsecutiveFailures;
+  private final long ejectionMillis;
+  private final int virtualNodes;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final int chunkLength;
+  private final ContentEncoding requestEncoding;
+  private final int compressionThreshold;
+  private final RetryPolicy retryPolicy;
+  private final HedgingPolicy hedgingPolicy;
+  private final CircuitBreakerPolicy circuitBreakerPolicy;
+  private final ClientMetrics metrics;
+  private final ConnectionPool connectionPool;
 
   public ServerConfig(String serviceBaseUrl) {
-    this.serviceBaseUrl = serviceBaseUrl;
+    this(new Builder(serviceBaseUrl));
   }
 
+  protected ServerConfig(Builder builder) {
+    this.serviceBaseUrl = builder.serviceBaseUrl;
+    this.endpointUrls = Collections.unmodifiableList(new ArrayList<String>(builder.endpointUrls));
+    this.loadBalancer = builder.loadBalancer == null
+        ? new RoundRobinLoadBalancer() : builder.loadBalancer;
+    this.maxConsecutiveFailures = builder.maxConsecutiveFailures;
+    this.ejectionMillis = builder.ejectionMillis;
+    this.virtualNodes = builder.virtualNodes;
+    this.connectTimeoutMillis = builder.connectTimeoutMillis;
+    this.readTimeoutMillis = builder.readTimeoutMillis;
+    this.chunkLength = builder.chunkLength;
+    this.requestEncoding = builder.requestEncoding;
+    this.compressionThreshold = builder.compressionThreshold;
+    this.retryPolicy = builder.retryPolicy;
+    this.hedgingPolicy = builder.hedgingPolicy;
+    this.circuitBreakerPolicy = builder.circuitBreakerPolicy;
+    this.metrics = builder.metrics;
+    this.connectionPool = builder.connectionPool;
+  }
+
+  /**
+   * @return the base URL of the first endpoint
+   */
   public String getServiceBaseUrl() {
     return serviceBaseUrl;
   }
+
+  /**
+   * @return the base URLs of all the endpoints, starting with {@link #getServiceBaseUrl()}
+   */
+  public List<String> getEndpointUrls() {
+    return endpointUrls;
+  }
+
+  public LoadBalancer getLoadBalancer() {
+    return loadBalancer;
+  }
+
+  public int getMaxConsecutiveFailures() {
+    return maxConsecutiveFailures;
+  }
+
+  public long getEjectionMillis() {
+    return ejectionMillis;
+  }
+
+  /**
+   * @return whether the endpoints are shards, see {@link Builder#setSharding(int)}
+   */
+  public boolean isSharded() {
+    return virtualNodes > 0;
+  }
+
+  /**
+   * @return the number of points per endpoint on the consistent-hash ring when sharded
+   */
+  public int getVirtualNodes() {
+    return virtualNodes;
+  }
+
+  /**
+   * @return the connect timeout in milliseconds, 0 if there is none
+   */
+  public int getConnectTimeoutMillis() {
+    return connectTimeoutMillis;
+  }
+
+  /**
+   * @return the read timeout in milliseconds, 0 if there is none
+   */
+  public int getReadTimeoutMillis() {
+    return readTimeoutMillis;
+  }
+
+  /**
+   * @return whether request bodies are streamed with chunked transfer encoding
+   */
+  public boolean isChunkedStreamingMode() {
+    return chunkLength >= 0;
+  }
+
+  /**
+   * @return the chunk length to use when {@link #isChunkedStreamingMode()} is true
+   */
+  public int getChunkLength() {
+    return chunkLength;
+  }
+
+  public boolean isCompressionEnabled() {
+    return requestEncoding != null;
+  }
+
+  /**
+   * @return the encoding used to compress request bodies, or null if compression is disabled
+   */
+  public ContentEncoding getRequestEncoding() {
+    return requestEncoding;
+  }
+
+  /**
+   * @return the minimum size in bytes of a request body for it to be compressed
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * @return the policy for retrying failed calls, or null if calls are not retried
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @return the policy for hedging GETs, or null if calls are not hedged
+   */
+  public HedgingPolicy getHedgingPolicy() {
+    return hedgingPolicy;
+  }
+
+  /**
+   * @return the policy for circuit breakers, or null if calls are not guarded by them
+   */
+  public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+    return circuitBreakerPolicy;
+  }
+
+  /**
+   * @return the metrics that calls are recorded in, or null if calls are not measured
+   */
+  public ClientMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the pool that connections are leased from, or null if there is none
+   */
+  public ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
   
   @Override
   public String toString() {
-    return serviceBaseUrl;
+    return endpointUrls.size() == 1 ? serviceBaseUrl : endpointUrls.toString();
   }
 }
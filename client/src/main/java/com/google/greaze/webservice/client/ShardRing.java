@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent-hash ring that assigns keys, such as resource ids, to the endpoints of a sharded
+ * fleet. Each endpoint is placed on the ring at several points (virtual nodes) so that keys are
+ * spread evenly, and adding or removing an endpoint only moves the keys of its neighbors.
+ * The placement only depends on the endpoint URLs, so all clients agree on it.
+ */
+final class ShardRing {
+  private final long[] points;
+  private final Endpoint[] owners;
+
+  ShardRing(List<Endpoint> endpoints, int virtualNodes) {
+    TreeMap<Long, Endpoint> ring = new TreeMap<Long, Endpoint>();
+    for (Endpoint endpoint : endpoints) {
+      for (int vnode = 0; vnode < virtualNodes; ++vnode) {
+        ring.put(hash(endpoint.getBaseUrl() + '#' + vnode), endpoint);
+      }
+    }
+    // Flattened into arrays since lookups are on the hot path
+    this.points = new long[ring.size()];
+    this.owners = new Endpoint[ring.size()];
+    int i = 0;
+    for (Map.Entry<Long, Endpoint> entry : ring.entrySet()) {
+      points[i] = entry.getKey();
+      owners[i] = entry.getValue();
+      ++i;
+    }
+  }
+
+  /**
+   * @return the endpoint that owns the key: the first one at or after the hash of the key on
+   *   the ring
+   */
+  Endpoint get(String key) {
+    int index = Arrays.binarySearch(points, hash(key));
+    if (index < 0) {
+      index = -index - 1;
+      if (index == points.length) {
+        index = 0;
+      }
+    }
+    return owners[index];
+  }
+
+  /**
+   * 64-bit FNV-1a followed by the MurmurHash3 finalizer to spread nearby keys over the ring
+   */
+  static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); ++i) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
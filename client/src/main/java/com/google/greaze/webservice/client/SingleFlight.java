@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Coalesces concurrent identical calls: while a call for a key is in flight, other callers for
+ * the same key wait for it and share its result (or its exception) instead of making their own
+ * round trip. Once the call completes, the next caller for that key starts a fresh one, so this is
+ * not a cache.
+ *
+ * <p>All callers receive the same result instance, so treat it as read-only.
+ */
+public final class SingleFlight {
+
+  private static final class Call<V> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private V value;
+    private Throwable error;
+
+    void complete(V value, Throwable error) {
+      this.value = value;
+      this.error = error;
+      done.countDown();
+    }
+
+    V await() {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new WebServiceSystemException(e);
+      }
+      if (error == null) {
+        return value;
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      }
+      throw new WebServiceSystemException(ErrorReason.UNEXPECTED_PERMANENT_ERROR, (Exception) error);
+    }
+  }
+
+  private final ConcurrentMap<Object, Call<?>> inFlight = new ConcurrentHashMap<Object, Call<?>>();
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /**
+   * Runs the call unless an identical one is in flight, in which case waits for that instead
+   *
+   * @param key identifies identical calls. Must implement equals and hashCode.
+   * @param call the actual call
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V execute(Object key, Callable<V> call) {
+    Call<V> pending = new Call<V>();
+    Call<?> existing = inFlight.putIfAbsent(key, pending);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      return ((Call<V>) existing).await();
+    }
+    V value = null;
+    Throwable error = null;
+    try {
+      value = call.call();
+      return value;
+    } catch (RuntimeException e) {
+      error = e;
+      throw e;
+    } catch (Error e) {
+      error = e;
+      throw e;
+    } catch (Exception e) {
+      error = e;
+      throw new WebServiceSystemException(ErrorReason.UNEXPECTED_PERMANENT_ERROR, e);
+    } finally {
+      inFlight.remove(key, pending);
+      pending.complete(value, error);
+    }
+  }
+
+  /**
+   * @return number of calls that are currently in flight
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  /**
+   * @return number of calls that were served by waiting on an in-flight call
+   */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+}
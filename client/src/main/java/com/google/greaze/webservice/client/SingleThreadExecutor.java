@@ -24,11 +24,10 @@ import java.util.concurrent.Executors;
  * @author inder
  */
 final class SingleThreadExecutor implements TaskExecutor {
-  private ExecutorService executor;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
   @Override
   public void execute(Runnable r) {
-    executor = Executors.newSingleThreadExecutor();
     executor.execute(r);
   }
 
@@ -36,4 +35,4 @@ final class SingleThreadExecutor implements TaskExecutor {
   public void shutdownNow() {
     executor.shutdownNow();
   }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -15,24 +15,35 @@
  */
 package com.google.greaze.webservice.client;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * An executor that uses a new thread to execute each call
  *
  * @author inder
  */
 final class ThreadPerTaskExecutor implements TaskExecutor {
-  private Thread thread;
+  private final List<Thread> threads = new ArrayList<Thread>();
 
   @Override
-  public void execute(Runnable r) {
-    thread = new Thread(r);
+  public synchronized void execute(Runnable r) {
+    for (Iterator<Thread> it = threads.iterator(); it.hasNext(); ) {
+      if (!it.next().isAlive()) {
+        it.remove();
+      }
+    }
+    Thread thread = new Thread(r);
+    threads.add(thread);
     thread.start();
   }
 
   @Override
-  public void shutdownNow() {
-    if (thread != null) {
+  public synchronized void shutdownNow() {
+    for (Thread thread : threads) {
       thread.interrupt();
     }
+    threads.clear();
   }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The default {@link ClientTransport} that uses the {@link HttpURLConnection} provided by
+ * the JDK. Connections that completed normally are drained and closed instead of being
+ * disconnected so that the JDK can return the underlying socket to its keep-alive cache.
+ * Use {@link ConnectionPool} to bound and monitor connection usage.
+ */
+public class UrlConnectionTransport implements ClientTransport {
+
+  @Override
+  public HttpURLConnection openConnection(URL url) throws IOException {
+    return (HttpURLConnection) url.openConnection();
+  }
+
+  @Override
+  public void releaseConnection(HttpURLConnection conn, boolean reusable) {
+    if (!reusable || !drainAndClose(conn)) {
+      conn.disconnect();
+    }
+  }
+
+  /** Responses bigger than this are not worth draining just to keep the socket around */
+  private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+  /**
+   * Reads whatever is left of the response and closes the stream. The JDK only reuses a socket
+   * once its response stream has been exhausted and closed. Never call
+   * {@link HttpURLConnection#disconnect()} after this succeeds: it closes the socket that was just
+   * returned to the keep-alive cache.
+   *
+   * @return true if the stream was fully drained and closed, false if the socket should be
+   *   discarded instead. Reading fails if the connection was reset, timed out or cut short, so
+   *   any {@link IOException} means the socket is not reusable.
+   */
+  static boolean drainAndClose(HttpURLConnection conn) {
+    InputStream in = null;
+    try {
+      in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+      if (in == null) {
+        return true;
+      }
+      byte[] buf = new byte[2048];
+      int total = 0;
+      int count;
+      while ((count = in.read(buf)) != -1) {
+        total += count;
+        if (total > MAX_DRAIN_BYTES) {
+          return false;
+        }
+      }
+      in.close();
+      in = null;
+      return true;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+}
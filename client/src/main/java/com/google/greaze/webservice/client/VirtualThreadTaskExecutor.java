@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.ExecutorService;
+
+import com.google.greaze.definition.internal.utils.VirtualThreads;
+
+/**
+ * An executor that runs each task on a new virtual thread. Only usable on JDKs that support
+ * virtual threads, see {@link VirtualThreads#isSupported()}.
+ */
+final class VirtualThreadTaskExecutor implements TaskExecutor {
+  private final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+
+  @Override
+  public void execute(Runnable r) {
+    executor.execute(r);
+  }
+
+  @Override
+  public void shutdownNow() {
+    executor.shutdownNow();
+  }
+}
@@ -19,9 +19,20 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import com.google.greaze.client.internal.utils.UrlParamStringBuilder;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.LogConfig;
 import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.definition.webservice.WebServiceCallSpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
@@ -34,65 +45,324 @@ import com.google.gson.Gson;
  * @author inder
  */
 public class WebServiceClient {
+
+  /**
+   * A single request/response exchange with the server. Exchanges are run through
+   * {@link WebServiceClient#execute(HttpMethod, Exchange)} so that they are sent to one of the
+   * endpoints, and failed ones are retried.
+   */
+  protected interface Exchange<T> {
+    /**
+     * @param serviceBaseUrl the base URL of the endpoint chosen for this exchange
+     * @param timer marks the phases of the exchange in the {@link ClientMetrics}
+     */
+    T run(String serviceBaseUrl, ClientMetrics.Timer timer);
+  }
+
   protected final ServerConfig config;
+  protected final ClientTransport transport;
+  private final RetryPolicy retryPolicy;
+  private final RetryBudget retryBudget;
+  private final Hedger hedger;
+  private final EndpointGroup endpoints;
+  private final CircuitBreakerPolicy circuitBreakerPolicy;
+  private final ClientMetrics metrics;
+  private final ConcurrentMap<String, CircuitBreaker> circuitBreakers =
+    new ConcurrentHashMap<String, CircuitBreaker>();
   protected static final Logger logger = Logger.getLogger(WebServiceClient.class.getName());
 
+  /**
+   * Creates a client that leases its connections from the {@link ConnectionPool} of the
+   * configuration, or opens them with a {@link UrlConnectionTransport} if it has none
+   */
   public WebServiceClient(ServerConfig serverConfig) {
+    this(serverConfig, serverConfig.getConnectionPool() == null
+        ? new UrlConnectionTransport() : serverConfig.getConnectionPool());
+  }
+
+  public WebServiceClient(ServerConfig serverConfig, ClientTransport transport) {
     this.config = serverConfig;
+    this.transport = transport;
+    this.retryPolicy = serverConfig.getRetryPolicy();
+    this.retryBudget = retryPolicy == null ? null : retryPolicy.newBudget();
+    HedgingPolicy hedgingPolicy = serverConfig.getHedgingPolicy();
+    this.hedger = hedgingPolicy == null ? null : new Hedger(hedgingPolicy);
+    this.endpoints = new EndpointGroup(serverConfig);
+    this.circuitBreakerPolicy = serverConfig.getCircuitBreakerPolicy();
+    this.metrics = serverConfig.getMetrics();
   }
 
   /** Visible for testing only */
   URL getWebServiceUrl(WebServiceCallSpec callSpec, WebServiceRequest request, Gson gson) {
-    String baseUrl = buildBasePath(callSpec);
+    return getWebServiceUrl(config.getServiceBaseUrl(), callSpec, request, gson);
+  }
+
+  private URL getWebServiceUrl(String serviceBaseUrl, WebServiceCallSpec callSpec,
+      WebServiceRequest request, Gson gson) {
+    String baseUrl = buildBasePath(serviceBaseUrl, callSpec);
     try {
       String urlParamString = new UrlParamStringBuilder(gson)
         .add(request.getUrlParameters())
         .build();
       return new URL(baseUrl + urlParamString);
     } catch (MalformedURLException e) {
-      throw new WebServiceSystemException(e);
+      throw new WebServiceSystemException(ErrorReason.BAD_REQUEST, e.getMessage(), e);
     }
   }
 
-  protected String buildBasePath(WebServiceCallSpec callSpec) {
-    StringBuilder url = new StringBuilder(config.getServiceBaseUrl());
+  protected String buildBasePath(String serviceBaseUrl, WebServiceCallSpec callSpec) {
+    return serviceBaseUrl + buildServicePath(callSpec);
+  }
+
+  /**
+   * @return the path of the call spec relative to the service base URL of an endpoint
+   */
+  protected String buildServicePath(WebServiceCallSpec callSpec) {
+    StringBuilder path = new StringBuilder();
     if (callSpec.hasVersion()) {
-      url.append('/').append(callSpec.getVersion());
+      path.append('/').append(callSpec.getVersion());
     }
-    url.append(callSpec.getPath().getServicePath());
-    return url.toString();
+    path.append(callSpec.getPath().getServicePath());
+    return path.toString();
   }
 
   public WebServiceResponse getResponse(
-      WebServiceCallSpec callSpec, WebServiceRequest request, Gson gson) {
+      final WebServiceCallSpec callSpec, final WebServiceRequest request, final Gson gson) {
+    Exchange<WebServiceResponse> exchange = new Exchange<WebServiceResponse>() {
+      @Override public WebServiceResponse run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        return getResponseOnce(serviceBaseUrl, callSpec, request, gson, timer);
+      }
+    };
+    return execute(callSpec.getPath(), request.getMethod(), null, exchange);
+  }
+
+  private WebServiceResponse getResponseOnce(String serviceBaseUrl,
+      WebServiceCallSpec callSpec, WebServiceRequest request, Gson gson,
+      ClientMetrics.Timer timer) {
     HttpURLConnection conn = null;
+    boolean completed = false;
     try {
-      URL webServiceUrl = getWebServiceUrl(callSpec, request, gson);
+      URL webServiceUrl = getWebServiceUrl(serviceBaseUrl, callSpec, request, gson);
       conn = openConnection(webServiceUrl);
-      RequestSender requestSender = new RequestSender(gson);
+      timer.connected();
+      RequestSender requestSender = new RequestSender(gson, config);
       requestSender.send(conn, request);
+      timer.sent(requestSender.getBytesSent());
+      timer.firstByte(conn);
       ResponseReceiver responseReceiver = new ResponseReceiver(gson, callSpec.getResponseSpec());
-      return responseReceiver.receive(conn);
+      WebServiceResponse response = responseReceiver.receive(conn);
+      timer.received(responseReceiver.getBytesReceived());
+      completed = true;
+      return response;
     } catch (NullPointerException e) {
       throw new WebServiceSystemException(e);
     } catch (IllegalArgumentException e) {
       throw new WebServiceSystemException(e);
     } finally {
-      closeIgnoringErrors(conn);
+      releaseConnection(conn, completed);
     }
   }
 
+  /**
+   * Runs the exchange on an endpoint picked by the {@link LoadBalancer}, and runs it again,
+   * possibly on another endpoint, if it fails with a retryable error and the
+   * {@link RetryPolicy} of the {@link ServerConfig} and the retry budget of this client allow.
+   * This is the same as {@link #execute(CallPath, HttpMethod, String, Exchange)} without a
+   * call path, so the circuit breaker of each endpoint is shared by all such exchanges.
+   */
+  protected <T> T execute(HttpMethod method, Exchange<T> exchange) {
+    return execute(null, method, null, exchange);
+  }
+
+  /**
+   * Same as {@link #execute(HttpMethod, Exchange)}, but if the endpoints are shards, the
+   * exchange is sent to the endpoint that owns the shard key.
+   *
+   * @param shardKey typically the value of the resource id. May be null.
+   */
+  protected <T> T execute(HttpMethod method, String shardKey, Exchange<T> exchange) {
+    return execute(null, method, shardKey, exchange);
+  }
+
+  /**
+   * Same as {@link #execute(HttpMethod, String, Exchange)}, but if the {@link ServerConfig}
+   * has a {@link CircuitBreakerPolicy}, the exchange is guarded by the circuit breaker of the
+   * call path on the chosen endpoint.
+   *
+   * @param callPath the call path of the exchange. May be null.
+   */
+  protected <T> T execute(CallPath callPath, HttpMethod method, String shardKey,
+      Exchange<T> exchange) {
+    if (retryPolicy == null) {
+      return runOnEndpoint(callPath, method, shardKey, exchange);
+    }
+    retryBudget.deposit();
+    Deadline deadline = Deadline.getCurrent();
+    for (int attempt = 1;; ++attempt) {
+      try {
+        return runOnEndpoint(callPath, method, shardKey, exchange);
+      } catch (WebServiceSystemException e) {
+        if (!retryPolicy.shouldRetry(method, e, attempt)) {
+          throw e;
+        }
+        long backoffMillis = retryPolicy.getBackoffMillis(attempt);
+        if (deadline != null && deadline.getRemaining(TimeUnit.MILLISECONDS) <= backoffMillis) {
+          throw new WebServiceSystemException(ErrorReason.DEADLINE_EXCEEDED,
+              "Deadline passes before the next attempt", e);
+        }
+        if (!retryBudget.tryWithdraw()) {
+          throw e;
+        }
+        if (LogConfig.INFO) logger.info(String.format("Retrying %s after %dms, attempt %d: %s",
+            method, backoffMillis, attempt, e.getReason()));
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private <T> T runOnEndpoint(CallPath callPath, HttpMethod method, String shardKey,
+      Exchange<T> exchange) {
+    Deadline deadline = Deadline.getCurrent();
+    if (deadline != null && deadline.isExpired()) {
+      throw new WebServiceSystemException(ErrorReason.DEADLINE_EXCEEDED,
+          "Deadline passed before the call to " + callPath);
+    }
+    Endpoint endpoint = endpoints.select(shardKey);
+    CircuitBreaker circuitBreaker = getCircuitBreaker(endpoint, callPath);
+    if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+      throw new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE,
+          "Circuit breaker open: " + circuitBreaker.getName());
+    }
+    ClientMetrics.Timer timer = metrics == null || callPath == null
+        ? ClientMetrics.Timer.DISABLED : metrics.start(callPath, method);
+    endpoint.begin();
+    long start = System.nanoTime();
+    // Stays set unless the exchange completes or reports its own reason, so that exceptions the
+    // exchange did not classify, such as a response body that does not parse, count as failures
+    ErrorReason failure = ErrorReason.UNEXPECTED_PERMANENT_ERROR;
+    try {
+      T result = exchange.run(endpoint.getBaseUrl(), timer);
+      endpoint.recordSuccess(System.nanoTime() - start);
+      failure = null;
+      return result;
+    } catch (WebServiceSystemException e) {
+      if (deadline != null && deadline.isExpired()
+          && e.getReason() != ErrorReason.DEADLINE_EXCEEDED) {
+        // Most likely a socket timeout bounded by the deadline
+        e = new WebServiceSystemException(ErrorReason.DEADLINE_EXCEEDED, e.getMessage(), e);
+      }
+      if (e.getReason() != null) {
+        failure = e.getReason();
+      }
+      throw e;
+    } finally {
+      timer.stop(failure);
+      endpoint.end();
+      if (failure != null) {
+        endpoints.recordFailure(endpoint, failure);
+      }
+      if (circuitBreaker != null) {
+        circuitBreaker.record(System.nanoTime() - start,
+            failure != null && failure.isServerFailure());
+      }
+    }
+  }
+
+  private CircuitBreaker getCircuitBreaker(Endpoint endpoint, CallPath callPath) {
+    if (circuitBreakerPolicy == null) {
+      return null;
+    }
+    String name = callPath == null
+        ? endpoint.getBaseUrl() : endpoint.getBaseUrl() + callPath.getServicePath();
+    CircuitBreaker circuitBreaker = circuitBreakers.get(name);
+    if (circuitBreaker == null) {
+      circuitBreaker = new CircuitBreaker(name, circuitBreakerPolicy);
+      CircuitBreaker existing = circuitBreakers.putIfAbsent(name, circuitBreaker);
+      if (existing != null) {
+        circuitBreaker = existing;
+      }
+    }
+    return circuitBreaker;
+  }
+
+  /**
+   * @return the circuit breakers created so far, one per endpoint and call path. Empty if the
+   *   {@link ServerConfig} has no {@link CircuitBreakerPolicy}.
+   */
+  public Collection<CircuitBreaker> getCircuitBreakers() {
+    return Collections.unmodifiableCollection(circuitBreakers.values());
+  }
+
+  /**
+   * @return the endpoints of the {@link ServerConfig} along with their observed load, latency
+   *   and health
+   */
+  public List<Endpoint> getEndpoints() {
+    return endpoints.getEndpoints();
+  }
+
+  /**
+   * @return true if the endpoints of the {@link ServerConfig} are shards
+   */
+  public boolean isSharded() {
+    return endpoints.isSharded();
+  }
+
+  /**
+   * @return the endpoint that calls with the specified shard key are sent to, or null if the
+   *   endpoints are not shards
+   */
+  public Endpoint getShard(String shardKey) {
+    return endpoints.isSharded() ? endpoints.select(shardKey) : null;
+  }
+
+  /**
+   * @return the retry budget of this client, or null if the {@link ServerConfig} has no
+   *   {@link RetryPolicy}
+   */
+  public RetryBudget getRetryBudget() {
+    return retryBudget;
+  }
+
+  /**
+   * @return the hedger for idempotent calls of this client, or null if the {@link ServerConfig}
+   *   has no {@link HedgingPolicy}
+   */
+  public Hedger getHedger() {
+    return hedger;
+  }
+
+  /**
+   * Opens a connection through the {@link ClientTransport}. Subclasses can override this to
+   * intercept connection creation.
+   */
   protected HttpURLConnection openConnection(URL url) {
     try {
-      return (HttpURLConnection) url.openConnection();
+      return transport.openConnection(url);
     } catch (IOException e) {
       throw new WebServiceSystemException(e);
     }
   }
 
+  /**
+   * Hands the connection back to the {@link ClientTransport}. It is ok to pass a null conn.
+   *
+   * @param reusable whether the request/response exchange on this connection completed normally
+   */
+  protected void releaseConnection(HttpURLConnection conn, boolean reusable) {
+    if (conn != null) {
+      transport.releaseConnection(conn, reusable);
+    }
+  }
+
   @Override
   public String toString() {
-    return String.format("config:%s", config);
+    return String.format("config:%s, transport:%s", config, transport);
   }
 
   protected static void closeIgnoringErrors(HttpURLConnection conn) {
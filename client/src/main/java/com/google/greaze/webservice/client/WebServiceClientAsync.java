@@ -18,50 +18,293 @@ package com.google.greaze.webservice.client;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import com.google.greaze.definition.Deadline;
 import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.GreazePreconditions;
+import com.google.greaze.definition.internal.utils.VirtualThreads;
 import com.google.greaze.definition.webservice.WebServiceCallSpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
 import com.google.gson.Gson;
 
 /**
  * A client for invoking a JSON-based Web-service in an asynchronous manner. The call is queued,
- * and control returns to the caller. A separate thread executes the call, and invokes the
+ * and control returns to the caller. Worker threads execute the queued calls, and invoke the
  * client-supplied callback with results.
+ *
+ * <p>By default, a single worker drains an unbounded queue. Use {@link Builder} to run several
+ * workers against a bounded queue, and pick what happens when that queue is full with an
+ * {@link OverflowPolicy}.
  *  
  * @author inder
  */
 public class WebServiceClientAsync {
 
+  /**
+   * What {@link WebServiceClientAsync#callAsync} does when the bounded queue is full
+   */
+  public enum OverflowPolicy {
+    /** Block the caller until space becomes available */
+    BLOCK,
+    /**
+     * Fail the call right away with a {@link WebServiceSystemException} with
+     * {@link ErrorReason#UNEXPECTED_RETRYABLE_ERROR}
+     */
+    REJECT,
+    /**
+     * Evict the oldest queued call to make room. The evicted call's
+     * {@link ResponseCallback#handleError} is invoked on the caller's thread.
+     */
+    DROP_OLDEST
+  }
+
+  public static final class Builder {
+    private final WebServiceClient client;
+    private final Gson gson;
+    private int workers = 1;
+    private int queueCapacity = Integer.MAX_VALUE;
+    private boolean ringBuffer = false;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private boolean virtualThreads = false;
+
+    public Builder(ServerConfig serverConfig, Gson gson) {
+      this(new WebServiceClient(serverConfig), gson);
+    }
+
+    public Builder(WebServiceClient client, Gson gson) {
+      this.client = client;
+      this.gson = gson;
+    }
+
+    /**
+     * Number of worker threads executing calls concurrently. Defaults to 1.
+     */
+    public Builder setWorkers(int workers) {
+      this.workers = workers;
+      return this;
+    }
+
+    /**
+     * Maximum number of calls waiting to be executed. Defaults to unbounded.
+     */
+    public Builder setQueueCapacity(int queueCapacity) {
+      this.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * Use a lock-free ring buffer instead of a {@link LinkedBlockingQueue}. This avoids lock
+     * contention when many threads enqueue calls at the same time. The ring buffer requires a
+     * bounded {@link #setQueueCapacity(int)}, which is rounded up to a power of two.
+     */
+    public Builder setRingBuffer(boolean ringBuffer) {
+      this.ringBuffer = ringBuffer;
+      return this;
+    }
+
+    /**
+     * Defaults to {@link OverflowPolicy#BLOCK}
+     */
+    public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * Run the workers on virtual threads when the JDK supports them (JDK 21+), and on platform
+     * threads otherwise. Virtual threads make it cheap to configure thousands of
+     * {@link #setWorkers(int) workers}, each blocked on its own call.
+     */
+    public Builder setVirtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    public WebServiceClientAsync build() {
+      GreazePreconditions.checkNotNull(client);
+      GreazePreconditions.checkNotNull(overflowPolicy);
+      GreazePreconditions.checkArgument(workers > 0);
+      GreazePreconditions.checkArgument(queueCapacity > 0);
+      GreazePreconditions.checkArgument(!ringBuffer || queueCapacity < Integer.MAX_VALUE);
+      BlockingQueue<QueueEntry> queue = ringBuffer
+          ? new RingBufferQueue<QueueEntry>(queueCapacity)
+          : new LinkedBlockingQueue<QueueEntry>(queueCapacity);
+      return new WebServiceClientAsync(
+          client, gson, queue, workers, overflowPolicy, virtualThreads);
+    }
+  }
+
+  /**
+   * A point-in-time snapshot of the queue counters
+   */
+  public static final class Stats {
+    private final int depth;
+    private final int maxDepth;
+    private final long enqueued;
+    private final long rejected;
+    private final long dropped;
+    private final long expired;
+    private final long dequeued;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    Stats(int depth, int maxDepth, long enqueued, long rejected, long dropped, long expired,
+        long dequeued, long totalWaitNanos, long maxWaitNanos) {
+      this.depth = depth;
+      this.maxDepth = maxDepth;
+      this.enqueued = enqueued;
+      this.rejected = rejected;
+      this.dropped = dropped;
+      this.expired = expired;
+      this.dequeued = dequeued;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos = maxWaitNanos;
+    }
+
+    /** Calls currently waiting in the queue */
+    public int getDepth() {
+      return depth;
+    }
+
+    /** Highest queue depth observed right after an enqueue */
+    public int getMaxDepth() {
+      return maxDepth;
+    }
+
+    /** Calls accepted into the queue */
+    public long getEnqueued() {
+      return enqueued;
+    }
+
+    /** Calls refused because of {@link OverflowPolicy#REJECT} */
+    public long getRejected() {
+      return rejected;
+    }
+
+    /** Calls evicted because of {@link OverflowPolicy#DROP_OLDEST} */
+    public long getDropped() {
+      return dropped;
+    }
+
+    /** Calls discarded by a worker because their {@link Deadline} passed in the queue */
+    public long getExpired() {
+      return expired;
+    }
+
+    /** Calls picked up by a worker */
+    public long getDequeued() {
+      return dequeued;
+    }
+
+    /** Average time a call waited in the queue before a worker picked it up */
+    public long getAverageWaitNanos() {
+      return dequeued == 0 ? 0 : totalWaitNanos / dequeued;
+    }
+
+    /** Longest time a call waited in the queue before a worker picked it up */
+    public long getMaxWaitNanos() {
+      return maxWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("depth:%d, maxDepth:%d, enqueued:%d, rejected:%d, dropped:%d, "
+          + "expired:%d, dequeued:%d, avgWaitNanos:%d, maxWaitNanos:%d", depth, maxDepth,
+          enqueued, rejected, dropped, expired, dequeued, getAverageWaitNanos(), maxWaitNanos);
+    }
+  }
+
   private final BlockingQueue<QueueEntry> queue;
   private final boolean threadPerTask;
   private final TaskExecutor executor;
+  private final OverflowPolicy overflowPolicy;
+  private final AsyncQueueMetrics metrics = new AsyncQueueMetrics();
 
   public WebServiceClientAsync(ServerConfig serverConfig, Gson gson) {
     this(new WebServiceClient(serverConfig), gson);
   }
 
   public WebServiceClientAsync(WebServiceClient client, Gson gson) {
-    queue = new LinkedBlockingQueue<QueueEntry>();
+    this(client, gson, new LinkedBlockingQueue<QueueEntry>(), 1, OverflowPolicy.BLOCK, false);
+  }
+
+  private WebServiceClientAsync(WebServiceClient client, Gson gson,
+      BlockingQueue<QueueEntry> queue, int workers, OverflowPolicy overflowPolicy,
+      boolean virtualThreads) {
+    this.queue = queue;
+    this.overflowPolicy = overflowPolicy;
     this.threadPerTask = true;
-    QueueConsumer consumer = new QueueConsumer(queue, client, gson);
-    executor = getExecutor();
-    executor.execute(consumer);
+    executor = getExecutor(virtualThreads && VirtualThreads.isSupported());
+    for (int i = 0; i < workers; ++i) {
+      executor.execute(new QueueConsumer(queue, client, gson, metrics));
+    }
   }
 
-  private TaskExecutor getExecutor() {
+  private TaskExecutor getExecutor(boolean virtualThreads) {
+    if (virtualThreads) {
+      return new VirtualThreadTaskExecutor();
+    }
     return threadPerTask ? new ThreadPerTaskExecutor() : new SingleThreadExecutor();
   }
 
+  /**
+   * Queues the call with the {@link Deadline} of the calling thread, if any
+   */
   public void callAsync(WebServiceCallSpec callSpec, WebServiceRequest request,
       ResponseCallback responseCallback) {
-    try {
-      queue.put(new QueueEntry(callSpec, request, responseCallback));
-    } catch (InterruptedException e) {
-      throw new WebServiceSystemException(ErrorReason.UNEXPECTED_RETRYABLE_ERROR, e);
+    callAsync(callSpec, request, responseCallback, Deadline.getCurrent());
+  }
+
+  /**
+   * Queues the call. If the deadline passes before a worker picks up the call, the call is
+   * not sent and the callback's {@link ResponseCallback#handleError} is invoked with
+   * {@link ErrorReason#DEADLINE_EXCEEDED}. Otherwise, the deadline bounds the call.
+   *
+   * @param deadline may be null
+   */
+  public void callAsync(WebServiceCallSpec callSpec, WebServiceRequest request,
+      ResponseCallback responseCallback, Deadline deadline) {
+    QueueEntry entry = new QueueEntry(callSpec, request, responseCallback, deadline);
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          queue.put(entry);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new WebServiceSystemException(ErrorReason.UNEXPECTED_RETRYABLE_ERROR, e);
+        }
+        break;
+      case REJECT:
+        if (!queue.offer(entry)) {
+          metrics.recordRejected();
+          throw new WebServiceSystemException(ErrorReason.UNEXPECTED_RETRYABLE_ERROR,
+              "Async queue is full, rejected call to " + callSpec.getPath());
+        }
+        break;
+      case DROP_OLDEST:
+        while (!queue.offer(entry)) {
+          QueueEntry oldest = queue.poll();
+          if (oldest != null) {
+            metrics.recordDropped();
+            if (oldest.responseCallback != null) {
+              oldest.responseCallback.handleError(new WebServiceSystemException(
+                  ErrorReason.UNEXPECTED_RETRYABLE_ERROR, "Dropped from a full async queue"),
+                  oldest.request, oldest.callSpec);
+            }
+          }
+        }
+        break;
     }
+    metrics.recordEnqueued(queue.size());
   }
-  
+
+  /**
+   * @return a snapshot of the queue depth, overflow counts and queue wait times
+   */
+  public Stats getStats() {
+    return metrics.snapshot(queue.size());
+  }
+
   public void shutdownNow() {
     executor.shutdownNow();
   }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.rest.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.CallPathParser;
+import com.google.greaze.definition.HeaderMapSpec;
+import com.google.greaze.definition.rest.Id;
+import com.google.greaze.definition.rest.RestResourceImpl;
+import com.google.greaze.definition.rest.RestResponse;
+import com.google.greaze.definition.rest.RestResponseSpec;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.rest.client.fixtures.RestClientStubClientSideFake;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Unit tests for {@link CachingResourceDepot}
+ */
+public class CachingResourceDepotTest extends TestCase {
+  private static final Id<MyResource> ID = Id.get("1");
+  private static final WebContext CONTEXT = new WebContext();
+
+  private ServerSide server;
+  private CachingResourceDepot<Id<MyResource>, MyResource> depot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    server = new ServerSide();
+    depot = new CachingResourceDepot<Id<MyResource>, MyResource>(server, 10, 60000L);
+  }
+
+  public void testGetIsCached() {
+    assertEquals(1, depot.get(ID, CONTEXT).value);
+    assertEquals(1, depot.get(ID, CONTEXT).value);
+    assertEquals(1L, depot.getMissCount());
+    assertEquals(1L, depot.getHitCount());
+  }
+
+  public void testPutInvalidates() {
+    depot.get(ID, CONTEXT);
+    depot.put(new MyResource(ID, 2), CONTEXT);
+    assertEquals(2, depot.get(ID, CONTEXT).value);
+    assertEquals(2L, depot.getMissCount());
+  }
+
+  public void testGetRacingWithPutDoesNotCacheTheOldCopy() throws Exception {
+    server.blockNextGet();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<MyResource> racingGet = executor.submit(new Callable<MyResource>() {
+        @Override
+        public MyResource call() {
+          return depot.get(ID, CONTEXT);
+        }
+      });
+      // The racing GET has read the old copy but not cached it yet
+      assertTrue(server.getRead.await(5, TimeUnit.SECONDS));
+      depot.put(new MyResource(ID, 2), CONTEXT);
+      server.releaseGet.countDown();
+      assertEquals(1, racingGet.get(5, TimeUnit.SECONDS).value);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, depot.get(ID, CONTEXT).value);
+    assertEquals(2L, depot.getMissCount());
+  }
+
+  /**
+   * Holds a single resource. A GET can be held between reading the resource and returning it.
+   */
+  private static final class ServerSide extends ResourceDepotClient<MyResource> {
+    private static final RestResponseSpec RESPONSE_SPEC =
+      new RestResponseSpec(new HeaderMapSpec.Builder().build(), MyResource.class);
+    private volatile int value = 1;
+    private volatile boolean blockNextGet;
+    final CountDownLatch getRead = new CountDownLatch(1);
+    final CountDownLatch releaseGet = new CountDownLatch(1);
+
+    ServerSide() {
+      super(new RestClientStubClientSideFake(), MyResource.CALL_PATH, MyResource.class,
+          new GsonBuilder(), false);
+    }
+
+    void blockNextGet() {
+      blockNextGet = true;
+    }
+
+    @Override
+    public ConditionalResponse<Id<MyResource>, MyResource> getIfModified(
+        Id<MyResource> resourceId, WebContext context, String ifNoneMatch) {
+      MyResource resource = new MyResource(resourceId, value);
+      if (blockNextGet) {
+        blockNextGet = false;
+        getRead.countDown();
+        try {
+          releaseGet.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      RestResponse<MyResource> response = new RestResponse.Builder<MyResource>(RESPONSE_SPEC)
+        .setBody(resource)
+        .build();
+      return new ConditionalResponse<Id<MyResource>, MyResource>(response, null);
+    }
+
+    @Override
+    public MyResource put(MyResource resource, WebContext context) {
+      value = resource.value;
+      return resource;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class MyResource extends RestResourceImpl<MyResource> {
+    static final CallPath CALL_PATH =
+      new CallPathParser("/rest", false, "/myresource").parse("/rest/myresource");
+
+    int value;
+
+    // For Gson
+    @SuppressWarnings("unused")
+    MyResource() {
+      this(null, 0);
+    }
+
+    MyResource(Id<MyResource> id, int value) {
+      this.value = value;
+      if (id != null) {
+        setId(id);
+      }
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.webservice.client.CircuitBreaker.State;
+import com.google.gson.JsonParseException;
+
+/**
+ * Unit tests for {@link CircuitBreaker}
+ */
+public class CircuitBreakerTest extends TestCase {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1L);
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(10L);
+
+  public void testTripsOnFailureRate() {
+    CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerPolicy.Builder()
+      .setWindow(10, 4)
+      .setFailureRateThreshold(50)
+      .build());
+    for (int i = 0; i < 3; ++i) {
+      assertTrue(breaker.tryAcquire());
+      breaker.record(FAST, i == 0);
+    }
+    assertEquals(State.CLOSED, breaker.getState());
+    assertTrue(breaker.tryAcquire());
+    breaker.record(FAST, true);
+    assertEquals(State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire());
+    assertEquals(1L, breaker.getStats().getRejected());
+    assertEquals(1L, breaker.getStats().getOpened());
+  }
+
+  public void testTripsOnSlowCallRate() {
+    CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerPolicy.Builder()
+      .setWindow(4, 4)
+      .setSlowCallRateThreshold(75, 1000L)
+      .build());
+    breaker.record(FAST, false);
+    breaker.record(SLOW, false);
+    breaker.record(SLOW, false);
+    assertEquals(State.CLOSED, breaker.getState());
+    breaker.record(SLOW, false);
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  public void testSlidingWindowForgetsOldCalls() {
+    CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerPolicy.Builder()
+      .setWindow(4, 4)
+      .setFailureRateThreshold(75)
+      .build());
+    breaker.record(FAST, true);
+    breaker.record(FAST, true);
+    for (int i = 0; i < 4; ++i) {
+      breaker.record(FAST, false);
+    }
+    breaker.record(FAST, true);
+    breaker.record(FAST, true);
+    assertEquals(State.CLOSED, breaker.getState());
+    assertEquals(50, breaker.getStats().getFailureRatePercent());
+  }
+
+  public void testHalfOpenClosesAfterSuccessfulTrials() throws Exception {
+    CircuitBreaker breaker = newOpenBreaker(2);
+    Thread.sleep(5L);
+    assertTrue(breaker.tryAcquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertTrue(breaker.tryAcquire());
+    assertFalse(breaker.tryAcquire());
+    breaker.record(FAST, false);
+    breaker.record(FAST, false);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  public void testHalfOpenReopensOnFailure() throws Exception {
+    CircuitBreaker breaker = newOpenBreaker(2);
+    Thread.sleep(5L);
+    assertTrue(breaker.tryAcquire());
+    breaker.record(FAST, true);
+    assertEquals(State.OPEN, breaker.getState());
+    assertEquals(2L, breaker.getStats().getOpened());
+  }
+
+  public void testClientFailsFastWhenOpen() {
+    ServerConfig config = new ServerConfig.Builder("http://localhost")
+      .setCircuitBreakerPolicy(new CircuitBreakerPolicy.Builder()
+        .setWindow(2, 2)
+        .setOpenMillis(60000L)
+        .build())
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    CallPath callPath = new CallPath("/rest", 1D, "/order", null);
+    final AtomicInteger attempts = new AtomicInteger();
+    WebServiceClient.Exchange<String> failing = new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        attempts.incrementAndGet();
+        throw new WebServiceSystemException(ErrorReason.LOCAL_NETWORK_FAILURE);
+      }
+    };
+    for (int i = 0; i < 5; ++i) {
+      try {
+        client.execute(callPath, HttpMethod.GET, null, failing);
+        fail();
+      } catch (WebServiceSystemException expected) {
+        assertEquals(i < 2 ? ErrorReason.LOCAL_NETWORK_FAILURE : ErrorReason.SERVER_UNAVAILABLE,
+            expected.getReason());
+      }
+    }
+    assertEquals(2, attempts.get());
+    CircuitBreaker breaker = client.getCircuitBreakers().iterator().next();
+    assertEquals("http://localhost/order", breaker.getName());
+    assertEquals(3L, breaker.getStats().getRejected());
+  }
+
+  public void testUnexpectedExceptionCountsAsFailure() {
+    ServerConfig config = new ServerConfig.Builder("http://localhost")
+      .setCircuitBreakerPolicy(new CircuitBreakerPolicy.Builder()
+        .setWindow(2, 2)
+        .setOpenMillis(60000L)
+        .build())
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    CallPath callPath = new CallPath("/rest", 1D, "/order", null);
+    WebServiceClient.Exchange<String> garbled = new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        throw new JsonParseException("garbled body");
+      }
+    };
+    for (int i = 0; i < 2; ++i) {
+      try {
+        client.execute(callPath, HttpMethod.GET, null, garbled);
+        fail();
+      } catch (JsonParseException expected) {
+      }
+    }
+    CircuitBreaker breaker = client.getCircuitBreakers().iterator().next();
+    assertEquals(State.OPEN, breaker.getState());
+    try {
+      client.execute(callPath, HttpMethod.GET, null, garbled);
+      fail();
+    } catch (WebServiceSystemException expected) {
+      assertEquals(ErrorReason.SERVER_UNAVAILABLE, expected.getReason());
+    }
+  }
+
+  private static CircuitBreaker newOpenBreaker(int halfOpenCalls) {
+    CircuitBreaker breaker = new CircuitBreaker("test", new CircuitBreakerPolicy.Builder()
+      .setWindow(1, 1)
+      .setOpenMillis(1L)
+      .setHalfOpenCalls(halfOpenCalls)
+      .build());
+    breaker.record(FAST, true);
+    assertEquals(State.OPEN, breaker.getState());
+    return breaker;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.webservice.client.ClientMetrics.Phase;
+
+/**
+ * Unit tests for {@link ClientMetrics}
+ */
+public class ClientMetricsTest extends TestCase {
+
+  public void testRecordsPhasesBytesAndErrors() {
+    ClientMetrics metrics = new ClientMetrics();
+    ServerConfig config = new ServerConfig.Builder("http://localhost")
+      .setMetrics(metrics)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    CallPath callPath = new CallPath("/rest", 1D, "/order", null);
+    WebServiceClient.Exchange<String> succeeding = new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        timer.connected();
+        timer.sent(10L);
+        timer.received(200L);
+        return "ok";
+      }
+    };
+    WebServiceClient.Exchange<String> failing = new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        timer.connected();
+        throw new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE);
+      }
+    };
+    assertEquals("ok", client.execute(callPath, HttpMethod.GET, null, succeeding));
+    assertEquals("ok", client.execute(callPath, HttpMethod.GET, null, succeeding));
+    try {
+      client.execute(callPath, HttpMethod.GET, null, failing);
+      fail();
+    } catch (WebServiceSystemException expected) {
+    }
+    client.execute(callPath, HttpMethod.DELETE, null, succeeding);
+
+    List<ClientMetrics.Stats> snapshot = metrics.getSnapshot();
+    assertEquals(2, snapshot.size());
+    ClientMetrics.Stats get = snapshot.get(0).getMethod() == HttpMethod.GET
+        ? snapshot.get(0) : snapshot.get(1);
+    assertEquals(callPath, get.getCallPath());
+    assertEquals(3L, get.getCalls());
+    assertEquals(20L, get.getRequestBytes());
+    assertEquals(400L, get.getResponseBytes());
+    assertEquals(Long.valueOf(1L), get.getErrors().get(ErrorReason.SERVER_UNAVAILABLE));
+    assertEquals(1, get.getErrors().size());
+    assertEquals(3L, get.getLatency(Phase.CONNECT).getCount());
+    assertEquals(2L, get.getLatency(Phase.SEND).getCount());
+    assertEquals(0L, get.getLatency(Phase.FIRST_BYTE).getCount());
+    assertEquals(2L, get.getLatency(Phase.DESERIALIZE).getCount());
+    assertEquals(3L, get.getLatency(Phase.TOTAL).getCount());
+
+    metrics.reset();
+    assertTrue(metrics.getSnapshot().isEmpty());
+  }
+
+  public void testRecordsUnclassifiedExceptions() {
+    ClientMetrics metrics = new ClientMetrics();
+    ServerConfig config = new ServerConfig.Builder("http://localhost")
+      .setMetrics(metrics)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    CallPath callPath = new CallPath("/rest", 1D, "/order", null);
+    WebServiceClient.Exchange<String> garbled = new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        throw new IllegalStateException("garbled body");
+      }
+    };
+    try {
+      client.execute(callPath, HttpMethod.GET, null, garbled);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    ClientMetrics.Stats stats = metrics.getSnapshot().get(0);
+    assertEquals(1L, stats.getCalls());
+    assertEquals(Long.valueOf(1L), stats.getErrors().get(ErrorReason.UNEXPECTED_PERMANENT_ERROR));
+    assertEquals(1L, stats.getLatency(Phase.TOTAL).getCount());
+  }
+
+  public void testSnapshotIsACopy() {
+    ClientMetrics metrics = new ClientMetrics();
+    CallPath callPath = new CallPath("/rest", 1D, "/order", null);
+    metrics.start(callPath, HttpMethod.GET).stop(null);
+    ClientMetrics.Stats stats = metrics.getSnapshot().get(0);
+    metrics.start(callPath, HttpMethod.GET).stop(ErrorReason.BAD_REQUEST);
+    assertEquals(1L, stats.getCalls());
+    assertEquals(1L, stats.getLatency(Phase.TOTAL).getCount());
+    assertTrue(stats.getErrors().isEmpty());
+    assertEquals(2L, metrics.getSnapshot().get(0).getCalls());
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link CodecRegistry}
+ */
+public class CodecRegistryTest extends TestCase {
+
+  public void testVersionedGsonCached() {
+    CodecRegistry registry = new CodecRegistry();
+    assertSame(registry.getGson(1.0), registry.getGson(1.0));
+    assertNotSame(registry.getGson(1.0), registry.getGson(2.0));
+  }
+
+  public void testDefaultShared() {
+    assertSame(CodecRegistry.getDefault(), CodecRegistry.getDefault());
+    assertSame(CodecRegistry.getDefault().getGson(1.0), CodecRegistry.getDefault().getGson(1.0));
+  }
+}
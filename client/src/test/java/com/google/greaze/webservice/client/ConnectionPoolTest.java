@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.rest.client.fixtures.HttpUrlConnectionMock;
+
+/**
+ * Unit tests for {@link ConnectionPool}
+ */
+public class ConnectionPoolTest extends TestCase {
+
+  private TransportFake transport;
+  private URL url;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    transport = new TransportFake();
+    url = new URL("http://localhost/resource");
+  }
+
+  public void testReuse() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder().setTransport(transport).build();
+    HttpURLConnection conn = pool.openConnection(url);
+    assertEquals(1, pool.getStats().getLeased());
+    pool.releaseConnection(conn, true);
+    ConnectionPool.Stats stats = pool.getStats();
+    assertEquals(0, stats.getLeased());
+    assertEquals(1, stats.getKeptForReuse());
+    assertEquals(Boolean.TRUE, transport.releases.get(0));
+
+    conn = pool.openConnection(url);
+    stats = pool.getStats();
+    assertEquals(1, stats.getLeasesWithoutIdle());
+    assertEquals(1, stats.getLeasesFromIdle());
+    assertEquals(0, stats.getKeptForReuse());
+    pool.releaseConnection(conn, false);
+    assertEquals(1, pool.getStats().getReleasesDiscarded());
+    assertEquals(Boolean.FALSE, transport.releases.get(1));
+  }
+
+  public void testMaxIdleConnections() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder()
+      .setTransport(transport)
+      .setMaxIdleConnectionsPerHost(1)
+      .build();
+    HttpURLConnection conn1 = pool.openConnection(url);
+    HttpURLConnection conn2 = pool.openConnection(url);
+    pool.releaseConnection(conn1, true);
+    pool.releaseConnection(conn2, true);
+    ConnectionPool.Stats stats = pool.getStats();
+    assertEquals(1, stats.getKeptForReuse());
+    assertEquals(1, stats.getReleasesDiscarded());
+    assertEquals(Boolean.FALSE, transport.releases.get(1));
+  }
+
+  public void testIdleEviction() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder()
+      .setTransport(transport)
+      .setIdleTimeoutMillis(0)
+      .build();
+    pool.releaseConnection(pool.openConnection(url), true);
+    Thread.sleep(5);
+    pool.evictIdleConnections();
+    ConnectionPool.Stats stats = pool.getStats();
+    assertEquals(0, stats.getKeptForReuse());
+    assertEquals(1, stats.getReleasesDiscarded());
+  }
+
+  public void testMaxConnectionsPerHost() throws Exception {
+    final ConnectionPool pool = new ConnectionPool.Builder()
+      .setTransport(transport)
+      .setMaxConnectionsPerHost(1)
+      .build();
+    HttpURLConnection conn = pool.openConnection(url);
+    final List<HttpURLConnection> leased = new ArrayList<HttpURLConnection>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          leased.add(pool.openConnection(url));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    thread.start();
+    thread.join(100);
+    assertTrue(thread.isAlive());
+    pool.releaseConnection(conn, true);
+    thread.join();
+    assertEquals(1, leased.size());
+    assertEquals(1, pool.getStats().getLeased());
+  }
+
+  public void testReleaseAfterRedirect() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder()
+      .setTransport(transport)
+      .setMaxConnectionsPerHost(1)
+      .setLeaseTimeoutMillis(0L)
+      .build();
+    // The fake connections report http://localhost as their URL, as if they were redirected
+    URL other = new URL("http://example.com:8080/resource");
+    for (int i = 0; i < 2; ++i) {
+      HttpURLConnection conn = pool.openConnection(other);
+      assertEquals(1, pool.getStats().getLeased());
+      pool.releaseConnection(conn, true);
+      assertEquals(0, pool.getStats().getLeased());
+    }
+    assertEquals(1, pool.getStats().getLeasesFromIdle());
+  }
+
+  public void testClientLeasesFromPoolOfServerConfig() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder().setTransport(transport).build();
+    ServerConfig config = new ServerConfig.Builder("http://localhost")
+      .setConnectionPool(pool)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    HttpURLConnection conn = client.openConnection(url);
+    assertEquals(1, pool.getStats().getLeased());
+    client.releaseConnection(conn, true);
+    assertEquals(0, pool.getStats().getLeased());
+    assertEquals(1, pool.getStats().getKeptForReuse());
+  }
+
+  public void testLeaseTimeout() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder()
+      .setTransport(transport)
+      .setMaxConnectionsPerHost(1)
+      .setLeaseTimeoutMillis(10L)
+      .build();
+    pool.openConnection(url);
+    try {
+      pool.openConnection(url);
+      fail();
+    } catch (SocketTimeoutException expected) {
+    }
+  }
+
+  public void testLeaseBoundedByDeadline() throws Exception {
+    ConnectionPool pool = new ConnectionPool.Builder()
+      .setTransport(transport)
+      .setMaxConnectionsPerHost(1)
+      .setLeaseTimeoutMillis(60000L)
+      .build();
+    pool.openConnection(url);
+    Deadline previous = Deadline.setCurrent(Deadline.after(10L, TimeUnit.MILLISECONDS));
+    long start = System.nanoTime();
+    try {
+      pool.openConnection(url);
+      fail();
+    } catch (SocketTimeoutException expected) {
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    } finally {
+      Deadline.setCurrent(previous);
+    }
+  }
+
+  private static final class TransportFake implements ClientTransport {
+    final List<Boolean> releases = new ArrayList<Boolean>();
+
+    @Override
+    public HttpURLConnection openConnection(URL url) {
+      return new HttpUrlConnectionMock();
+    }
+
+    @Override
+    public void releaseConnection(HttpURLConnection conn, boolean reusable) {
+      releases.add(reusable);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Unit tests for {@link Hedger} and {@link LatencyHistogram}
+ */
+public class HedgerTest extends TestCase {
+
+  private static final CallPath CALL_PATH = new CallPath("/rest", 1D, "/order", null);
+
+  public void testHistogramPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0L, histogram.getPercentile(99D, TimeUnit.MILLISECONDS));
+    for (int i = 1; i <= 100; ++i) {
+      histogram.record(i, TimeUnit.MILLISECONDS);
+    }
+    assertEquals(100L, histogram.getCount());
+    long p50 = histogram.getPercentile(50D, TimeUnit.MILLISECONDS);
+    assertTrue(p50 >= 50L && p50 <= 63L);
+    long p99 = histogram.getPercentile(99D, TimeUnit.MILLISECONDS);
+    assertTrue(p99 >= 99L && p99 <= 124L);
+  }
+
+  public void testHistogramBucketsAreContiguous() {
+    for (long micros = 0; micros < 100000L; ++micros) {
+      int index = LatencyHistogram.indexOf(micros);
+      assertTrue(micros <= LatencyHistogram.upperBoundOf(index));
+      if (index > 0) {
+        assertTrue(micros > LatencyHistogram.upperBoundOf(index - 1));
+      }
+    }
+  }
+
+  public void testNoHedgeWithoutEnoughSamples() {
+    Hedger hedger = new Hedger(new HedgingPolicy.Builder().setMinSamples(10).build());
+    assertEquals("ok", hedger.execute(CALL_PATH, new Value("ok")));
+    assertEquals(-1L, hedger.getHedgeDelayMicros(CALL_PATH));
+    assertEquals(0L, hedger.getHedgeCount());
+  }
+
+  public void testSlowCallIsHedged() throws Exception {
+    Hedger hedger = new Hedger(new HedgingPolicy.Builder()
+      .setMinSamples(1)
+      .setMinDelayMillis(1L)
+      .build());
+    hedger.getHistogram(CALL_PATH).record(1L, TimeUnit.MILLISECONDS);
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    String result = hedger.execute(CALL_PATH, new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        if (calls.incrementAndGet() == 1) {
+          try {
+            Thread.sleep(10000L);
+          } catch (InterruptedException e) {
+            cancelled.countDown();
+          }
+          return "slow";
+        }
+        return "fast";
+      }
+    });
+    assertEquals("fast", result);
+    assertEquals(1L, hedger.getHedgeCount());
+    assertEquals(1L, hedger.getHedgeWinCount());
+    assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+  }
+
+  public void testHedgeRateIsCapped() {
+    Hedger hedger = new Hedger(new HedgingPolicy.Builder()
+      .setMinSamples(1)
+      .setMinDelayMillis(0L)
+      .setMaxHedgeRatio(0D, 1)
+      .build());
+    for (int i = 0; i < 100; ++i) {
+      hedger.getHistogram(CALL_PATH).record(0L, TimeUnit.MILLISECONDS);
+    }
+    for (int i = 0; i < 3; ++i) {
+      hedger.execute(CALL_PATH, new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          Thread.sleep(20L);
+          return "ok";
+        }
+      });
+    }
+    assertEquals(1L, hedger.getHedgeCount());
+    assertEquals(2L, hedger.getThrottledCount());
+  }
+
+  public void testCallersFillingABoundedPoolDoNotDeadlock() throws Exception {
+    final Hedger hedger = new Hedger(new HedgingPolicy.Builder().build());
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 8; ++i) {
+        results.add(callers.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            return hedger.execute(CALL_PATH, new Callable<String>() {
+              @Override
+              public String call() throws Exception {
+                Thread.sleep(5L);
+                return "ok";
+              }
+            });
+          }
+        }));
+      }
+      for (Future<String> result : results) {
+        assertEquals("ok", result.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  public void testFailureIsRethrown() {
+    Hedger hedger = new Hedger(new HedgingPolicy.Builder().build());
+    try {
+      hedger.execute(CALL_PATH, new Callable<String>() {
+        @Override
+        public String call() {
+          throw new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE);
+        }
+      });
+      fail();
+    } catch (WebServiceSystemException expected) {
+      assertEquals(ErrorReason.SERVER_UNAVAILABLE, expected.getReason());
+    }
+  }
+
+  private static final class Value implements Callable<String> {
+    private final String value;
+    Value(String value) {
+      this.value = value;
+    }
+    @Override
+    public String call() {
+      return value;
+    }
+  }
+}
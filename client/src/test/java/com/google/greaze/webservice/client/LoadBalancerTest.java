@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Unit tests for the {@link LoadBalancer}s and endpoint ejection in {@link WebServiceClient}
+ */
+public class LoadBalancerTest extends TestCase {
+
+  public void testRoundRobin() {
+    List<Endpoint> endpoints = newEndpoints("a", "b", "c");
+    LoadBalancer balancer = new RoundRobinLoadBalancer();
+    for (int i = 0; i < 6; ++i) {
+      assertSame(endpoints.get(i % 3), balancer.select(endpoints));
+    }
+  }
+
+  public void testLeastOutstandingAvoidsBusyEndpoint() {
+    List<Endpoint> endpoints = newEndpoints("a", "b");
+    endpoints.get(0).begin();
+    LoadBalancer balancer = new LeastOutstandingLoadBalancer();
+    for (int i = 0; i < 20; ++i) {
+      assertSame(endpoints.get(1), balancer.select(endpoints));
+    }
+  }
+
+  public void testEwmaAvoidsSlowEndpoint() {
+    List<Endpoint> endpoints = newEndpoints("a", "b");
+    endpoints.get(0).recordSuccess(TimeUnit.MILLISECONDS.toNanos(100L));
+    endpoints.get(1).recordSuccess(TimeUnit.MILLISECONDS.toNanos(1L));
+    LoadBalancer balancer = new EwmaLoadBalancer();
+    for (int i = 0; i < 20; ++i) {
+      assertSame(endpoints.get(1), balancer.select(endpoints));
+    }
+  }
+
+  public void testFailingEndpointIsEjected() {
+    ServerConfig config = new ServerConfig.Builder("http://a")
+      .addEndpoint("http://b")
+      .setEjection(2, 60000L)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    Map<String, Integer> calls = new HashMap<String, Integer>();
+    for (int i = 0; i < 20; ++i) {
+      try {
+        client.execute(HttpMethod.GET, new CountingExchange(calls, "http://a"));
+      } catch (WebServiceSystemException expected) {
+        assertEquals(ErrorReason.LOCAL_NETWORK_FAILURE, expected.getReason());
+      }
+    }
+    assertEquals(Integer.valueOf(2), calls.get("http://a"));
+    assertEquals(Integer.valueOf(18), calls.get("http://b"));
+    Endpoint a = client.getEndpoints().get(0);
+    assertFalse(a.isAvailable());
+    assertEquals(1L, a.getEjectionCount());
+  }
+
+  public void testEndpointFailingWithUnexpectedExceptionIsEjected() {
+    ServerConfig config = new ServerConfig.Builder("http://a")
+      .addEndpoint("http://b")
+      .setEjection(2, 60000L)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    final Map<String, Integer> calls = new HashMap<String, Integer>();
+    WebServiceClient.Exchange<String> garbledOnA = new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        Integer count = calls.get(serviceBaseUrl);
+        calls.put(serviceBaseUrl, count == null ? 1 : count + 1);
+        if (serviceBaseUrl.equals("http://a")) {
+          throw new IllegalStateException("garbled body");
+        }
+        return serviceBaseUrl;
+      }
+    };
+    for (int i = 0; i < 20; ++i) {
+      try {
+        client.execute(HttpMethod.GET, garbledOnA);
+      } catch (IllegalStateException expected) {
+      }
+    }
+    assertEquals(Integer.valueOf(2), calls.get("http://a"));
+    assertFalse(client.getEndpoints().get(0).isAvailable());
+  }
+
+  public void testAllEndpointsEjectedStillServes() {
+    ServerConfig config = new ServerConfig.Builder("http://a")
+      .addEndpoint("http://b")
+      .setEjection(1, 60000L)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    Map<String, Integer> calls = new HashMap<String, Integer>();
+    for (int i = 0; i < 4; ++i) {
+      try {
+        client.execute(HttpMethod.GET, new CountingExchange(calls, "http://a", "http://b"));
+        fail();
+      } catch (WebServiceSystemException expected) {
+      }
+    }
+    assertEquals(Integer.valueOf(2), calls.get("http://a"));
+    assertEquals(Integer.valueOf(2), calls.get("http://b"));
+  }
+
+  private static List<Endpoint> newEndpoints(String... urls) {
+    List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    for (String url : urls) {
+      endpoints.add(new Endpoint(url));
+    }
+    return endpoints;
+  }
+
+  private static final class CountingExchange implements WebServiceClient.Exchange<String> {
+    private final Map<String, Integer> calls;
+    private final List<String> failing;
+
+    CountingExchange(Map<String, Integer> calls, String... failing) {
+      this.calls = calls;
+      this.failing = Arrays.asList(failing);
+    }
+
+    @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+      Integer count = calls.get(serviceBaseUrl);
+      calls.put(serviceBaseUrl, count == null ? 1 : count + 1);
+      if (failing.contains(serviceBaseUrl)) {
+        throw new WebServiceSystemException(ErrorReason.LOCAL_NETWORK_FAILURE);
+      }
+      return serviceBaseUrl;
+    }
+  }
+}
@@ -15,13 +15,18 @@
  */
 package com.google.greaze.webservice.client;
 
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
 import com.google.greaze.definition.ContentBodySpec;
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HeaderMapSpec;
 import com.google.greaze.definition.HttpMethod;
 import com.google.greaze.definition.UrlParams;
+import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.definition.webservice.RequestBody;
 import com.google.greaze.definition.webservice.RequestBodySpec;
 import com.google.greaze.definition.webservice.RequestSpec;
@@ -74,6 +79,80 @@ public class RequestSenderTest extends TestCase {
     }
   }
 
+  public void testContentLengthIsByteCount() throws Exception {
+    HeaderMapSpec requestHeaderSpec = new HeaderMapSpec.Builder().build();
+    HeaderMap requestHeaders = new HeaderMap.Builder(requestHeaderSpec).build();
+    RequestBodySpec requestBodySpec = new RequestBodySpec.Builder()
+      .setSimpleBody(String.class)
+      .build();
+    String body = "gr\u00e9ze \u20ac";
+    RequestBody requestBody = new RequestBody.Builder(requestBodySpec)
+      .setSimpleBody(body)
+      .build();
+    HttpUrlConnectionMock conn = new HttpUrlConnectionMock();
+    sender.send(conn, new WebServiceRequest(
+        HttpMethod.POST, requestHeaders, null, requestBody, null, false));
+    String expectedLength = String.valueOf(body.getBytes("UTF-8").length);
+    assertEquals(expectedLength, conn.getHeaders().get("Content-Length"));
+  }
+
+  public void testListBodyStreamed() {
+    RequestSender streamingSender = new RequestSender(new Gson(),
+        new ServerConfig.Builder("http://localhost").setChunkedStreamingMode(0).build());
+    HeaderMapSpec requestHeaderSpec = new HeaderMapSpec.Builder().build();
+    HeaderMap requestHeaders = new HeaderMap.Builder(requestHeaderSpec).build();
+    RequestBodySpec requestBodySpec = new RequestBodySpec.Builder()
+      .setListBody(Integer.class)
+      .build();
+    RequestBody requestBody = new RequestBody.Builder(requestBodySpec)
+      .addToListBody(1)
+      .addToListBody(2)
+      .build();
+    HttpUrlConnectionMock conn = new HttpUrlConnectionMock();
+    streamingSender.send(conn, new WebServiceRequest(
+        HttpMethod.POST, requestHeaders, null, requestBody, null, false));
+    assertNull(conn.getHeaders().get("Content-Length"));
+    assertEquals("[1,2]", conn.getBodyAsString());
+  }
+
+  public void testTimeoutsBoundedByDeadline() {
+    RequestSender timedSender = new RequestSender(new Gson(),
+        new ServerConfig.Builder("http://localhost").setTimeouts(1000, 60000).build());
+    HttpUrlConnectionMock conn = new HttpUrlConnectionMock();
+    timedSender.send(conn, newGetRequest());
+    assertEquals(1000, conn.getConnectTimeout());
+    assertEquals(60000, conn.getReadTimeout());
+    assertNull(conn.getHeaders().get(Deadline.HTTP_HEADER_NAME));
+
+    Deadline previous = Deadline.setCurrent(Deadline.after(5, TimeUnit.SECONDS));
+    try {
+      conn = new HttpUrlConnectionMock();
+      timedSender.send(conn, newGetRequest());
+      assertEquals(1000, conn.getConnectTimeout());
+      assertTrue(conn.getReadTimeout() > 0 && conn.getReadTimeout() <= 5000);
+      assertNotNull(conn.getHeaders().get(Deadline.HTTP_HEADER_NAME));
+    } finally {
+      Deadline.setCurrent(previous);
+    }
+  }
+
+  public void testExpiredDeadlineNotSent() {
+    Deadline previous = Deadline.setCurrent(Deadline.after(-1, TimeUnit.MILLISECONDS));
+    try {
+      sender.send(new HttpUrlConnectionMock(), newGetRequest());
+      fail();
+    } catch (WebServiceSystemException expected) {
+      assertEquals(ErrorReason.DEADLINE_EXCEEDED, expected.getReason());
+    } finally {
+      Deadline.setCurrent(previous);
+    }
+  }
+
+  private static WebServiceRequest newGetRequest() {
+    HeaderMap requestHeaders = new HeaderMap.Builder(new HeaderMapSpec.Builder().build()).build();
+    return new WebServiceRequest(HttpMethod.GET, requestHeaders, null, null, null, false);
+  }
+
   public void testStringAndPrimitiveValueHeader() {
     HeaderMapSpec requestHeaderSpec = new HeaderMapSpec.Builder()
       .put("X-Name", String.class)
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Unit tests for {@link ResponseFuture}
+ */
+public class ResponseFutureTest extends TestCase {
+
+  public void testCallbackOnSuccess() throws Exception {
+    ResponseFuture<String> future = ResponseFuture.submit(new Callable<String>() {
+      @Override
+      public String call() {
+        return "hello";
+      }
+    }, ClientExecutors.getDefault());
+    CallbackRecorder<String> callback = new CallbackRecorder<String>();
+    future.addCallback(callback);
+    assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+    assertEquals("hello", callback.result.get());
+    assertEquals("hello", future.get());
+  }
+
+  public void testCallbackOnError() throws Exception {
+    ResponseFuture<String> future = ResponseFuture.submit(new Callable<String>() {
+      @Override
+      public String call() {
+        throw new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE);
+      }
+    }, ClientExecutors.getDefault());
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof WebServiceSystemException);
+    }
+    CallbackRecorder<String> callback = new CallbackRecorder<String>();
+    future.addCallback(callback);
+    assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+    assertTrue(callback.error.get() instanceof WebServiceSystemException);
+  }
+
+  public void testCancelBeforeStart() throws Exception {
+    final AtomicReference<Runnable> pending = new AtomicReference<Runnable>();
+    ResponseFuture<String> future = ResponseFuture.submit(new Callable<String>() {
+      @Override
+      public String call() {
+        fail();
+        return null;
+      }
+    }, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        pending.set(command);
+      }
+    });
+    CallbackRecorder<String> callback = new CallbackRecorder<String>();
+    future.addCallback(callback);
+    assertTrue(future.cancel(true));
+    assertTrue(callback.error.get() instanceof CancellationException);
+    pending.get().run();
+    assertTrue(future.isCancelled());
+  }
+
+  public void testFullQueueRejectsCall() throws Exception {
+    ThreadPoolExecutor pool = ClientExecutors.newDaemonPool(1, 1, "test");
+    final CountDownLatch release = new CountDownLatch(1);
+    Callable<String> blocked = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        release.await(10, TimeUnit.SECONDS);
+        return "done";
+      }
+    };
+    try {
+      ResponseFuture<String> running = ResponseFuture.submit(blocked, pool);
+      ResponseFuture<String> queued = ResponseFuture.submit(blocked, pool);
+      ResponseFuture<String> rejected = ResponseFuture.submit(blocked, pool);
+      try {
+        rejected.get(1, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException expected) {
+        WebServiceSystemException cause = (WebServiceSystemException) expected.getCause();
+        assertEquals(ErrorReason.UNEXPECTED_RETRYABLE_ERROR, cause.getReason());
+      }
+      release.countDown();
+      assertEquals("done", running.get(10, TimeUnit.SECONDS));
+      assertEquals("done", queued.get(10, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static final class CallbackRecorder<T> implements FutureCallback<T> {
+    final AtomicReference<T> result = new AtomicReference<T>();
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final CountDownLatch done = new CountDownLatch(1);
+
+    @Override
+    public void handleResult(T value) {
+      result.set(value);
+      done.countDown();
+    }
+
+    @Override
+    public void handleError(Throwable t) {
+      error.set(t);
+      done.countDown();
+    }
+  }
+}
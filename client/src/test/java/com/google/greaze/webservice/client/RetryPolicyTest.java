@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HeaderMapSpec;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.webservice.ResponseBodySpec;
+import com.google.greaze.definition.webservice.ResponseSpec;
+import com.google.greaze.definition.webservice.WebServiceResponse;
+import com.google.gson.Gson;
+
+/**
+ * Unit tests for {@link RetryPolicy}, {@link RetryBudget} and the retry loop of
+ * {@link WebServiceClient}
+ */
+public class RetryPolicyTest extends TestCase {
+
+  private static final WebServiceSystemException UNAVAILABLE =
+    new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE);
+
+  public void testOnlyIdempotentMethodsAndRetryableErrorsRetried() {
+    RetryPolicy policy = new RetryPolicy.Builder().build();
+    assertTrue(policy.shouldRetry(HttpMethod.GET, UNAVAILABLE, 1));
+    assertTrue(policy.shouldRetry(HttpMethod.DELETE, UNAVAILABLE, 2));
+    assertFalse(policy.shouldRetry(HttpMethod.GET, UNAVAILABLE, 3));
+    assertFalse(policy.shouldRetry(HttpMethod.POST, UNAVAILABLE, 1));
+    WebServiceSystemException badRequest = new WebServiceSystemException(ErrorReason.BAD_REQUEST);
+    assertFalse(policy.shouldRetry(HttpMethod.GET, badRequest, 1));
+  }
+
+  public void testBackoffIsBoundedAndGrows() {
+    RetryPolicy policy = new RetryPolicy.Builder().setBackoff(10L, 40L).build();
+    for (int i = 0; i < 100; ++i) {
+      assertTrue(policy.getBackoffMillis(1) < 10L);
+      assertTrue(policy.getBackoffMillis(2) < 20L);
+      assertTrue(policy.getBackoffMillis(10) < 40L);
+    }
+  }
+
+  public void testBudgetCapsRetries() {
+    RetryBudget budget = new RetryBudget(0.5D, 2);
+    assertTrue(budget.tryWithdraw());
+    assertTrue(budget.tryWithdraw());
+    assertFalse(budget.tryWithdraw());
+    budget.deposit();
+    assertFalse(budget.tryWithdraw());
+    budget.deposit();
+    assertTrue(budget.tryWithdraw());
+    assertEquals(3L, budget.getRetryCount());
+    assertEquals(2L, budget.getRejectedCount());
+  }
+
+  public void testClientRetriesUntilSuccess() {
+    WebServiceClient client = newClient(new RetryPolicy.Builder().setBackoff(0L, 0L).build());
+    final AtomicInteger attempts = new AtomicInteger();
+    String result = client.execute(HttpMethod.GET, new WebServiceClient.Exchange<String>() {
+      @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        if (attempts.incrementAndGet() < 3) {
+          throw UNAVAILABLE;
+        }
+        return "ok";
+      }
+    });
+    assertEquals("ok", result);
+    assertEquals(3, attempts.get());
+    assertEquals(2L, client.getRetryBudget().getRetryCount());
+  }
+
+  public void testClientDoesNotRetryPost() {
+    WebServiceClient client = newClient(new RetryPolicy.Builder().setBackoff(0L, 0L).build());
+    AtomicInteger attempts = new AtomicInteger();
+    try {
+      client.execute(HttpMethod.POST, new FailingExchange(attempts));
+      fail();
+    } catch (WebServiceSystemException expected) {
+    }
+    assertEquals(1, attempts.get());
+  }
+
+  public void testClientStopsWhenBudgetExhausted() {
+    RetryPolicy policy = new RetryPolicy.Builder()
+      .setBackoff(0L, 0L)
+      .setMaxAttempts(10)
+      .setBudget(0D, 2)
+      .build();
+    WebServiceClient client = newClient(policy);
+    AtomicInteger attempts = new AtomicInteger();
+    try {
+      client.execute(HttpMethod.GET, new FailingExchange(attempts));
+      fail();
+    } catch (WebServiceSystemException expected) {
+    }
+    assertEquals(3, attempts.get());
+    assertEquals(1L, client.getRetryBudget().getRejectedCount());
+  }
+
+  public void testClientErrorIsNotRetriedOrCountedAsServerFailure() {
+    WebServiceClient client = new WebServiceClient(new ServerConfig.Builder("http://localhost")
+      .setRetryPolicy(new RetryPolicy.Builder().setBackoff(0L, 0L).build())
+      .setCircuitBreakerPolicy(new CircuitBreakerPolicy.Builder()
+        .setWindow(1, 1)
+        .setOpenMillis(60000L)
+        .build())
+      .build());
+    final ResponseReceiver receiver = new ResponseReceiver(new Gson(), new ResponseSpec(
+        new HeaderMapSpec.Builder().build(), new ResponseBodySpec.Builder().build()));
+    final AtomicInteger attempts = new AtomicInteger();
+    WebServiceClient.Exchange<WebServiceResponse> badRequest =
+        new WebServiceClient.Exchange<WebServiceResponse>() {
+      @Override public WebServiceResponse run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+        attempts.incrementAndGet();
+        return receiver.receive(new ErrorConnection(
+            HttpURLConnection.HTTP_BAD_REQUEST, ErrorReason.PRECONDITION_FAILED, "bad id"));
+      }
+    };
+    CallPath callPath = new CallPath("/rest", 1D, "/order", null);
+    for (int i = 0; i < 2; ++i) {
+      try {
+        client.execute(callPath, HttpMethod.GET, null, badRequest);
+        fail();
+      } catch (WebServiceSystemException expected) {
+        assertEquals(ErrorReason.PRECONDITION_FAILED, expected.getReason());
+        assertTrue(expected.getMessage().contains("bad id"));
+      }
+    }
+    assertEquals(2, attempts.get());
+    assertEquals(0L, client.getRetryBudget().getRetryCount());
+    CircuitBreaker breaker = client.getCircuitBreakers().iterator().next();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertEquals(0, breaker.getStats().getFailureRatePercent());
+    assertTrue(client.getEndpoints().get(0).isAvailable());
+  }
+
+  private static WebServiceClient newClient(RetryPolicy policy) {
+    return new WebServiceClient(new ServerConfig.Builder("http://localhost")
+      .setRetryPolicy(policy)
+      .build());
+  }
+
+  /** A connection that fails like {@link HttpURLConnection} does for an error response code */
+  private static final class ErrorConnection extends HttpURLConnection {
+    private final int code;
+    private final ErrorReason reason;
+    private final String body;
+    ErrorConnection(int code, ErrorReason reason, String body) {
+      super(null);
+      this.code = code;
+      this.reason = reason;
+      this.body = body;
+    }
+    @Override public int getResponseCode() {
+      return code;
+    }
+    @Override public String getHeaderField(String name) {
+      return ErrorReason.HTTP_RESPONSE_HEADER_NAME.equals(name) ? reason.name() : null;
+    }
+    @Override public InputStream getInputStream() throws IOException {
+      throw new IOException("Server returned HTTP response code: " + code);
+    }
+    @Override public InputStream getErrorStream() {
+      return new ByteArrayInputStream(body.getBytes());
+    }
+    @Override public void connect() {
+    }
+    @Override public void disconnect() {
+    }
+    @Override public boolean usingProxy() {
+      return false;
+    }
+  }
+
+  private static final class FailingExchange implements WebServiceClient.Exchange<String> {
+    private final AtomicInteger attempts;
+    FailingExchange(AtomicInteger attempts) {
+      this.attempts = attempts;
+    }
+    @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+      attempts.incrementAndGet();
+      throw UNAVAILABLE;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link RingBufferQueue}
+ */
+public class RingBufferQueueTest extends TestCase {
+
+  public void testFifoAndCapacity() {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(3);
+    assertEquals(4, queue.remainingCapacity());
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(4));
+    assertEquals(4, queue.size());
+    assertEquals(0, queue.peek().intValue());
+    for (int i = 0; i < 4; ++i) {
+      assertEquals(i, queue.poll().intValue());
+    }
+    assertNull(queue.poll());
+    assertTrue(queue.offer(5));
+    assertEquals(5, queue.poll().intValue());
+  }
+
+  public void testCollectionViewsAndRemove() {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4);
+    for (int i = 1; i <= 4; ++i) {
+      queue.offer(i);
+    }
+    assertTrue(queue.contains(3));
+    assertFalse(queue.contains(5));
+    assertTrue(Arrays.equals(new Object[] {1, 2, 3, 4}, queue.toArray()));
+    assertTrue(queue.remove(Integer.valueOf(1)));
+    assertFalse(queue.remove(Integer.valueOf(1)));
+    assertEquals(2, queue.peek().intValue());
+    Iterator<Integer> it = queue.iterator();
+    assertEquals(2, it.next().intValue());
+    assertEquals(3, it.next().intValue());
+    it.remove();
+    assertFalse(queue.contains(3));
+    assertEquals(2, queue.poll().intValue());
+    assertEquals(4, queue.poll().intValue());
+    assertNull(queue.poll());
+  }
+
+  public void testTimedPollOnEmpty() throws Exception {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(2);
+    assertNull(queue.poll(5, TimeUnit.MILLISECONDS));
+  }
+
+  public void testConcurrentProducersAndConsumers() throws Exception {
+    final RingBufferQueue<Long> queue = new RingBufferQueue<Long>(16);
+    final int producers = 4;
+    final int perProducer = 10000;
+    final AtomicLong sum = new AtomicLong();
+    final CountDownLatch consumed = new CountDownLatch(producers * perProducer);
+    for (int i = 0; i < 2; ++i) {
+      Thread consumer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              sum.addAndGet(queue.take());
+              consumed.countDown();
+            }
+          } catch (InterruptedException e) {
+            // exit
+          }
+        }
+      };
+      consumer.setDaemon(true);
+      consumer.start();
+    }
+    for (int i = 0; i < producers; ++i) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (long j = 1; j <= perProducer; ++j) {
+              queue.put(j);
+            }
+          } catch (InterruptedException e) {
+            // exit
+          }
+        }
+      }.start();
+    }
+    assertTrue(consumed.await(30, TimeUnit.SECONDS));
+    long expected = producers * ((long) perProducer * (perProducer + 1) / 2);
+    assertEquals(expected, sum.get());
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.HttpMethod;
+
+/**
+ * Unit tests for {@link ShardRing} and sharded routing in {@link WebServiceClient}
+ */
+public class ShardRingTest extends TestCase {
+
+  public void testKeysSpreadEvenly() {
+    ShardRing ring = new ShardRing(newEndpoints(4), 160);
+    Map<Endpoint, Integer> counts = new HashMap<Endpoint, Integer>();
+    int keys = 40000;
+    for (int i = 0; i < keys; ++i) {
+      Endpoint endpoint = ring.get("id" + i);
+      Integer count = counts.get(endpoint);
+      counts.put(endpoint, count == null ? 1 : count + 1);
+    }
+    assertEquals(4, counts.size());
+    for (int count : counts.values()) {
+      assertTrue("count: " + count, count > keys / 4 * 0.75 && count < keys / 4 * 1.25);
+    }
+  }
+
+  public void testAddingShardOnlyMovesItsKeys() {
+    List<Endpoint> endpoints = newEndpoints(4);
+    ShardRing before = new ShardRing(endpoints, 160);
+    List<Endpoint> grown = new ArrayList<Endpoint>(endpoints);
+    Endpoint added = new Endpoint("http://shard4");
+    grown.add(added);
+    ShardRing after = new ShardRing(grown, 160);
+    for (int i = 0; i < 10000; ++i) {
+      String key = "id" + i;
+      Endpoint owner = after.get(key);
+      if (owner != added) {
+        assertSame(before.get(key), owner);
+      }
+    }
+  }
+
+  public void testClientRoutesByShardKey() {
+    ServerConfig config = new ServerConfig.Builder("http://shard0")
+      .addEndpoint("http://shard1")
+      .addEndpoint("http://shard2")
+      .setSharding(100)
+      .build();
+    WebServiceClient client = new WebServiceClient(config);
+    assertTrue(client.isSharded());
+    for (int i = 0; i < 100; ++i) {
+      String key = "id" + i;
+      String baseUrl = client.execute(HttpMethod.GET, key, new WebServiceClient.Exchange<String>() {
+        @Override public String run(String serviceBaseUrl, ClientMetrics.Timer timer) {
+          return serviceBaseUrl;
+        }
+      });
+      assertEquals(client.getShard(key).getBaseUrl(), baseUrl);
+    }
+  }
+
+  private static List<Endpoint> newEndpoints(int count) {
+    List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    for (int i = 0; i < count; ++i) {
+      endpoints.add(new Endpoint("http://shard" + i));
+    }
+    return endpoints;
+  }
+}
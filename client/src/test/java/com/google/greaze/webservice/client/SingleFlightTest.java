@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Unit tests for {@link SingleFlight}
+ */
+public class SingleFlightTest extends TestCase {
+
+  public void testConcurrentCallsCoalesced() throws Exception {
+    final SingleFlight singleFlight = new SingleFlight();
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callable<String> call = new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        calls.incrementAndGet();
+        release.await();
+        return "value";
+      }
+    };
+    int threads = 5;
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicInteger results = new AtomicInteger();
+    for (int i = 0; i < threads; ++i) {
+      new Thread() {
+        @Override
+        public void run() {
+          if ("value".equals(singleFlight.execute("key", call))) {
+            results.incrementAndGet();
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    while (singleFlight.getCoalescedCount() < threads - 1) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(1, calls.get());
+    assertEquals(threads, results.get());
+    assertEquals(0, singleFlight.getInFlightCount());
+  }
+
+  public void testSequentialCallsNotCoalesced() {
+    SingleFlight singleFlight = new SingleFlight();
+    final AtomicInteger calls = new AtomicInteger();
+    Callable<Integer> call = new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        return calls.incrementAndGet();
+      }
+    };
+    assertEquals(1, singleFlight.execute("key", call).intValue());
+    assertEquals(2, singleFlight.execute("key", call).intValue());
+    assertEquals(0, singleFlight.getCoalescedCount());
+  }
+
+  public void testErrorPropagated() {
+    SingleFlight singleFlight = new SingleFlight();
+    try {
+      singleFlight.execute("key", new Callable<String>() {
+        @Override
+        public String call() {
+          throw new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE);
+        }
+      });
+      fail();
+    } catch (WebServiceSystemException expected) {
+      assertEquals(ErrorReason.SERVER_UNAVAILABLE, expected.getReason());
+    }
+    assertEquals(0, singleFlight.getInFlightCount());
+  }
+}
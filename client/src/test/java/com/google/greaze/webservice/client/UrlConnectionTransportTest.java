@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link UrlConnectionTransport}
+ */
+public class UrlConnectionTransportTest extends TestCase {
+
+  public void testDrainedConnectionIsKept() {
+    StreamConnection conn = new StreamConnection(new ByteArrayInputStream(new byte[100]));
+    new UrlConnectionTransport().releaseConnection(conn, true);
+    assertFalse(conn.disconnected);
+  }
+
+  public void testBrokenConnectionIsDisconnected() {
+    StreamConnection conn = new StreamConnection(new InputStream() {
+      @Override public int read() throws IOException {
+        throw new IOException("Connection reset");
+      }
+    });
+    new UrlConnectionTransport().releaseConnection(conn, true);
+    assertTrue(conn.disconnected);
+  }
+
+  public void testOversizedResponseIsDisconnected() {
+    StreamConnection conn = new StreamConnection(new ByteArrayInputStream(new byte[100000]));
+    new UrlConnectionTransport().releaseConnection(conn, true);
+    assertTrue(conn.disconnected);
+  }
+
+  private static final class StreamConnection extends HttpURLConnection {
+    private final InputStream in;
+    boolean disconnected;
+    StreamConnection(InputStream in) {
+      super(null);
+      this.in = in;
+    }
+    @Override public int getResponseCode() {
+      return HTTP_OK;
+    }
+    @Override public InputStream getInputStream() {
+      return in;
+    }
+    @Override public void connect() {
+    }
+    @Override public void disconnect() {
+      disconnected = true;
+    }
+    @Override public boolean usingProxy() {
+      return false;
+    }
+  }
+}
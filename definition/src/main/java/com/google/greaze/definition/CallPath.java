@@ -116,7 +116,9 @@ public final class CallPath {
   @Override
   public int hashCode() {
     int hash = basePath == null ? 0 : basePath.hashCode();
-    hash += servicePath == null ? 0 : 3*basePath.hashCode();
+    hash += servicePath == null ? 0 : 3*servicePath.hashCode();
+    long versionBits = Double.doubleToLongBits(version);
+    hash = 31*hash + (int) (versionBits ^ (versionBits >>> 32));
     return hash;
   }
 
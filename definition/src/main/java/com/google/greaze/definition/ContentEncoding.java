@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An enum of HTTP content encodings supported by Greaze clients and servers.
+ */
+public enum ContentEncoding {
+  GZIP("gzip") {
+    @Override
+    public InputStream decode(InputStream in) throws IOException {
+      return new GZIPInputStream(in);
+    }
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+      return new GZIPOutputStream(out);
+    }
+  },
+  DEFLATE("deflate") {
+    @Override
+    public InputStream decode(InputStream in) {
+      return new InflaterInputStream(in);
+    }
+    @Override
+    public OutputStream encode(OutputStream out) {
+      return new DeflaterOutputStream(out);
+    }
+  },
+  IDENTITY("identity") {
+    @Override
+    public InputStream decode(InputStream in) {
+      return in;
+    }
+    @Override
+    public OutputStream encode(OutputStream out) {
+      return out;
+    }
+  };
+
+  public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+  public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+  /** Value of the Accept-Encoding header listing all the supported encodings */
+  public static final String ACCEPT_ENCODING_VALUE = "gzip, deflate";
+
+  private final String value;
+
+  private ContentEncoding(String value) {
+    this.value = value;
+  }
+
+  /**
+   * @return the value used for this encoding in the HTTP headers
+   */
+  public String getHeaderValue() {
+    return value;
+  }
+
+  /**
+   * Wraps the stream so that the data read from it is decoded with this encoding
+   */
+  public abstract InputStream decode(InputStream in) throws IOException;
+
+  /**
+   * Wraps the stream so that the data written to it is encoded with this encoding. Closing the
+   * returned stream finishes the encoding and closes out as well.
+   */
+  public abstract OutputStream encode(OutputStream out) throws IOException;
+
+  /**
+   * @param contentEncoding value of the Content-Encoding header. Can be null.
+   * @return the matching encoding, {@link #IDENTITY} if the header was absent, or null if the
+   *   encoding is not supported
+   */
+  public static ContentEncoding fromHeader(String contentEncoding) {
+    if (contentEncoding == null) {
+      return IDENTITY;
+    }
+    String trimmed = contentEncoding.trim();
+    if (trimmed.length() == 0) {
+      return IDENTITY;
+    }
+    for (ContentEncoding encoding : values()) {
+      if (encoding.value.equalsIgnoreCase(trimmed)) {
+        return encoding;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Picks the encoding for a response based on the Accept-Encoding header of the request.
+   * gzip is preferred over deflate. Encodings with a quality value of 0 are skipped.
+   *
+   * @param acceptEncoding value of the Accept-Encoding header. Can be null.
+   */
+  public static ContentEncoding negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return IDENTITY;
+    }
+    boolean gzip = false;
+    boolean deflate = false;
+    for (String token : acceptEncoding.split(",")) {
+      String coding = token;
+      int paramsStart = token.indexOf(';');
+      if (paramsStart != -1) {
+        coding = token.substring(0, paramsStart);
+        if (isZeroQuality(token.substring(paramsStart + 1))) {
+          continue;
+        }
+      }
+      coding = coding.trim();
+      if (coding.equalsIgnoreCase(GZIP.value) || coding.equals("*")) {
+        gzip = true;
+      } else if (coding.equalsIgnoreCase(DEFLATE.value)) {
+        deflate = true;
+      }
+    }
+    return gzip ? GZIP : deflate ? DEFLATE : IDENTITY;
+  }
+
+  private static boolean isZeroQuality(String params) {
+    for (String param : params.split(";")) {
+      param = param.trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2).trim()) <= 0D;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+}
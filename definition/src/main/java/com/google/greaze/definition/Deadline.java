@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time after which the caller of a Web service is no longer interested in the result.
+ * A deadline is set for the current thread with {@link #setCurrent(Deadline)}. Greaze clients
+ * bound their socket timeouts by it, stop retrying once it passes, and send it to the server in
+ * the {@link #HTTP_HEADER_NAME} header. Greaze servers reject requests that arrive after their
+ * deadline, and make the deadline current while servicing the others so that it propagates to
+ * any downstream calls.
+ *
+ * <p>On the wire, the deadline is the absolute time in milliseconds since the epoch. This lets
+ * the server detect requests that waited too long in a queue before reaching it, but relies on
+ * the clocks of the client and the server being reasonably synchronized.
+ */
+public final class Deadline {
+  public static final String HTTP_HEADER_NAME = "X-Greaze-Deadline";
+
+  private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+  private final long deadlineNanos;
+
+  private Deadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @return a deadline the specified duration from now
+   */
+  public static Deadline after(long duration, TimeUnit unit) {
+    return new Deadline(System.nanoTime() + unit.toNanos(duration));
+  }
+
+  /**
+   * @param epochMillis the deadline in milliseconds since the epoch
+   */
+  public static Deadline atEpochMillis(long epochMillis) {
+    return after(epochMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param headerValue value of the {@link #HTTP_HEADER_NAME} header, may be null
+   * @return the deadline, or null if the header is missing or malformed
+   */
+  public static Deadline fromHeaderValue(String headerValue) {
+    if (headerValue == null) {
+      return null;
+    }
+    try {
+      return atEpochMillis(Long.parseLong(headerValue.trim()));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the value to send in the {@link #HTTP_HEADER_NAME} header
+   */
+  public String toHeaderValue() {
+    return String.valueOf(System.currentTimeMillis() + getRemaining(TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * @return the time left before the deadline, negative if it has already passed
+   */
+  public long getRemaining(TimeUnit unit) {
+    return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  public boolean isExpired() {
+    return deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * @return whichever of this and other comes first. other may be null.
+   */
+  public Deadline min(Deadline other) {
+    return other == null || deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+  }
+
+  /**
+   * @return the deadline of the call the current thread is working on, or null if there is none
+   */
+  public static Deadline getCurrent() {
+    return current.get();
+  }
+
+  /**
+   * Makes the specified deadline current for this thread. Callers should restore the previous
+   * deadline in a finally block once done.
+   *
+   * @param deadline the new deadline, or null to clear it
+   * @return the previous deadline, may be null
+   */
+  public static Deadline setCurrent(Deadline deadline) {
+    Deadline previous = current.get();
+    if (deadline == null) {
+      current.remove();
+    } else {
+      current.set(deadline);
+    }
+    return previous;
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline in " + getRemaining(TimeUnit.MILLISECONDS) + "ms";
+  }
+}
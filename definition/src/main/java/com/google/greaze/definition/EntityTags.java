@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility methods for HTTP entity tags, used by Greaze clients and servers to revalidate
+ * cached resources with conditional GETs.
+ */
+public final class EntityTags {
+  public static final String ETAG_HEADER = "ETag";
+  public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * @return a strong entity tag (including the quotes) derived from a hash of the content
+   */
+  public static String fromContent(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+      StringBuilder sb = new StringBuilder(2 + 2 * digest.length).append('"');
+      for (byte b : digest) {
+        sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+      }
+      return sb.append('"').toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every JRE is required to support MD5
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Uses the weak comparison that the HTTP spec mandates for If-None-Match.
+   *
+   * @param ifNoneMatch value of the If-None-Match header, may be null
+   * @param etag current entity tag of the resource
+   * @return true if ifNoneMatch lists etag, or is <code>*</code>
+   */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null || etag == null) {
+      return false;
+    }
+    String current = stripWeak(etag.trim());
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || stripWeak(candidate).equals(current)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeak(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  private EntityTags() {
+  }
+}
@@ -40,7 +40,12 @@ public enum ErrorReason {
    * This error reason indicates that the local connection on the client side is
    * not working correctly. For example, a mobile phone client has lost all data connections.
    */
-  LOCAL_NETWORK_FAILURE(HttpURLConnection.HTTP_BAD_GATEWAY);
+  LOCAL_NETWORK_FAILURE(HttpURLConnection.HTTP_BAD_GATEWAY),
+  /**
+   * This error reason indicates that the {@link Deadline} of the call passed before it
+   * could complete. Retrying the call does not help since the caller has given up on it.
+   */
+  DEADLINE_EXCEEDED(HttpURLConnection.HTTP_GATEWAY_TIMEOUT);
 
   private final int responseCode;
   /**
@@ -65,6 +70,8 @@ public enum ErrorReason {
       return SERVER_MESSAGE_TO_USER;
     case HttpURLConnection.HTTP_BAD_GATEWAY:
       return LOCAL_NETWORK_FAILURE;
+    case HttpURLConnection.HTTP_GATEWAY_TIMEOUT:
+      return DEADLINE_EXCEEDED;
     default:
       return BAD_REQUEST;
     }
@@ -99,4 +106,13 @@ public enum ErrorReason {
     return this == UNEXPECTED_RETRYABLE_ERROR || this == SERVER_UNAVAILABLE
       || this == LOCAL_NETWORK_FAILURE; 
   }
+
+  /**
+   * @return true if this reason indicates that the server, or the network path to it, is not
+   *   healthy, as opposed to a problem with the request itself
+   */
+  public boolean isServerFailure() {
+    return this == LOCAL_NETWORK_FAILURE || this == SERVER_UNAVAILABLE
+      || this == UNEXPECTED_RETRYABLE_ERROR || this == UNEXPECTED_PERMANENT_ERROR;
+  }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition.internal.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * An {@link InputStream} that keeps a copy of the first few bytes read through it. Used to log
+ * what came over the wire without holding on to a full copy of the body.
+ */
+public final class BoundedTeeInputStream extends FilterInputStream {
+  private final ByteArrayOutputStream captured;
+  private final int limit;
+  private long total;
+
+  /**
+   * @param limit maximum number of bytes to keep
+   */
+  public BoundedTeeInputStream(InputStream in, int limit) {
+    super(in);
+    this.limit = limit;
+    this.captured = new ByteArrayOutputStream(Math.min(limit, 1024));
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      if (captured.size() < limit) {
+        captured.write(b);
+      }
+      ++total;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int count = super.read(b, off, len);
+    if (count > 0) {
+      int room = limit - captured.size();
+      if (room > 0) {
+        captured.write(b, off, Math.min(room, count));
+      }
+      total += count;
+    }
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // Read instead of skipping so that the skipped bytes are captured as well
+    byte[] buf = new byte[(int) Math.min(n, 2048)];
+    int count = read(buf, 0, buf.length);
+    return count < 0 ? 0 : count;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  /**
+   * @return the captured bytes decoded as UTF-8, with a marker at the end if the stream had
+   *   more bytes than were captured
+   */
+  public String getCaptured() {
+    try {
+      String str = captured.toString("UTF-8");
+      return total > captured.size() ? str + "...(" + total + " bytes)" : str;
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition.internal.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Access to virtual threads (JDK 21+) without a compile-time dependency on them, since this
+ * project still builds for older JDKs.
+ */
+public final class VirtualThreads {
+
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+  private static Method lookup() {
+    try {
+      return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (SecurityException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the running JDK supports virtual threads
+   */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Creates an executor that starts a new virtual thread for each task
+   *
+   * @throws UnsupportedOperationException if the running JDK does not support virtual threads
+   */
+  public static ExecutorService newThreadPerTaskExecutor() {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Virtual threads require JDK 21 or later");
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+    } catch (Exception e) {
+      throw new UnsupportedOperationException(e);
+    }
+  }
+
+  private VirtualThreads() {
+  }
+}
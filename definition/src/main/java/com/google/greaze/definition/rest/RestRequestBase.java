@@ -33,6 +33,13 @@ import java.lang.reflect.Type;
  */
 public class RestRequestBase<I extends ResourceId, R extends RestResourceBase<I, R>>
     extends WebServiceRequest {
+  /**
+   * URL parameter carrying a comma-separated list of ids for a batch GET, such as
+   * <code>/rest/order?ids=1,2,3</code>. The response body is a JSON array of the resources that
+   * exist, in the order of the ids.
+   */
+  public static final String IDS_URL_PARAM = "ids";
+
   private final I id;
 
   /**
@@ -46,6 +53,16 @@ public class RestRequestBase<I extends ResourceId, R extends RestResourceBase<I,
     this.id = resourceId;
   }
 
+  /**
+   * Use this constructor to reuse a body and spec that were built ahead of time, for example
+   * an empty body for GET and DELETE.
+   */
+  public RestRequestBase(HttpMethod method, HeaderMap requestHeaders, UrlParams urlParams,
+      I resourceId, RequestBody requestBody, RestRequestSpec requestSpec, boolean inlined) {
+    super(method, requestHeaders, urlParams, requestBody, requestSpec, inlined);
+    this.id = resourceId;
+  }
+
   private static<R> RequestBody createBody(R resource, Type resourceType) {
     RequestBodySpec spec = new RequestBodySpec(ContentBodyType.SIMPLE, null, resourceType);
     return new RequestBody.Builder(spec)
@@ -68,6 +68,22 @@ public class WebContext {
     }
   }
 
+  @Override
+  public int hashCode() {
+    return map.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof WebContext)) {
+      return false;
+    }
+    return map.equals(((WebContext) obj).map);
+  }
+
   @Override
   public String toString() {
     return map.toString();
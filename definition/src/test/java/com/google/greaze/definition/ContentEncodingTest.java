@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ContentEncoding}
+ */
+public class ContentEncodingTest extends TestCase {
+
+  public void testNegotiate() {
+    assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(null));
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate"));
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, GZIP"));
+    assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate"));
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+    assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("br"));
+  }
+
+  public void testFromHeader() {
+    assertEquals(ContentEncoding.IDENTITY, ContentEncoding.fromHeader(null));
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.fromHeader(" gzip "));
+    assertNull(ContentEncoding.fromHeader("br"));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link Deadline}
+ */
+public class DeadlineTest extends TestCase {
+
+  public void testExpiry() {
+    Deadline deadline = Deadline.after(1, TimeUnit.HOURS);
+    assertFalse(deadline.isExpired());
+    assertTrue(deadline.getRemaining(TimeUnit.MINUTES) >= 59);
+    Deadline expired = Deadline.after(-1, TimeUnit.MILLISECONDS);
+    assertTrue(expired.isExpired());
+    assertTrue(expired.getRemaining(TimeUnit.NANOSECONDS) < 0);
+    assertSame(expired, deadline.min(expired));
+    assertSame(expired, expired.min(deadline));
+    assertSame(deadline, deadline.min(null));
+  }
+
+  public void testHeaderValue() {
+    Deadline deadline = Deadline.after(10, TimeUnit.SECONDS);
+    Deadline parsed = Deadline.fromHeaderValue(deadline.toHeaderValue());
+    long remaining = parsed.getRemaining(TimeUnit.MILLISECONDS);
+    assertTrue(remaining > 9000 && remaining <= 10000);
+    String past = String.valueOf(System.currentTimeMillis() - 1000);
+    assertTrue(Deadline.fromHeaderValue(past).isExpired());
+    assertNull(Deadline.fromHeaderValue(null));
+    assertNull(Deadline.fromHeaderValue("soon"));
+  }
+
+  public void testCurrent() {
+    assertNull(Deadline.getCurrent());
+    Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+    assertNull(Deadline.setCurrent(deadline));
+    try {
+      assertSame(deadline, Deadline.getCurrent());
+    } finally {
+      assertSame(deadline, Deadline.setCurrent(null));
+    }
+    assertNull(Deadline.getCurrent());
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link EntityTags}
+ */
+public class EntityTagsTest extends TestCase {
+
+  public void testFromContent() throws Exception {
+    String etag = EntityTags.fromContent("{}".getBytes("UTF-8"));
+    assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    assertEquals(34, etag.length());
+    assertEquals(etag, EntityTags.fromContent("{}".getBytes("UTF-8")));
+    assertFalse(etag.equals(EntityTags.fromContent("[]".getBytes("UTF-8"))));
+  }
+
+  public void testMatches() {
+    assertTrue(EntityTags.matches("\"abc\"", "\"abc\""));
+    assertTrue(EntityTags.matches("\"x\", W/\"abc\"", "\"abc\""));
+    assertTrue(EntityTags.matches("*", "\"abc\""));
+    assertFalse(EntityTags.matches("\"abd\"", "\"abc\""));
+    assertFalse(EntityTags.matches(null, "\"abc\""));
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.definition.internal.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link BoundedTeeInputStream}
+ */
+public class BoundedTeeInputStreamTest extends TestCase {
+
+  public void testCapturesEverythingUnderLimit() throws Exception {
+    BoundedTeeInputStream in = new BoundedTeeInputStream(
+        new ByteArrayInputStream("{\"a\":1}".getBytes("UTF-8")), 100);
+    assertEquals("{\"a\":1}", readFully(in));
+    assertEquals("{\"a\":1}", in.getCaptured());
+  }
+
+  public void testCaptureIsBounded() throws Exception {
+    BoundedTeeInputStream in = new BoundedTeeInputStream(
+        new ByteArrayInputStream("0123456789".getBytes("UTF-8")), 4);
+    assertEquals("0123456789", readFully(in));
+    assertEquals("0123...(10 bytes)", in.getCaptured());
+  }
+
+  private static String readFully(BoundedTeeInputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Streams.copy(in, out, true, true);
+    return out.toString("UTF-8");
+  }
+}
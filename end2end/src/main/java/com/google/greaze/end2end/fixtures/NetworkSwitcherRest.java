@@ -17,6 +17,9 @@ package com.google.greaze.end2end.fixtures;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -27,29 +30,39 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.greaze.definition.fixtures.NetworkSwitcherPiped;
 import com.google.greaze.definition.rest.ResourceUrlPaths;
+import com.google.greaze.server.DispatchMode;
 import com.google.greaze.server.GreazeDispatcherServlet;
 import com.google.greaze.server.filters.GreazeFilterChain;
+import com.google.greaze.server.fixtures.AsyncContextFake;
 import com.google.greaze.server.fixtures.HttpServletRequestFake;
 import com.google.greaze.server.fixtures.HttpServletResponseFake;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 import com.google.inject.servlet.GuiceFilter;
 
 /**
- * {@link NetworkSwitcherPiped} for web requests. It uses Guice to service requests.
+ * {@link NetworkSwitcherPiped} for web requests. It uses Guice to service requests. The requests
+ * support asynchronous processing; a request started asynchronously is waited for until the
+ * server completes it.
  *
  * @author Inderjeet Singh
  */
 public class NetworkSwitcherRest extends NetworkSwitcherPiped {
   private static final GuiceFilter guice = new GuiceFilter();
+  private static final long ASYNC_TIMEOUT_SECONDS = 10L;
 
   protected final ResourceUrlPaths urlPaths;
   protected final FilterChain guiceFilterChain;
+  private final List<AsyncContextFake> asyncContexts = new CopyOnWriteArrayList<AsyncContextFake>();
 
   protected NetworkSwitcherRest(Injector injector, ResourceUrlPaths urlPaths) {
     this.urlPaths = urlPaths;
     GreazeFilterChain filters = injector.getInstance(GreazeFilterChain.class);
-    final GreazeDispatcherServlet dispatcher =
-        new GreazeDispatcherServlet(injector, urlPaths.getResourcePrefix(), filters);
+    DispatchMode dispatchMode =
+        injector.getInstance(Key.get(DispatchMode.class, Names.named("dispatch-mode")));
+    final GreazeDispatcherServlet dispatcher = new GreazeDispatcherServlet(
+        injector, urlPaths.getResourcePrefix(), filters, dispatchMode);
     this.guiceFilterChain = new FilterChain() {
       @Override
       public void doFilter(ServletRequest request, ServletResponse response) throws IOException,
@@ -65,7 +78,8 @@ public class NetworkSwitcherRest extends NetworkSwitcherPiped {
       .setResourceUrlPaths(conn.getURL(), urlPaths)
       .setRequestMethod(conn.getRequestMethod())
       .setHeaders(conn.getHeaders())
-      .setInputStream(conn.getForwardForInput());
+      .setInputStream(conn.getForwardForInput())
+      .setAsyncSupported(true);
     OutputStream reverseForOutput = conn.getReverseForOutput();
     HttpServletResponseFake res = new HttpServletResponseFake(reverseForOutput, conn);
     serviceRequest(req, res);
@@ -74,9 +88,35 @@ public class NetworkSwitcherRest extends NetworkSwitcherPiped {
   protected void serviceRequest(HttpServletRequest req, HttpServletResponse res) throws IOException {
     try {
       guice.doFilter(req, res, guiceFilterChain);
+      awaitCompletion(req);
       res.flushBuffer();
     } catch (ServletException e) {
       throw new IOException(e);
     }
   }
+
+  private void awaitCompletion(HttpServletRequest req) throws IOException {
+    AsyncContextFake asyncContext = req instanceof HttpServletRequestFake
+        ? ((HttpServletRequestFake) req).getAsyncContext() : null;
+    if (asyncContext == null) {
+      return;
+    }
+    asyncContexts.add(asyncContext);
+    try {
+      if (!asyncContext.awaitCompletion(ASYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        throw new IOException("Asynchronous request not completed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * @return the contexts of the requests that were started asynchronously, in the order they
+   *   were started
+   */
+  public List<AsyncContextFake> getAsyncContexts() {
+    return asyncContexts;
+  }
 }
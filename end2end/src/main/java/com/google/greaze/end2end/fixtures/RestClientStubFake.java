@@ -20,11 +20,11 @@ import java.net.URL;
 import java.util.Collection;
 
 import com.google.greaze.definition.CallPath;
-import com.google.greaze.definition.fixtures.NetworkSwitcher;
 import com.google.greaze.definition.rest.ResourceUrlPaths;
 import com.google.greaze.definition.rest.RestCallSpecMap;
 import com.google.greaze.rest.client.RestClientStub;
 import com.google.greaze.rest.server.ResponseBuilderMap;
+import com.google.greaze.server.DispatchMode;
 import com.google.greaze.server.filters.GreazeFilterChain;
 import com.google.greaze.server.inject.GreazeServerModule;
 import com.google.greaze.webservice.client.ServerConfig;
@@ -40,7 +40,7 @@ import com.google.inject.Module;
  */
 public class RestClientStubFake extends RestClientStub {
 
-  private final NetworkSwitcher networkSwitcher;
+  private final NetworkSwitcherRest networkSwitcher;
   private final ResourceUrlPaths urlPaths;
 
   /**
@@ -60,11 +60,24 @@ public class RestClientStubFake extends RestClientStub {
   }
 
   public RestClientStubFake(Injector injector, ResourceUrlPaths urlPaths) {
-    super(new ServerConfig(urlPaths.getResourceBaseUrl()));
+    this(injector, urlPaths, new ServerConfig(urlPaths.getResourceBaseUrl()));
+  }
+
+  /**
+   * @param serverConfig the configuration of the client. All of its endpoints are served by the
+   *   same fake server, regardless of their host.
+   */
+  public RestClientStubFake(Injector injector, ResourceUrlPaths urlPaths,
+      ServerConfig serverConfig) {
+    super(serverConfig);
     this.urlPaths = urlPaths;
     this.networkSwitcher = new NetworkSwitcherRest(injector, urlPaths);
   }
 
+  public NetworkSwitcherRest getNetworkSwitcher() {
+    return networkSwitcher;
+  }
+
   public String getServiceBaseUrl() {
     return urlPaths.getServletPathBaseUrl();
   }
@@ -74,11 +87,18 @@ public class RestClientStubFake extends RestClientStub {
     return networkSwitcher.get(url);
   }
 
-  private static Injector buildInjector(ResponseBuilderMap responseBuilders,
+  public static Injector buildInjector(ResponseBuilderMap responseBuilders,
       RestCallSpecMap restCallSpecMap, GsonBuilder serverGson, Collection<CallPath> servicePaths,
       ResourceUrlPaths urlPaths, GreazeFilterChain filters) {
-    GreazeServerModule gsm = new GreazeServerModule(
-        urlPaths.getServletPath(), servicePaths, urlPaths.getResourcePrefix());
+    return buildInjector(responseBuilders, restCallSpecMap, serverGson, servicePaths, urlPaths,
+        filters, DispatchMode.BLOCKING);
+  }
+
+  public static Injector buildInjector(ResponseBuilderMap responseBuilders,
+      RestCallSpecMap restCallSpecMap, GsonBuilder serverGson, Collection<CallPath> servicePaths,
+      ResourceUrlPaths urlPaths, GreazeFilterChain filters, DispatchMode dispatchMode) {
+    GreazeServerModule gsm = new GreazeServerModule(urlPaths.getServletPath(), servicePaths,
+        urlPaths.getResourcePrefix(), dispatchMode);
     Module module = new RestModuleBuilder()
       .setResponseBuilderMap(responseBuilders)
       .setRestCallSpecMap(restCallSpecMap)
@@ -22,6 +22,7 @@ import com.google.greaze.definition.CallPath;
 import com.google.greaze.definition.rest.RestCallSpecMap;
 import com.google.greaze.definition.rest.query.ResourceQuery;
 import com.google.greaze.rest.server.ResponseBuilderMap;
+import com.google.greaze.server.ServerCodecRegistry;
 import com.google.greaze.server.dispatcher.ResourceQueryDispatcher;
 import com.google.greaze.server.filters.GreazeFilterChain;
 import com.google.gson.Gson;
@@ -115,8 +116,9 @@ public class RestModuleBuilder {
 
       @RequestScoped
       @Provides
-      public ResourceQueryDispatcher getResourceQueryDispatcher(Provider<GsonBuilder> gsonProvider) {
-        return new ResourceQueryDispatcher(gsonProvider) {
+      public ResourceQueryDispatcher getResourceQueryDispatcher(
+          Provider<GsonBuilder> gsonProvider, ServerCodecRegistry codecs) {
+        return new ResourceQueryDispatcher(gsonProvider, codecs) {
           public void service(HttpServletRequest req, HttpServletResponse res, String queryName,
               CallPath callPath) {
             super.service(req, res, queryName, callPath, queryHandler);
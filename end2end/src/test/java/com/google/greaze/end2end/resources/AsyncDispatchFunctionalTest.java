@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.end2end.resources;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.CallPathParser;
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.VirtualThreads;
+import com.google.greaze.definition.rest.Id;
+import com.google.greaze.definition.rest.IdGsonTypeAdapterFactory;
+import com.google.greaze.definition.rest.ResourceUrlPaths;
+import com.google.greaze.definition.rest.RestCallSpec;
+import com.google.greaze.definition.rest.RestCallSpecMap;
+import com.google.greaze.definition.rest.RestRequestBase;
+import com.google.greaze.definition.rest.RestResponseBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.end2end.definition.Employee;
+import com.google.greaze.end2end.fixtures.RestClientStubFake;
+import com.google.greaze.rest.client.ResourceDepotBaseClient;
+import com.google.greaze.rest.client.ResourceDepotClient;
+import com.google.greaze.rest.server.Repository;
+import com.google.greaze.rest.server.RepositoryInMemory;
+import com.google.greaze.rest.server.ResponseBuilderMap;
+import com.google.greaze.rest.server.RestResponseBuilder;
+import com.google.greaze.server.DispatchMode;
+import com.google.greaze.server.fixtures.AsyncContextFake;
+import com.google.gson.GsonBuilder;
+import com.google.inject.Injector;
+
+/**
+ * Functional tests for resource access with {@link DispatchMode#ASYNC} and
+ * {@link DispatchMode#VIRTUAL_THREADS}, with response builders that complete on another thread.
+ * The fake requests support asynchronous processing, so the server completes them through their
+ * {@link AsyncContextFake}.
+ */
+public class AsyncDispatchFunctionalTest extends TestCase {
+
+  private static final String RESOURCE_PREFIX = "/rest";
+  private static final CallPath RESOURCE_PATH =
+    new CallPathParser(RESOURCE_PREFIX, false, "/employee").parse(RESOURCE_PREFIX + "/employee");
+  private static final Id<Employee> ERROR_ID = Id.get("ErrorId12");
+  private static final Id<Employee> HANG_ID = Id.get("HangId12");
+
+  private ListeningExecutorService downstream;
+  private Repository<Employee> employees;
+  private RestClientStubFake stub;
+  private final SettableFuture<Void> hung = SettableFuture.create();
+  private volatile Thread dispatchThread;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    this.downstream = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    this.employees = new RepositoryInMemory<Employee>();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    downstream.shutdown();
+    super.tearDown();
+  }
+
+  public void testAsync() throws Exception {
+    verifyDispatch(DispatchMode.ASYNC);
+    // Dispatched on the container thread, which is the caller's thread with the fakes
+    assertSame(Thread.currentThread(), dispatchThread);
+  }
+
+  public void testVirtualThreads() throws Exception {
+    verifyDispatch(DispatchMode.VIRTUAL_THREADS);
+    if (VirtualThreads.isSupported()) {
+      assertNotSame(Thread.currentThread(), dispatchThread);
+    }
+  }
+
+  public void testTimeoutSendsDeadlineExceeded() throws Exception {
+    final ResourceDepotClient<Employee> client = createClient(DispatchMode.ASYNC);
+    ExecutorService caller = Executors.newSingleThreadExecutor();
+    try {
+      Future<Employee> result = caller.submit(new Callable<Employee>() {
+        @Override
+        public Employee call() {
+          return client.get(HANG_ID, new WebContext());
+        }
+      });
+      AsyncContextFake asyncContext = awaitAsyncContext();
+      assertEquals(0, asyncContext.getCompleteCount());
+      asyncContext.fireTimeout();
+      try {
+        result.get(5, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException expected) {
+        assertEquals(ErrorReason.DEADLINE_EXCEEDED,
+            ((WebServiceSystemException) expected.getCause()).getReason());
+      }
+      assertTrue(hung.isCancelled());
+      assertEquals(1, asyncContext.getCompleteCount());
+    } finally {
+      caller.shutdownNow();
+    }
+  }
+
+  public void testDeadlineSetsTimeout() throws Exception {
+    ResourceDepotClient<Employee> client = createClient(DispatchMode.ASYNC);
+    Employee bob = client.post(new Employee("bob"), new WebContext());
+    Deadline previous = Deadline.setCurrent(Deadline.after(30, TimeUnit.SECONDS));
+    try {
+      client.get(bob.getId(), new WebContext());
+    } finally {
+      Deadline.setCurrent(previous);
+    }
+    List<AsyncContextFake> asyncContexts = stub.getNetworkSwitcher().getAsyncContexts();
+    assertEquals(2, asyncContexts.size());
+    // Without a deadline the container default is kept
+    assertEquals(-1L, asyncContexts.get(0).getTimeout());
+    long timeout = asyncContexts.get(1).getTimeout();
+    assertTrue(timeout > 0L && timeout <= 30000L);
+  }
+
+  private AsyncContextFake awaitAsyncContext() throws InterruptedException {
+    List<AsyncContextFake> asyncContexts = stub.getNetworkSwitcher().getAsyncContexts();
+    for (int i = 0; i < 500 && asyncContexts.isEmpty(); ++i) {
+      Thread.sleep(10L);
+    }
+    assertEquals(1, asyncContexts.size());
+    return asyncContexts.get(0);
+  }
+
+  private void verifyDispatch(DispatchMode dispatchMode) throws Exception {
+    ResourceDepotClient<Employee> client = createClient(dispatchMode);
+    Employee bob = client.post(new Employee("bob"), new WebContext());
+    assertEquals("bob", client.get(bob.getId(), new WebContext()).getName());
+
+    Employee sam = client.post(new Employee("sam"), new WebContext());
+    List<Employee> list = client.getAll(
+        ImmutableList.of(sam.getId(), bob.getId()), new WebContext());
+    assertEquals(2, list.size());
+    assertEquals("sam", list.get(0).getName());
+
+    try {
+      client.get(ERROR_ID, new WebContext());
+      fail();
+    } catch (WebServiceSystemException expected) {
+      assertEquals(ErrorReason.BAD_REQUEST, expected.getReason());
+    }
+
+    // Every request was completed exactly once, on success as well as on failure
+    List<AsyncContextFake> asyncContexts = stub.getNetworkSwitcher().getAsyncContexts();
+    assertEquals(5, asyncContexts.size());
+    for (AsyncContextFake asyncContext : asyncContexts) {
+      assertEquals(1, asyncContext.getCompleteCount());
+    }
+  }
+
+  private ResourceDepotClient<Employee> createClient(DispatchMode dispatchMode) {
+    RestCallSpec employeeRestCallSpec =
+      ResourceDepotBaseClient.generateRestCallSpec(RESOURCE_PATH, Employee.class, null);
+    RestCallSpecMap restCallSpecMap = new RestCallSpecMap.Builder()
+      .set(RESOURCE_PATH, employeeRestCallSpec)
+      .build();
+    ResponseBuilderMap responseBuilders = new ResponseBuilderMap.Builder()
+      .set(Employee.class, new AsyncResponseBuilderEmployee(employees, downstream, hung))
+      .build();
+    GsonBuilder gsonBuilder = new GsonBuilder()
+      .registerTypeAdapterFactory(new IdGsonTypeAdapterFactory());
+    ResourceUrlPaths urlPaths = new ResourceUrlPaths("http://localhost/fake/service/rest",
+        "/fake", "/service", RESOURCE_PREFIX);
+    Injector injector = RestClientStubFake.buildInjector(responseBuilders, restCallSpecMap,
+        gsonBuilder, ImmutableList.of(RESOURCE_PATH), urlPaths, null, dispatchMode);
+    stub = new RestClientStubFake(injector, urlPaths);
+    return new ResourceDepotClient<Employee>(stub, RESOURCE_PATH, Employee.class,
+        new GsonBuilder(), false);
+  }
+
+  private final class AsyncResponseBuilderEmployee extends RestResponseBuilder<Employee> {
+    private final ListeningExecutorService downstream;
+    private final ListenableFuture<Void> hung;
+
+    public AsyncResponseBuilderEmployee(Repository<Employee> employees,
+        ListeningExecutorService downstream, ListenableFuture<Void> hung) {
+      super(employees);
+      this.downstream = downstream;
+      this.hung = hung;
+    }
+
+    @Override
+    public ListenableFuture<Void> buildResponseAsync(final WebContext context,
+        final RestRequestBase<Id<Employee>, Employee> request,
+        final RestResponseBase.Builder<Id<Employee>, Employee> responseBuilder) {
+      dispatchThread = Thread.currentThread();
+      if (HANG_ID.equals(request.getId())) {
+        return hung;
+      }
+      return downstream.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Preconditions.checkArgument(!ERROR_ID.equals(request.getId()));
+          buildResponse(context, request, responseBuilder);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public ListenableFuture<List<Employee>> getAllAsync(final Collection<Id<Employee>> ids,
+        final WebContext context) {
+      return downstream.submit(new Callable<List<Employee>>() {
+        @Override
+        public List<Employee> call() {
+          return getAll(ids, context);
+        }
+      });
+    }
+  }
+}
@@ -15,6 +15,13 @@
  */
 package com.google.greaze.end2end.resources;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
 import com.google.common.base.Preconditions;
@@ -22,6 +29,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.greaze.definition.CallPath;
 import com.google.greaze.definition.CallPathParser;
 import com.google.greaze.definition.ErrorReason;
+import com.google.greaze.definition.HttpMethod;
 import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.definition.rest.Id;
 import com.google.greaze.definition.rest.IdGsonTypeAdapterFactory;
@@ -38,7 +46,12 @@ import com.google.greaze.rest.server.Repository;
 import com.google.greaze.rest.server.RepositoryInMemory;
 import com.google.greaze.rest.server.ResponseBuilderMap;
 import com.google.greaze.rest.server.RestResponseBuilder;
+import com.google.greaze.webservice.client.ClientExecutors;
+import com.google.greaze.webservice.client.ClientMetrics;
+import com.google.greaze.webservice.client.ResponseFuture;
+import com.google.greaze.webservice.client.ServerConfig;
 import com.google.gson.GsonBuilder;
+import com.google.inject.Injector;
 
 /**
  * Functional tests for passing resource query parameters
@@ -54,6 +67,8 @@ public class ResourceDepotFunctionalTest extends TestCase {
 
   private ResourceDepotClient<Employee> client;
   private Repository<Employee> employees;
+  private Injector injector;
+  private ResourceUrlPaths urlPaths;
 
   @Override
   protected void setUp() throws Exception {
@@ -70,10 +85,11 @@ public class ResourceDepotFunctionalTest extends TestCase {
       .build();
     GsonBuilder gsonBuilder = new GsonBuilder()
       .registerTypeAdapterFactory(new IdGsonTypeAdapterFactory());
-    ResourceUrlPaths urlPaths = new ResourceUrlPaths("http://localhost/fake/service/rest",
+    this.urlPaths = new ResourceUrlPaths("http://localhost/fake/service/rest",
         "/fake", "/service", RESOURCE_PREFIX);
-    RestClientStub stub = new RestClientStubFake(responseBuilders,
+    this.injector = RestClientStubFake.buildInjector(responseBuilders,
         restCallSpecMap, gsonBuilder, ImmutableList.of(RESOURCE_PATH), urlPaths, null);
+    RestClientStub stub = new RestClientStubFake(injector, urlPaths);
     this.client = new ResourceDepotClient<Employee>(
         stub, RESOURCE_PATH, Employee.class, new GsonBuilder(), false);
   }
@@ -85,6 +101,101 @@ public class ResourceDepotFunctionalTest extends TestCase {
     assertEquals("bob", e.getName());
   }
 
+  public void testGetAll() throws Exception {
+    Id<Employee> bob = Id.get("1");
+    Id<Employee> sam = Id.get("2");
+    employees.put(new Employee(bob, "bob"));
+    employees.put(new Employee(sam, "sam"));
+    List<Employee> list = client.getAll(
+        ImmutableList.of(sam, Id.<Employee>get("3"), bob), new WebContext());
+    assertEquals(2, list.size());
+    assertEquals("sam", list.get(0).getName());
+    assertEquals("bob", list.get(1).getName());
+  }
+
+  public void testGetAllSharded() throws Exception {
+    ResourceDepotClient<Employee> shardedClient = newShardedClient();
+    List<Id<Employee>> ids = putEvenEmployees(20);
+    List<Employee> list = shardedClient.getAll(ids, new WebContext());
+    assertEquals(10, list.size());
+    for (int i = 0; i < 10; ++i) {
+      assertEquals("name" + (20 - 2 * i), list.get(i).getName());
+    }
+    assertEquals("name4", shardedClient.get(Id.<Employee>get("4"), new WebContext()).getName());
+  }
+
+  public void testGetAllShardedFromSaturatedDefaultPool() throws Exception {
+    final ResourceDepotClient<Employee> shardedClient = newShardedClient();
+    final List<Id<Employee>> ids = putEvenEmployees(20);
+    int threads = ((ThreadPoolExecutor) ClientExecutors.getDefault()).getMaximumPoolSize();
+    // Every pool thread becomes a caller before any of them fans out
+    final CountDownLatch allRunning = new CountDownLatch(threads);
+    List<ResponseFuture<List<Employee>>> results = new ArrayList<ResponseFuture<List<Employee>>>();
+    for (int i = 0; i < threads; ++i) {
+      results.add(ResponseFuture.submit(new Callable<List<Employee>>() {
+        @Override
+        public List<Employee> call() throws Exception {
+          allRunning.countDown();
+          allRunning.await(5, TimeUnit.SECONDS);
+          return shardedClient.getAll(ids, new WebContext());
+        }
+      }, ClientExecutors.getDefault()));
+    }
+    for (ResponseFuture<List<Employee>> result : results) {
+      assertEquals(10, result.get(10, TimeUnit.SECONDS).size());
+    }
+  }
+
+  private ResourceDepotClient<Employee> newShardedClient() {
+    ServerConfig config = new ServerConfig.Builder("http://localhost/fake/service/rest")
+      .addEndpoint("http://127.0.0.1/fake/service/rest")
+      .addEndpoint("http://shard2/fake/service/rest")
+      .setSharding(100)
+      .build();
+    RestClientStubFake stub = new RestClientStubFake(injector, urlPaths, config);
+    return new ResourceDepotClient<Employee>(
+        stub, RESOURCE_PATH, Employee.class, new GsonBuilder(), false);
+  }
+
+  /**
+   * Creates the ids from <code>count</code> down to 1 and stores an employee for the even ones
+   */
+  private List<Id<Employee>> putEvenEmployees(int count) {
+    List<Id<Employee>> ids = new ArrayList<Id<Employee>>();
+    for (int i = count; i > 0; --i) {
+      Id<Employee> id = Id.get(String.valueOf(i));
+      ids.add(id);
+      if (i % 2 == 0) {
+        employees.put(new Employee(id, "name" + i));
+      }
+    }
+    return ids;
+  }
+
+  public void testMetrics() throws Exception {
+    ClientMetrics metrics = new ClientMetrics();
+    ServerConfig config = new ServerConfig.Builder("http://localhost/fake/service/rest")
+      .setMetrics(metrics)
+      .build();
+    RestClientStubFake stub = new RestClientStubFake(injector, urlPaths, config);
+    ResourceDepotClient<Employee> measuredClient = new ResourceDepotClient<Employee>(
+        stub, RESOURCE_PATH, Employee.class, new GsonBuilder(), false);
+    employees.put(new Employee(Id.<Employee>get("1"), "bob"));
+    assertEquals("bob", measuredClient.get(Id.<Employee>get("1"), new WebContext()).getName());
+    try {
+      measuredClient.get(ERROR_ID, new WebContext());
+      fail();
+    } catch (WebServiceSystemException expected) {
+    }
+    ClientMetrics.Stats stats = metrics.getSnapshot().get(0);
+    assertEquals(HttpMethod.GET, stats.getMethod());
+    assertEquals(2L, stats.getCalls());
+    assertTrue(stats.getResponseBytes() > 0);
+    assertEquals(Long.valueOf(1L), stats.getErrors().get(ErrorReason.BAD_REQUEST));
+    assertEquals(2L, stats.getLatency(ClientMetrics.Phase.FIRST_BYTE).getCount());
+    assertEquals(1L, stats.getLatency(ClientMetrics.Phase.DESERIALIZE).getCount());
+  }
+
   public void testServerErrorOnGet() throws Exception {
     try {
       client.get(ERROR_ID, new WebContext());
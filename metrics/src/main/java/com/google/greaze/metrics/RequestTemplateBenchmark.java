@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.greaze.metrics;
+
+import java.net.URL;
+
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.greaze.client.internal.utils.UrlParamStringBuilder;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.CallPathParser;
+import com.google.greaze.definition.HeaderMap;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.UrlParams;
+import com.google.greaze.definition.rest.Id;
+import com.google.greaze.definition.rest.RestCallSpec;
+import com.google.greaze.definition.rest.RestRequestBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.end2end.definition.Employee;
+import com.google.greaze.rest.client.ResourceDepotBaseClient;
+import com.google.greaze.rest.client.RestCallTemplate;
+import com.google.greaze.rest.client.RestClientStub;
+import com.google.greaze.webservice.client.ServerConfig;
+import com.google.gson.Gson;
+
+/**
+ * Benchmark for preparing a GET request (the {@link RestRequestBase} and its URL) with and
+ * without a precompiled {@link RestCallTemplate}. Run with <code>--measureMemory</code> to also
+ * compare the allocations per call.
+ */
+public class RequestTemplateBenchmark extends SimpleBenchmark {
+
+  private static final CallPath RESOURCE_PATH =
+    new CallPathParser("/rest", false, "/employee").parse("/rest/employee");
+  private static final String SERVICE_BASE_URL = "http://localhost/fake/service";
+  private RestCallSpec callSpec;
+  private RestCallTemplate<Id<Employee>, Employee> template;
+  private Gson gson;
+  private WebContext context;
+  private Id<Employee> id;
+  private int sink;
+
+  public static void main(String[] args) {
+    Runner.main(RequestTemplateBenchmark.class, args);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    this.callSpec =
+        ResourceDepotBaseClient.generateRestCallSpec(RESOURCE_PATH, Employee.class, null);
+    RestClientStub stub = new RestClientStub(new ServerConfig(SERVICE_BASE_URL));
+    this.template = stub.compile(callSpec, Employee.class, false);
+    this.gson = new Gson();
+    this.context = null;
+    this.id = Id.get("1234");
+  }
+
+  public void timePerCall(int reps) throws Exception {
+    for (int i = 0; i < reps; ++i) {
+      sink += buildPerCall().getPath().length();
+    }
+  }
+
+  public void timeTemplate(int reps) throws Exception {
+    for (int i = 0; i < reps; ++i) {
+      sink += buildWithTemplate().getPath().length();
+    }
+  }
+
+  /** What ResourceDepotBaseClient and RestClientStub did before templates */
+  private URL buildPerCall() throws Exception {
+    HeaderMap.Builder headersBuilder =
+        new HeaderMap.Builder(callSpec.getRequestSpec().getHeadersSpec());
+    if (context != null) {
+      context.populate(headersBuilder);
+    }
+    UrlParams urlParams = new UrlParams.Builder(callSpec.getRequestSpec().getUrlParamsSpec())
+        .build();
+    RestRequestBase<Id<Employee>, Employee> request = new RestRequestBase<Id<Employee>, Employee>(
+        HttpMethod.GET, headersBuilder.build(), urlParams, id, null, Employee.class, false);
+    StringBuilder url = new StringBuilder(SERVICE_BASE_URL).append("/rest/employee");
+    url.append('/').append(request.getId().getValue());
+    url.append(new UrlParamStringBuilder(gson).add(request.getUrlParameters()).build());
+    return new URL(url.toString());
+  }
+
+  private URL buildWithTemplate() {
+    RestRequestBase<Id<Employee>, Employee> request =
+        template.newRequest(HttpMethod.GET, id, null, context);
+    return template.getUrl(SERVICE_BASE_URL, request, gson);
+  }
+}
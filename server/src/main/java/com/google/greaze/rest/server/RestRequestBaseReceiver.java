@@ -29,6 +29,7 @@ import com.google.greaze.definition.rest.RestRequestSpec;
 import com.google.greaze.definition.rest.RestResourceBase;
 import com.google.greaze.webservice.server.RequestData;
 import com.google.greaze.webservice.server.RequestReceiver;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 
@@ -43,6 +44,10 @@ public class RestRequestBaseReceiver<I extends ResourceId, R extends RestResourc
     super(gsonBuilder, spec);
   }
 
+  public RestRequestBaseReceiver(Gson gson, RestRequestSpec spec) {
+    super(gson, spec);
+  }
+
   protected RestRequestSpec getSpec() {
     return (RestRequestSpec) spec;
   }
@@ -24,6 +24,7 @@ import com.google.greaze.definition.rest.Id;
 import com.google.greaze.definition.rest.RestRequest;
 import com.google.greaze.definition.rest.RestRequestSpec;
 import com.google.greaze.definition.rest.RestResource;
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 /**
@@ -39,6 +40,10 @@ public final class RestRequestReceiver<R extends RestResource<R>>
     super(gsonBuilder, spec);
   }
 
+  public RestRequestReceiver(Gson gson, RestRequestSpec spec) {
+    super(gson, spec);
+  }
+
   @Override
   public RestRequest<R> receive(HttpServletRequest request, Id<R> resourceId) {
     return (RestRequest<R>) super.receive(request, resourceId);
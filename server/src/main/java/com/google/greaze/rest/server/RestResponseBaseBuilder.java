@@ -15,6 +15,12 @@
  */
 package com.google.greaze.rest.server;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.greaze.definition.HttpMethod;
 import com.google.greaze.definition.rest.ResourceId;
 import com.google.greaze.definition.rest.RestRequestBase;
@@ -52,10 +58,47 @@ public class RestResponseBaseBuilder<I extends ResourceId, R extends RestResourc
     responseBuilder.setBody(responseBody);
   }
 
+  /**
+   * Asynchronous variant of {@link #buildResponse}, used when the server dispatches
+   * asynchronously. Override it if the repository calls slow downstream services; the response
+   * is sent when the returned future completes. The default implementation builds the response
+   * synchronously.
+   */
+  public ListenableFuture<Void> buildResponseAsync(WebContext context,
+      RestRequestBase<I, R> request, RestResponseBase.Builder<I, R> responseBuilder) {
+    buildResponse(context, request, responseBuilder);
+    return Futures.immediateFuture(null);
+  }
+
   public R get(I resourceId, WebContext context) {
     return resources.get(resourceId);
   }
 
+  /**
+   * Serves a batch GET. The default implementation fetches the ids one at a time from the
+   * repository; override it if the repository supports a bulk lookup.
+   *
+   * @return the resources that exist, in the order of the ids. Missing ids are skipped.
+   */
+  public List<R> getAll(Collection<I> resourceIds, WebContext context) {
+    List<R> resources = new ArrayList<R>(resourceIds.size());
+    for (I resourceId : resourceIds) {
+      R resource = get(resourceId, context);
+      if (resource != null) {
+        resources.add(resource);
+      }
+    }
+    return resources;
+  }
+
+  /**
+   * Asynchronous variant of {@link #getAll}. The default implementation fetches the resources
+   * synchronously.
+   */
+  public ListenableFuture<List<R>> getAllAsync(Collection<I> resourceIds, WebContext context) {
+    return Futures.immediateFuture(getAll(resourceIds, context));
+  }
+
   public R post(R resource, WebContext context) {
     return resources.put(resource);
   }
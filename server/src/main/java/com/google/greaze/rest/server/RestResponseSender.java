@@ -17,16 +17,20 @@ package com.google.greaze.rest.server;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.greaze.definition.ContentBodySpec;
+import com.google.greaze.definition.EntityTags;
 import com.google.greaze.definition.LogConfig;
+import com.google.greaze.definition.internal.utils.$GreazeTypes;
 import com.google.greaze.definition.rest.ResourceId;
 import com.google.greaze.definition.rest.RestResourceBase;
 import com.google.greaze.definition.rest.RestResponseBase;
 import com.google.greaze.definition.webservice.WebServiceResponse;
+import com.google.greaze.webservice.server.ResponseCompression;
 import com.google.greaze.webservice.server.ResponseSender;
 import com.google.gson.Gson;
 
@@ -43,6 +47,14 @@ public class RestResponseSender<I extends ResourceId, R extends RestResourceBase
     super(gson);
   }
 
+  public RestResponseSender(Gson gson, ResponseCompression compression) {
+    super(gson, compression);
+  }
+
+  public RestResponseSender(Gson gson, ResponseCompression compression, int contentLengthLimit) {
+    super(gson, compression, contentLengthLimit);
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public void send(HttpServletResponse conn, WebServiceResponse response) {
@@ -61,16 +73,75 @@ public class RestResponseSender<I extends ResourceId, R extends RestResourceBase
       throw new RuntimeException(e);
     }
   }
+
+  /**
+   * Sends a response to a conditional GET. The response carries an ETag header computed with
+   * {@link #computeETag(RestResponseBase, String)}. If the client already has that version of
+   * the resource, only 304 Not Modified is sent.
+   *
+   * @param ifNoneMatch value of the If-None-Match request header, may be null
+   */
+  public void send(HttpServletResponse res, RestResponseBase<I, R> response, String ifNoneMatch) {
+    try {
+      String json = toJson(response);
+      String etag = computeETag(response, json);
+      if (etag != null) {
+        res.setHeader(EntityTags.ETAG_HEADER, etag);
+        if (EntityTags.matches(ifNoneMatch, etag)) {
+          if (LogConfig.INFO) logger.info("Not modified: " + etag);
+          res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          return;
+        }
+      }
+      sendHeaders(res, response.getHeaders());
+      sendBody(res, json);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Sends the response to a batch GET as a JSON array of resources. The resources are serialized
+   * directly into the response.
+   */
+  public void sendList(HttpServletResponse res, List<R> resources, Type resourceType) {
+    try {
+      Type listType = $GreazeTypes.newParameterizedTypeWithOwner(null, List.class, resourceType);
+      sendBody(res, resources, listType);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Computes the entity tag for a response. The default is a hash of the serialized resource.
+   * Override this to derive it from something cheaper, such as a version number maintained
+   * by the repository.
+   *
+   * @return the entity tag including the quotes, or null to not send one
+   */
+  protected String computeETag(RestResponseBase<I, R> response, String json) throws IOException {
+    return EntityTags.fromContent(json.getBytes(ContentBodySpec.JSON_CHARACTER_ENCODING));
+  }
+
+  private String toJson(RestResponseBase<I, R> response) {
+    Type responseBodyType = response.getBody().getSpec().getBodyJavaType();
+    return gson.toJson(response.getResource(), responseBodyType);
+  }
  
   // We could reuse the base classes method, sendBody. However, that requires that
   // a ResponseBody.GsonTypeAdapter is registered. We avoid that registration for REST resources
   // with this implementation
-  private void sendBody(HttpServletResponse res, R responseBody, Type responseBodyType)
-      throws IOException {
+  private void sendBody(HttpServletResponse res, String json) throws IOException {
+    res.setContentType(ContentBodySpec.JSON_CONTENT_TYPE);
+    res.setCharacterEncoding(ContentBodySpec.JSON_CHARACTER_ENCODING);
+    if (LogConfig.FINE) logger.fine("Response Body:" + json);
+    writeBody(res, json);
+  }
+
+  private void sendBody(HttpServletResponse res, Object src, Type srcType) throws IOException {
     res.setContentType(ContentBodySpec.JSON_CONTENT_TYPE);
     res.setCharacterEncoding(ContentBodySpec.JSON_CHARACTER_ENCODING);
-    String json = gson.toJson(responseBody, responseBodyType);
-    if (LogConfig.INFO) logger.info("Response Body:" + json);
-    res.getWriter().append(json);
+    writeBody(res, src, srcType);
   }
 }
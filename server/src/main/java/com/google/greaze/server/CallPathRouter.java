@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.CallPathParser;
+import com.google.greaze.definition.internal.utils.GreazeStrings;
+
+/**
+ * Maps incoming paths to the {@link CallPath}s of the registered services. The service paths are
+ * compiled upfront into a radix trie of base paths, each leading to a table of versions, each
+ * leading to a radix trie of service names. A path is routed in a single pass over its
+ * characters, instead of being parsed once per service. Routes are not cached: incoming paths
+ * mostly differ by their resource id, so a cache keyed by them would rarely hit.
+ *
+ * <p>The result is the same as trying the {@link CallPathParser} of each service path in order,
+ * and picking the first one that parses the path and {@link CallPath#matches(CallPath) matches}.
+ */
+public final class CallPathRouter {
+  private final Node<VersionTable> basePaths = new Node<VersionTable>("");
+
+  public CallPathRouter(Collection<CallPath> servicePaths) {
+    int index = 0;
+    for (CallPath servicePath : servicePaths) {
+      Node<VersionTable> node = basePaths.insert(nullToEmpty(servicePath.getBasePath()));
+      if (node.value == null) {
+        node.value = new VersionTable();
+      }
+      node.value.add(new Route(index++, servicePath));
+    }
+  }
+
+  /**
+   * @return the call path that {@code path} routes to, or {@link CallPath#NULL_PATH} if it does
+   *   not match any of the service paths
+   */
+  public CallPath route(String path) {
+    if (GreazeStrings.isEmpty(path)) {
+      return CallPath.NULL_PATH;
+    }
+    Route best = null;
+    double bestVersion = CallPath.IGNORE_VERSION;
+    int bestEnd = 0;
+    // Each base path that is a prefix of the path leads to candidates
+    Node<VersionTable> node = basePaths;
+    int pos = 0;
+    while (node != null) {
+      VersionTable table = node.value;
+      if (table != null) {
+        if (table.unversioned != null) {
+          Route route = matchService(table.unversioned, path, pos, best);
+          if (route != best) {
+            best = route;
+            bestVersion = CallPath.IGNORE_VERSION;
+            bestEnd = pos + route.serviceLength;
+          }
+        }
+        if (table.versions.length > 0) {
+          int versionEnd = versionEnd(path, pos);
+          if (versionEnd != -1) {
+            double version = parseVersion(path, pos, versionEnd);
+            Node<Route> services = table.get(version);
+            if (services != null) {
+              Route route = matchService(services, path, versionEnd, best);
+              if (route != best) {
+                best = route;
+                bestVersion = version;
+                bestEnd = versionEnd + route.serviceLength;
+              }
+            }
+          }
+        }
+      }
+      node = node.next(path, pos);
+      if (node != null) {
+        pos += node.label.length();
+      }
+    }
+    if (best == null) {
+      return CallPath.NULL_PATH;
+    }
+    return new CallPath(best.servicePath.getBasePath(), bestVersion,
+        best.servicePath.getServicePath(), extractResourceId(path, bestEnd));
+  }
+
+  /**
+   * @return the registered route with the lowest index among the service names that are a
+   *   prefix of the path at pos, if it is lower than that of best. best otherwise.
+   */
+  private static Route matchService(Node<Route> node, String path, int pos, Route best) {
+    while (node != null) {
+      if (node.value != null && (best == null || node.value.index < best.index)) {
+        best = node.value;
+      }
+      node = node.next(path, pos);
+      if (node != null) {
+        pos += node.label.length();
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return the index of the slash that ends the version segment starting at pos, or -1
+   */
+  private static int versionEnd(String path, int pos) {
+    if (pos >= path.length()) {
+      return -1;
+    }
+    int begin = path.charAt(pos) == '/' ? pos + 1 : pos;
+    return path.indexOf('/', begin);
+  }
+
+  /**
+   * @return the version in the segment, or NaN (which matches no version) if it is not a number
+   */
+  private static double parseVersion(String path, int pos, int end) {
+    int begin = path.charAt(pos) == '/' ? pos + 1 : pos;
+    if (begin == end) {
+      return Double.NaN;
+    }
+    for (int i = begin; i < end; ++i) {
+      char c = path.charAt(i);
+      if ((c < '0' || c > '9') && c != '.') {
+        return Double.NaN;
+      }
+    }
+    try {
+      return Double.parseDouble(path.substring(begin, end));
+    } catch (NumberFormatException e) {
+      // multiple dots
+      return Double.NaN;
+    }
+  }
+
+  private static String extractResourceId(String path, int pos) {
+    if (isBlank(path, pos)) {
+      return null;
+    }
+    int begin = path.charAt(pos) == '/' ? pos + 1 : pos;
+    int end = begin;
+    while (end < path.length() && path.charAt(end) != '?' && path.charAt(end) != '/') {
+      ++end;
+    }
+    return path.substring(begin, end);
+  }
+
+  /**
+   * Same as {@link GreazeStrings#isEmpty(String)} on the rest of the path, without the copy
+   */
+  private static boolean isBlank(String path, int pos) {
+    for (int i = pos; i < path.length(); ++i) {
+      if (path.charAt(i) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String nullToEmpty(String str) {
+    return GreazeStrings.isEmpty(str) ? "" : str;
+  }
+
+  private static final class Route {
+    final int index;
+    final CallPath servicePath;
+    final int serviceLength;
+
+    Route(int index, CallPath servicePath) {
+      this.index = index;
+      this.servicePath = servicePath;
+      this.serviceLength = nullToEmpty(servicePath.getServicePath()).length();
+    }
+  }
+
+  /**
+   * The service names registered under a base path, by version
+   */
+  private static final class VersionTable {
+    Node<Route> unversioned;
+    double[] versions = new double[0];
+    final List<Node<Route>> services = new ArrayList<Node<Route>>();
+
+    void add(Route route) {
+      CallPath servicePath = route.servicePath;
+      Node<Route> root;
+      if (servicePath.hasVersion()) {
+        root = get(servicePath.getVersion());
+        if (root == null) {
+          root = new Node<Route>("");
+          versions = Arrays.copyOf(versions, versions.length + 1);
+          versions[versions.length - 1] = servicePath.getVersion();
+          services.add(root);
+        }
+      } else {
+        if (unversioned == null) {
+          unversioned = new Node<Route>("");
+        }
+        root = unversioned;
+      }
+      Node<Route> node = root.insert(nullToEmpty(servicePath.getServicePath()));
+      if (node.value == null) {
+        node.value = route;
+      }
+    }
+
+    Node<Route> get(double version) {
+      for (int i = 0; i < versions.length; ++i) {
+        if (versions[i] == version) {
+          return services.get(i);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A node of a radix trie. The label is the part of the key between the parent and this node.
+   */
+  private static final class Node<V> {
+    String label;
+    V value;
+    List<Node<V>> children = new ArrayList<Node<V>>(2);
+
+    Node(String label) {
+      this.label = label;
+    }
+
+    /**
+     * @return the node for key relative to this node, creating it if needed
+     */
+    Node<V> insert(String key) {
+      Node<V> node = this;
+      int pos = 0;
+      while (pos < key.length()) {
+        Node<V> child = node.child(key.charAt(pos));
+        if (child == null) {
+          child = new Node<V>(key.substring(pos));
+          node.children.add(child);
+          return child;
+        }
+        int common = 1;
+        int max = Math.min(child.label.length(), key.length() - pos);
+        while (common < max && child.label.charAt(common) == key.charAt(pos + common)) {
+          ++common;
+        }
+        if (common < child.label.length()) {
+          child.split(common);
+        }
+        node = child;
+        pos += common;
+      }
+      return node;
+    }
+
+    private void split(int at) {
+      Node<V> tail = new Node<V>(label.substring(at));
+      tail.value = value;
+      tail.children = children;
+      label = label.substring(0, at);
+      value = null;
+      children = new ArrayList<Node<V>>(2);
+      children.add(tail);
+    }
+
+    /**
+     * @return the child whose label appears in path at pos, or null
+     */
+    Node<V> next(String path, int pos) {
+      if (pos >= path.length()) {
+        return null;
+      }
+      Node<V> child = child(path.charAt(pos));
+      return child != null && path.startsWith(child.label, pos) ? child : null;
+    }
+
+    private Node<V> child(char first) {
+      for (int i = 0; i < children.size(); ++i) {
+        Node<V> child = children.get(i);
+        if (child.label.charAt(0) == first) {
+          return child;
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server;
+
+import com.google.greaze.definition.rest.query.ResourceQueryBase;
+import com.google.greaze.rest.server.RestResponseBaseBuilder;
+
+/**
+ * How {@link GreazeDispatcherServlet} runs the request handlers.
+ */
+public enum DispatchMode {
+  /** Requests are serviced entirely on the container thread. This is the default. */
+  BLOCKING,
+
+  /**
+   * Requests are started asynchronously (Servlet 3.0 {@code AsyncContext}) and the container
+   * thread is released as soon as the handler returns a pending future, for example from
+   * {@link RestResponseBaseBuilder#buildResponseAsync}, {@link WebServiceDispatcher}'s
+   * {@code buildResponseAsync} or an async {@link ResourceQueryBase}. The response is written
+   * when the future completes.
+   */
+  ASYNC,
+
+  /**
+   * Like {@link #ASYNC}, but the request body is read and the handler invoked on a new virtual
+   * thread, so that blocking handlers do not hold on to container threads either. Falls back to
+   * {@link #ASYNC} on JDKs without virtual threads.
+   */
+  VIRTUAL_THREADS
+}
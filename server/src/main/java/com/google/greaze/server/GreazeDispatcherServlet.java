@@ -16,6 +16,8 @@
 package com.google.greaze.server;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,10 +25,19 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.greaze.definition.Deadline;
 import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.WebServiceSystemException;
+import com.google.greaze.definition.internal.utils.VirtualThreads;
 import com.google.greaze.server.filters.GreazeFilter;
 import com.google.greaze.server.filters.GreazeFilterChain;
+import com.google.greaze.server.internal.utils.AsyncDispatch;
+import com.google.greaze.server.internal.utils.AsyncServlets;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.ProvisionException;
@@ -43,46 +54,194 @@ import com.google.inject.name.Named;
 public class GreazeDispatcherServlet extends HttpServlet {
   private static final Logger log = Logger.getLogger(GreazeDispatcherServlet.class.getSimpleName());
   private GreazeFilterChain filters;
+  private final RequestServicingFilter servicingFilter;
+  private final DispatchMode dispatchMode;
+  private final ListeningExecutorService executor;
+
+  public GreazeDispatcherServlet(Injector injector, String resourcePrefix,
+      GreazeFilterChain filtersToBeInstalled) {
+    this(injector, resourcePrefix, filtersToBeInstalled, DispatchMode.BLOCKING);
+  }
 
   @Inject
   public GreazeDispatcherServlet(Injector injector, @Named("resource-prefix") String resourcePrefix,
-      GreazeFilterChain filtersToBeInstalled) {
+      GreazeFilterChain filtersToBeInstalled, @Named("dispatch-mode") DispatchMode dispatchMode) {
     this.filters = filtersToBeInstalled == null
         ? new GreazeFilterChain() : filtersToBeInstalled.copyOf();
-    this.filters.install(new RequestServicingFilter());
+    this.servicingFilter = new RequestServicingFilter();
+    this.filters.install(servicingFilter);
     for (GreazeFilter filter : this.filters.getFilters()) {
       filter.init(injector, resourcePrefix);
     }
+    this.dispatchMode = dispatchMode;
+    this.executor = createExecutor(dispatchMode);
+  }
+
+  private static ListeningExecutorService createExecutor(DispatchMode dispatchMode) {
+    if (dispatchMode == DispatchMode.VIRTUAL_THREADS) {
+      if (VirtualThreads.isSupported()) {
+        return MoreExecutors.listeningDecorator(VirtualThreads.newThreadPerTaskExecutor());
+      }
+      log.warning("Virtual threads are not supported by this JDK, using container threads");
+    }
+    return MoreExecutors.sameThreadExecutor();
   }
 
+  /**
+   * Requests that carry a {@link Deadline} that has already passed are rejected with
+   * {@link ErrorReason#DEADLINE_EXCEEDED} before their body is read. For the others, the
+   * deadline is made current while the request is serviced.
+   */
   @Override
   public void service(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    Deadline previous = Deadline.getCurrent();
     try {
+      Deadline deadline = Deadline.fromHeaderValue(req.getHeader(Deadline.HTTP_HEADER_NAME));
+      if (deadline != null && deadline.isExpired()) {
+        throw new WebServiceSystemException(ErrorReason.DEADLINE_EXCEEDED,
+            "Request arrived after its deadline: " + req.getPathInfo());
+      }
+      Deadline.setCurrent(deadline);
       try {
-        try {
-          for (GreazeFilter filter : filters.getFilters()) {
-            boolean continueFilterChain = filter.service(req, res);
-            if (!continueFilterChain) {
-              break;
-            }
+        for (GreazeFilter filter : filters.getFilters()) {
+          if (filter == servicingFilter && dispatchMode != DispatchMode.BLOCKING) {
+            dispatchAsync(req, res, deadline);
+            break;
+          }
+          boolean continueFilterChain = filter.service(req, res);
+          if (!continueFilterChain) {
+            break;
           }
-        } catch (ProvisionException e) {
-          Exception cause = (Exception) e.getCause();
-          throw cause;
         }
       } catch (Exception e) {
-        if (e instanceof WebServiceSystemException) {
-          throw (WebServiceSystemException) e;
-        } else {
-          throw new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE, e);
-        }
+        throw toSystemException(e);
       }
     } catch (WebServiceSystemException e) {
-      ErrorReason reason = e.getReason();
-      String reasonStr = reason.toString();
-      log.log(Level.WARNING, reasonStr, e);
-      res.setHeader(ErrorReason.HTTP_RESPONSE_HEADER_NAME, reasonStr);
-      res.sendError(reason.getResponseCode(), e.getLocalizedMessage());
+      sendError(res, e);
+    } finally {
+      Deadline.setCurrent(previous);
     }
   }
+
+  /**
+   * Starts the request asynchronously and sends the response once the dispatch completes. If the
+   * container does not support asynchronous requests, waits for the dispatch instead.
+   * The container times the request out when its deadline passes, or after its default timeout
+   * if it has none. The dispatch is then cancelled and {@link ErrorReason#DEADLINE_EXCEEDED} is
+   * sent; writes the dispatch makes after that are rejected.
+   */
+  private void dispatchAsync(HttpServletRequest req, final HttpServletResponse res,
+      Deadline deadline) {
+    long timeoutMillis =
+        deadline == null ? 0L : Math.max(1L, deadline.getRemaining(TimeUnit.MILLISECONDS));
+    final AtomicReference<ListenableFuture<Void>> dispatch =
+        new AtomicReference<ListenableFuture<Void>>();
+    final AsyncServlets.Context asyncContext =
+        AsyncServlets.start(req, timeoutMillis, new AsyncServlets.Listener() {
+      @Override
+      public void onTimeout(AsyncServlets.Context context) {
+        abort(context, dispatch.get(), res, new WebServiceSystemException(
+            ErrorReason.DEADLINE_EXCEEDED, "Request timed out before it was serviced"));
+      }
+
+      @Override
+      public void onError(AsyncServlets.Context context) {
+        abort(context, dispatch.get(), res, null);
+      }
+    });
+    ListenableFuture<Void> future;
+    try {
+      if (asyncContext == null) {
+        AsyncDispatch.await(servicingFilter.serviceAsync(req, res, executor));
+        return;
+      }
+      future = servicingFilter.serviceAsync(req, asyncContext.guard(res), executor);
+      dispatch.set(future);
+    } catch (RuntimeException e) {
+      if (asyncContext != null && asyncContext.finish()) {
+        asyncContext.complete();
+      }
+      throw RequestServicingFilter.translate(e);
+    }
+    if (asyncContext.isFinished()) {
+      // Timed out while the dispatch was being started
+      future.cancel(true);
+    }
+    Futures.addCallback(future, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        if (asyncContext.finish()) {
+          asyncContext.complete();
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        if (!asyncContext.finish()) {
+          return;
+        }
+        try {
+          Throwable failure = t instanceof RuntimeException
+              ? RequestServicingFilter.translate((RuntimeException) t) : t;
+          sendError(res, toSystemException(failure));
+        } catch (IOException e) {
+          log.log(Level.WARNING, "Failed to send error", e);
+        } finally {
+          asyncContext.complete();
+        }
+      }
+    });
+  }
+
+  /**
+   * Finishes the request on behalf of the container, unless the dispatch already did
+   *
+   * @param future the dispatch to cancel, or null if it has not started yet
+   * @param error the error to send, or null to send nothing
+   */
+  private static void abort(AsyncServlets.Context context, ListenableFuture<Void> future,
+      HttpServletResponse res, WebServiceSystemException error) {
+    if (!context.finish()) {
+      return;
+    }
+    if (future != null) {
+      future.cancel(true);
+    }
+    try {
+      if (error != null) {
+        sendError(res, error);
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed to send error", e);
+    } finally {
+      context.complete();
+    }
+  }
+
+  private static WebServiceSystemException toSystemException(Throwable t) {
+    if (t instanceof ProvisionException && t.getCause() != null) {
+      t = t.getCause();
+    }
+    if (t instanceof WebServiceSystemException) {
+      return (WebServiceSystemException) t;
+    } else if (t instanceof Exception) {
+      return new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE, (Exception) t);
+    }
+    return new WebServiceSystemException(ErrorReason.SERVER_UNAVAILABLE, String.valueOf(t));
+  }
+
+  private static void sendError(HttpServletResponse res, WebServiceSystemException e)
+      throws IOException {
+    ErrorReason reason = e.getReason();
+    String reasonStr = reason.toString();
+    log.log(Level.WARNING, reasonStr, e);
+    res.setHeader(ErrorReason.HTTP_RESPONSE_HEADER_NAME, reasonStr);
+    res.sendError(reason.getResponseCode(), e.getLocalizedMessage());
+  }
+
+  @Override
+  public void destroy() {
+    executor.shutdown();
+    super.destroy();
+  }
 }
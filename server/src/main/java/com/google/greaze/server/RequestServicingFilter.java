@@ -20,6 +20,9 @@ import java.util.logging.Logger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.greaze.definition.CallPath;
 import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.LogConfig;
@@ -27,7 +30,9 @@ import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.server.dispatcher.RequestType;
 import com.google.greaze.server.dispatcher.ResourceQueryDispatcher;
 import com.google.greaze.server.filters.GreazeFilter;
+import com.google.greaze.server.internal.utils.AsyncDispatch;
 import com.google.inject.Injector;
+import com.google.inject.Provider;
 
 /**
  * A {@link GreazeFilter} that services the request for resource access, query or a webservice.
@@ -39,44 +44,72 @@ final class RequestServicingFilter implements GreazeFilter {
   private static final Logger log = Logger.getLogger(RequestServicingFilter.class.getSimpleName());
   private Injector injector;
   private String resourcePrefix;
+  private Provider<CallPath> callPaths;
+  private ResourceDepotDispatcher resourceDispatcher;
 
+  /**
+   * Resolves the bindings used by resource access requests once so that servicing them does not
+   * look up the injector. Query and Web service dispatchers are optional bindings, so they are
+   * still looked up when needed.
+   */
   @Override
   public void init(Injector injector, String resourcePrefix) {
     this.injector = injector;
     this.resourcePrefix = resourcePrefix;
+    this.callPaths = injector.getProvider(CallPath.class);
+    this.resourceDispatcher = injector.getInstance(ResourceDepotDispatcher.class);
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public boolean service(HttpServletRequest req, HttpServletResponse res)
       throws WebServiceSystemException {
     try {
-      CallPath callPath = injector.getInstance(CallPath.class);
-      if (callPath.equals(CallPath.NULL_PATH)) {
-        throw new WebServiceSystemException(
-            ErrorReason.INVALID_CALLPATH, req.getServletPath());
-      }
-      String queryName = RequestType.getQueryName(req.getParameterMap());
-      RequestType requestType = RequestType.getRequestType(callPath, queryName, resourcePrefix);
-      if (LogConfig.INFO) log.info(String.format("%s: %s", requestType, callPath));
-      switch (requestType) {
-        case RESOURCE_ACCESS:
-          injector.getInstance(ResourceDepotDispatcher.class).service(res);
-          break;
-        case RESOURCE_QUERY:
-          injector.getInstance(ResourceQueryDispatcher.class).service(req, res, queryName, callPath);
-          break;
-        case WEBSERVICE:
-          injector.getInstance(WebServiceDispatcher.class).service(req, res);
-          break;
-        default:
-          throw new UnsupportedOperationException();
-      }
+      AsyncDispatch.await(serviceAsync(req, res, MoreExecutors.sameThreadExecutor()));
       return false;
-    } catch (IllegalArgumentException e) {
-      throw new WebServiceSystemException(e);
-    } catch (NullPointerException e) {
-      throw new WebServiceSystemException(e);
+    } catch (RuntimeException e) {
+      throw translate(e);
+    }
+  }
+
+  /**
+   * Maps the precondition failures of a dispatch to {@link WebServiceSystemException}s.
+   * Other failures are returned as is.
+   */
+  static RuntimeException translate(RuntimeException e) {
+    if (e instanceof IllegalArgumentException) {
+      return new WebServiceSystemException((IllegalArgumentException) e);
+    } else if (e instanceof NullPointerException) {
+      return new WebServiceSystemException((NullPointerException) e);
+    }
+    return e;
+  }
+
+  /**
+   * Routes the request to the resource, query or Web service dispatcher, which read the request
+   * and build the response on {@code executor}. Everything that needs the request scope is
+   * resolved on the calling thread.
+   */
+  @SuppressWarnings("unchecked")
+  ListenableFuture<Void> serviceAsync(HttpServletRequest req, HttpServletResponse res,
+      ListeningExecutorService executor) {
+    CallPath callPath = callPaths.get();
+    if (callPath.equals(CallPath.NULL_PATH)) {
+      throw new WebServiceSystemException(
+          ErrorReason.INVALID_CALLPATH, req.getServletPath());
+    }
+    String queryName = RequestType.getQueryName(req.getParameterMap());
+    RequestType requestType = RequestType.getRequestType(callPath, queryName, resourcePrefix);
+    if (LogConfig.INFO) log.info(String.format("%s: %s", requestType, callPath));
+    switch (requestType) {
+      case RESOURCE_ACCESS:
+        return resourceDispatcher.serviceAsync(req, res, callPath, executor);
+      case RESOURCE_QUERY:
+        return injector.getInstance(ResourceQueryDispatcher.class)
+            .serviceAsync(req, res, queryName, callPath, executor);
+      case WEBSERVICE:
+        return injector.getInstance(WebServiceDispatcher.class).serviceAsync(req, res, executor);
+      default:
+        throw new UnsupportedOperationException();
     }
   }
 }
@@ -15,44 +15,86 @@
  */
 package com.google.greaze.server;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.rest.Id;
+import com.google.greaze.definition.rest.ResourceIdFactory;
 import com.google.greaze.definition.rest.RestCallSpec;
-import com.google.greaze.definition.rest.RestRequestBase;
-import com.google.greaze.definition.rest.RestResponseBase;
-import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.definition.rest.RestCallSpecMap;
 import com.google.greaze.rest.server.RestResponseBaseBuilder;
-import com.google.greaze.rest.server.RestResponseSender;
+import com.google.greaze.server.internal.utils.AsyncDispatch;
 import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
 
 /**
- * A dispatcher for all the REST requests
+ * A dispatcher for all the REST requests. The first request on each route compiles a
+ * {@link ResourceDispatchPlan} for it; later requests on the route are serviced by the plan,
+ * which only goes through the injector for the response builder and the Gson.
  *
  * @author Inderjeet Singh
  */
+@Singleton
 public final class ResourceDepotDispatcher {
   private final Injector injector;
+  private final ConcurrentMap<CallPath, ResourceDispatchPlan> plans =
+    new ConcurrentHashMap<CallPath, ResourceDispatchPlan>();
 
   @Inject
   public ResourceDepotDispatcher(Injector injector) {
     this.injector = injector;
   }
 
-  @SuppressWarnings({"rawtypes", "unchecked"})
   public void service(HttpServletResponse res) {
-    RestCallSpec callSpec = injector.getInstance(RestCallSpec.class);
+    service(injector.getInstance(HttpServletRequest.class), res,
+        injector.getInstance(CallPath.class));
+  }
+
+  public void service(HttpServletRequest req, HttpServletResponse res, CallPath callPath) {
+    AsyncDispatch.await(serviceAsync(req, res, callPath, MoreExecutors.sameThreadExecutor()));
+  }
+
+  /**
+   * Reads the request and builds the response on {@code executor}. The response is sent when the
+   * future returned by {@link RestResponseBaseBuilder#buildResponseAsync} completes.
+   */
+  public ListenableFuture<Void> serviceAsync(HttpServletRequest req, HttpServletResponse res,
+      CallPath callPath, ListeningExecutorService executor) {
+    return getPlan(callPath).serviceAsync(req, res, callPath, executor);
+  }
+
+  private ResourceDispatchPlan getPlan(CallPath callPath) {
+    CallPath route = callPath.getResourceId() == null ? callPath : new CallPath(callPath, null);
+    ResourceDispatchPlan plan = plans.get(route);
+    if (plan == null) {
+      plan = compile(route);
+      ResourceDispatchPlan existing = plans.putIfAbsent(route, plan);
+      if (existing != null) plan = existing;
+    }
+    return plan;
+  }
+
+  @SuppressWarnings("rawtypes")
+  private ResourceDispatchPlan compile(CallPath route) {
+    RestCallSpec callSpec = injector.getInstance(RestCallSpecMap.class).get(route);
     Preconditions.checkNotNull(callSpec);
-    Gson gson = injector.getInstance(Gson.class);
-    RestRequestBase<?, ?> restRequest = injector.getInstance(RestRequestBase.class);
-    RestResponseBase.Builder response = new RestResponseBase.Builder(callSpec.getResponseSpec());
-    RestResponseBaseBuilder responseBuilder = injector.getInstance(RestResponseBaseBuilder.class);
-    WebContext context = injector.getInstance(WebContext.class);
-    responseBuilder.buildResponse(context, restRequest, response);
-    RestResponseBase webServiceResponse = response.build();
-    RestResponseSender responseSender = new RestResponseSender(gson);
-    responseSender.send(res, webServiceResponse);
+    ResourceIdFactory<Id<?>> idFactory =
+        injector.getInstance(Key.get(new TypeLiteral<ResourceIdFactory<Id<?>>>() {}));
+    return new ResourceDispatchPlan(route, callSpec,
+        injector.getInstance(ServerCodecRegistry.class),
+        injector.getProvider(RestResponseBaseBuilder.class), idFactory,
+        injector.getProvider(Gson.class));
   }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.EntityTags;
+import com.google.greaze.definition.HttpMethod;
+import com.google.greaze.definition.rest.Id;
+import com.google.greaze.definition.rest.ResourceIdFactory;
+import com.google.greaze.definition.rest.RestCallSpec;
+import com.google.greaze.definition.rest.RestRequestBase;
+import com.google.greaze.definition.rest.RestResponseBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.rest.server.RestRequestBaseReceiver;
+import com.google.greaze.rest.server.RestResponseBaseBuilder;
+import com.google.greaze.rest.server.RestResponseSender;
+import com.google.greaze.server.internal.utils.AsyncDispatch;
+import com.google.greaze.server.internal.utils.WebContextExtractor;
+import com.google.greaze.webservice.server.ResponseCompression;
+import com.google.gson.Gson;
+import com.google.inject.Provider;
+
+/**
+ * Everything needed to service resource access requests on a single route, resolved once when
+ * the route is first used. Servicing a request calls the spec, receiver and {@link WebContext}
+ * extractor directly instead of looking each of them up in the injector. The response builder
+ * and the Gson are still obtained from their bindings on every request, since applications may
+ * scope or override them.
+ */
+final class ResourceDispatchPlan {
+  private final RestCallSpec callSpec;
+  @SuppressWarnings("rawtypes")
+  private final RestRequestBaseReceiver requestReceiver;
+  @SuppressWarnings("rawtypes")
+  private final Provider<RestResponseBaseBuilder> responseBuilder;
+  private final WebContextExtractor webContextExtractor;
+  private final ResourceIdFactory<Id<?>> idFactory;
+  private final Provider<Gson> gson;
+
+  /**
+   * @param route the call path of the resource without a resource id
+   * @param responseBuilder provides the response builder of the resource. It is invoked for
+   *   every request so that the scope of its binding is honored.
+   * @param gson provides the Gson for serializing responses. It is invoked for every request so
+   *   that the scope of its binding is honored.
+   */
+  @SuppressWarnings("rawtypes")
+  ResourceDispatchPlan(CallPath route, RestCallSpec spec, ServerCodecRegistry codecs,
+      Provider<RestResponseBaseBuilder> responseBuilder, ResourceIdFactory<Id<?>> idFactory,
+      Provider<Gson> gson) {
+    this.callSpec = spec.createCopy(route);
+    this.requestReceiver = codecs.getRestRequestReceiver(route, spec.getRequestSpec());
+    this.responseBuilder = responseBuilder;
+    this.webContextExtractor = new WebContextExtractor(spec.getWebContextSpec());
+    this.idFactory = idFactory;
+    this.gson = gson;
+  }
+
+  /**
+   * Reads the request and builds the response on {@code executor}. The response builder and
+   * Gson are obtained on the calling thread, since their bindings may be request scoped.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  ListenableFuture<Void> serviceAsync(final HttpServletRequest req,
+      final HttpServletResponse res, final CallPath callPath, ListeningExecutorService executor) {
+    final RestResponseBaseBuilder responseBuilder = this.responseBuilder.get();
+    Preconditions.checkNotNull(responseBuilder);
+    final RestResponseSender responseSender =
+        new RestResponseSender(gson.get(), ResponseCompression.get(req));
+    return AsyncDispatch.submit(executor, new Callable<ListenableFuture<Void>>() {
+      @Override
+      public ListenableFuture<Void> call() {
+        final RestRequestBase<?, ?> restRequest =
+            requestReceiver.receive(req, idFactory.createId(callPath.getResourceId()));
+        WebContext context = webContextExtractor.extract(restRequest.getHeaders());
+        String ids = req.getParameter(RestRequestBase.IDS_URL_PARAM);
+        if (ids != null && restRequest.getMethod() == HttpMethod.GET
+            && (restRequest.getId() == null || restRequest.getId().getValue() == null)) {
+          ListenableFuture<List> resources = responseBuilder.getAllAsync(parseIds(ids), context);
+          return Futures.transform(resources, new Function<List, Void>() {
+            @Override
+            public Void apply(List resources) {
+              responseSender.sendList(res, resources, callSpec.getResourceType());
+              return null;
+            }
+          });
+        }
+        final RestResponseBase.Builder response =
+            new RestResponseBase.Builder(callSpec.getResponseSpec());
+        ListenableFuture<Void> built =
+            responseBuilder.buildResponseAsync(context, restRequest, response);
+        return Futures.transform(built, new Function<Void, Void>() {
+          @Override
+          public Void apply(Void ignored) {
+            RestResponseBase webServiceResponse = response.build();
+            if (restRequest.getMethod() == HttpMethod.GET) {
+              responseSender.send(res, webServiceResponse,
+                  req.getHeader(EntityTags.IF_NONE_MATCH_HEADER));
+            } else {
+              responseSender.send(res, webServiceResponse);
+            }
+            return null;
+          }
+        });
+      }
+    });
+  }
+
+  private List<Id<?>> parseIds(String ids) {
+    List<Id<?>> resourceIds = new ArrayList<Id<?>>();
+    for (String value : ids.split(",")) {
+      value = value.trim();
+      if (value.length() > 0) {
+        resourceIds.add(idFactory.createId(value));
+      }
+    }
+    return resourceIds;
+  }
+}
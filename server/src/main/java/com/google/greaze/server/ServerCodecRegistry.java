@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.internal.utils.GreazeStrings;
+import com.google.greaze.definition.rest.RestRequestSpec;
+import com.google.greaze.definition.webservice.RequestBodyGsonTypeAdapterFactory;
+import com.google.greaze.definition.webservice.RequestSpec;
+import com.google.greaze.definition.webservice.ResponseBodyGsonTypeAdapterFactory;
+import com.google.greaze.definition.webservice.ResponseBodySpec;
+import com.google.greaze.rest.server.RestRequestBaseReceiver;
+import com.google.greaze.webservice.server.RequestReceiver;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * Caches the Gson instances and request receivers used on the server dispatch path. Building a
+ * Gson with the body type adapter factories is expensive, so it is done once per call path
+ * (including its version) instead of on every request. The cached instances are immutable and
+ * shared across threads.
+ *
+ * <p>A {@link GsonBuilder} can not be copied, so each cache entry is built from its own builder
+ * obtained from the provider. Providers should hand out a new builder on every call (the default
+ * for an unscoped binding); a builder is never registered with more than one body spec by this
+ * class, but a provider that returns a shared builder will see it accumulate factories.
+ */
+@Singleton
+public final class ServerCodecRegistry {
+
+  private final Provider<GsonBuilder> gsonBuilders;
+  private final ConcurrentMap<Key, RequestReceiver> requestReceivers =
+    new ConcurrentHashMap<Key, RequestReceiver>();
+  private final ConcurrentMap<Key, RestRequestBaseReceiver<?, ?>> restRequestReceivers =
+    new ConcurrentHashMap<Key, RestRequestBaseReceiver<?, ?>>();
+  private final ConcurrentMap<Key, Gson> responseGsons = new ConcurrentHashMap<Key, Gson>();
+
+  @Inject
+  public ServerCodecRegistry(Provider<GsonBuilder> gsonBuilders) {
+    this.gsonBuilders = gsonBuilders;
+  }
+
+  /**
+   * Same as {@link #getRequestReceiver(CallPath, String, RequestSpec)} with no qualifier.
+   */
+  public RequestReceiver getRequestReceiver(CallPath callPath, RequestSpec spec) {
+    return getRequestReceiver(callPath, null, spec);
+  }
+
+  /**
+   * Returns the receiver for requests on the specified call path, creating it from
+   * {@code spec} the first time the call path is seen.
+   *
+   * @param qualifier distinguishes specs served on the same call path, such as the named
+   *   queries of a resource. May be null.
+   */
+  public RequestReceiver getRequestReceiver(CallPath callPath, String qualifier,
+      RequestSpec spec) {
+    Key key = new Key(callPath, qualifier);
+    RequestReceiver receiver = requestReceivers.get(key);
+    if (receiver == null) {
+      receiver = new RequestReceiver(createRequestGson(spec), spec);
+      RequestReceiver existing = requestReceivers.putIfAbsent(key, receiver);
+      if (existing != null) receiver = existing;
+    }
+    return receiver;
+  }
+
+  /**
+   * Returns the receiver for REST requests on the specified call path, creating it from
+   * {@code spec} the first time the call path is seen.
+   */
+  @SuppressWarnings("rawtypes")
+  public RestRequestBaseReceiver getRestRequestReceiver(CallPath callPath, RestRequestSpec spec) {
+    Key key = new Key(callPath, null);
+    RestRequestBaseReceiver<?, ?> receiver = restRequestReceivers.get(key);
+    if (receiver == null) {
+      receiver = new RestRequestBaseReceiver(createRequestGson(spec), spec);
+      RestRequestBaseReceiver<?, ?> existing = restRequestReceivers.putIfAbsent(key, receiver);
+      if (existing != null) receiver = existing;
+    }
+    return receiver;
+  }
+
+  /**
+   * Same as {@link #getResponseGson(CallPath, String, ResponseBodySpec)} with no qualifier.
+   */
+  public Gson getResponseGson(CallPath callPath, ResponseBodySpec bodySpec) {
+    return getResponseGson(callPath, null, bodySpec);
+  }
+
+  /**
+   * Returns the Gson used to serialize responses on the specified call path, creating it from
+   * {@code bodySpec} the first time the call path is seen.
+   *
+   * @param qualifier distinguishes specs served on the same call path. May be null.
+   */
+  public Gson getResponseGson(CallPath callPath, String qualifier, ResponseBodySpec bodySpec) {
+    Key key = new Key(callPath, qualifier);
+    Gson gson = responseGsons.get(key);
+    if (gson == null) {
+      gson = gsonBuilders.get()
+          .registerTypeAdapterFactory(new ResponseBodyGsonTypeAdapterFactory(bodySpec))
+          .create();
+      Gson existing = responseGsons.putIfAbsent(key, gson);
+      if (existing != null) gson = existing;
+    }
+    return gson;
+  }
+
+  /** Drops all cached codecs. They are rebuilt on the next request. */
+  public void clear() {
+    requestReceivers.clear();
+    restRequestReceivers.clear();
+    responseGsons.clear();
+  }
+
+  private Gson createRequestGson(RequestSpec spec) {
+    return gsonBuilders.get()
+        .registerTypeAdapterFactory(new RequestBodyGsonTypeAdapterFactory(spec.getBodySpec()))
+        .create();
+  }
+
+  private static final class Key {
+    private final CallPath callPath;
+    private final String qualifier;
+
+    Key(CallPath callPath, String qualifier) {
+      Preconditions.checkNotNull(callPath);
+      // Resource ids vary per request but never change the codecs
+      this.callPath = callPath.getResourceId() == null ? callPath : new CallPath(callPath, null);
+      this.qualifier = qualifier;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * callPath.hashCode() + (qualifier == null ? 0 : qualifier.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return callPath.equals(other.callPath) && GreazeStrings.equals(qualifier, other.qualifier);
+    }
+  }
+}
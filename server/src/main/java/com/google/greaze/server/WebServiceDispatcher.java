@@ -15,19 +15,26 @@
  */
 package com.google.greaze.server;
 
+import java.util.concurrent.Callable;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.greaze.definition.webservice.RequestSpec;
-import com.google.greaze.definition.webservice.ResponseBodyGsonTypeAdapterFactory;
 import com.google.greaze.definition.webservice.ResponseSpec;
 import com.google.greaze.definition.webservice.WebServiceCallSpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
 import com.google.greaze.definition.webservice.WebServiceResponse;
+import com.google.greaze.server.internal.utils.AsyncDispatch;
 import com.google.greaze.webservice.server.RequestReceiver;
+import com.google.greaze.webservice.server.ResponseCompression;
 import com.google.greaze.webservice.server.ResponseSender;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.inject.Injector;
 
 /**
@@ -44,21 +51,49 @@ public abstract class WebServiceDispatcher {
   }
 
   public void service(HttpServletRequest req, HttpServletResponse res) {
-    WebServiceCallSpec spec = injector.getInstance(WebServiceCallSpec.class);
-    RequestSpec requestSpec = spec.getRequestSpec();
-    ResponseSpec responseSpec = spec.getResponseSpec();
-    GsonBuilder gsonBuilder = injector.getInstance(GsonBuilder.class);
-    RequestReceiver requestReceiver = new RequestReceiver(gsonBuilder, requestSpec);
-    WebServiceRequest webServiceRequest = requestReceiver.receive(req);
+    AsyncDispatch.await(serviceAsync(req, res, MoreExecutors.sameThreadExecutor()));
+  }
 
-    Gson gson = injector.getInstance(GsonBuilder.class)
-        .registerTypeAdapterFactory(new ResponseBodyGsonTypeAdapterFactory(responseSpec.getBodySpec()))
-        .create();
-    ResponseSender responseSender = new ResponseSender(gson);
-    WebServiceResponse response = buildResponse(responseSpec, webServiceRequest);
-    responseSender.send(res, response);
+  /**
+   * Reads the request and builds the response on {@code executor}. The response is sent when
+   * the future returned by {@link #buildResponseAsync} completes.
+   */
+  public ListenableFuture<Void> serviceAsync(final HttpServletRequest req,
+      final HttpServletResponse res, ListeningExecutorService executor) {
+    WebServiceCallSpec spec = injector.getInstance(WebServiceCallSpec.class);
+    final RequestSpec requestSpec = spec.getRequestSpec();
+    final ResponseSpec responseSpec = spec.getResponseSpec();
+    ServerCodecRegistry codecs = injector.getInstance(ServerCodecRegistry.class);
+    final RequestReceiver requestReceiver = codecs.getRequestReceiver(spec.getPath(), requestSpec);
+    Gson gson = codecs.getResponseGson(spec.getPath(), responseSpec.getBodySpec());
+    final ResponseSender responseSender = new ResponseSender(gson, ResponseCompression.get(req));
+    return AsyncDispatch.submit(executor, new Callable<ListenableFuture<Void>>() {
+      @Override
+      public ListenableFuture<Void> call() {
+        WebServiceRequest webServiceRequest = requestReceiver.receive(req);
+        ListenableFuture<WebServiceResponse> response =
+            buildResponseAsync(responseSpec, webServiceRequest);
+        return Futures.transform(response, new Function<WebServiceResponse, Void>() {
+          @Override
+          public Void apply(WebServiceResponse response) {
+            responseSender.send(res, response);
+            return null;
+          }
+        });
+      }
+    });
   }
 
   protected abstract WebServiceResponse buildResponse(ResponseSpec responseSpec,
       WebServiceRequest webServiceRequest);
+
+  /**
+   * Asynchronous variant of {@link #buildResponse}, used when the server dispatches
+   * asynchronously. Override it if building the response waits on slow downstream services. The
+   * default implementation builds the response synchronously.
+   */
+  protected ListenableFuture<WebServiceResponse> buildResponseAsync(ResponseSpec responseSpec,
+      WebServiceRequest webServiceRequest) {
+    return Futures.immediateFuture(buildResponse(responseSpec, webServiceRequest));
+  }
 }
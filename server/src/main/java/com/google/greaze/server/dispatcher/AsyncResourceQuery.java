@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server.dispatcher;
+
+import java.util.List;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.greaze.definition.rest.ResourceId;
+import com.google.greaze.definition.rest.RestResourceBase;
+import com.google.greaze.definition.rest.WebContext;
+import com.google.greaze.definition.rest.query.ResourceQueryBase;
+import com.google.greaze.definition.rest.query.ResourceQueryParams;
+
+/**
+ * A {@link ResourceQueryBase} that can run without blocking the thread that dispatches it.
+ * {@link ResourceQueryDispatcher} calls {@link #queryAsync} instead of
+ * {@link #query(ResourceQueryParams, WebContext)} for such queries.
+ */
+public interface AsyncResourceQuery<
+    I extends ResourceId, R extends RestResourceBase<I, R>, Q extends ResourceQueryParams>
+    extends ResourceQueryBase<I, R, Q> {
+
+  /**
+   * Returns a future for the list of resources matching the query
+   */
+  public ListenableFuture<List<R>> queryAsync(Q query, WebContext context);
+}
@@ -16,11 +16,17 @@
 package com.google.greaze.server.dispatcher;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.greaze.definition.CallPath;
 import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HeaderMapSpec;
@@ -31,13 +37,15 @@ import com.google.greaze.definition.rest.query.ResourceQueryParams;
 import com.google.greaze.definition.rest.query.ResourceQueryUtils;
 import com.google.greaze.definition.webservice.RequestSpec;
 import com.google.greaze.definition.webservice.ResponseBody;
-import com.google.greaze.definition.webservice.ResponseBodyGsonTypeAdapterFactory;
 import com.google.greaze.definition.webservice.ResponseBodySpec;
 import com.google.greaze.definition.webservice.WebServiceCallSpec;
 import com.google.greaze.definition.webservice.WebServiceRequest;
 import com.google.greaze.definition.webservice.WebServiceResponse;
+import com.google.greaze.server.ServerCodecRegistry;
+import com.google.greaze.server.internal.utils.AsyncDispatch;
 import com.google.greaze.server.internal.utils.WebContextExtractor;
 import com.google.greaze.webservice.server.RequestReceiver;
+import com.google.greaze.webservice.server.ResponseCompression;
 import com.google.greaze.webservice.server.ResponseSender;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -50,27 +58,70 @@ import com.google.inject.Provider;
  */
 public class ResourceQueryDispatcher {
   protected final Provider<GsonBuilder> gsonBuilder;
+  private final ServerCodecRegistry codecs;
 
   public ResourceQueryDispatcher(Provider<GsonBuilder> gsonBuilder) {
+    this(gsonBuilder, new ServerCodecRegistry(gsonBuilder));
+  }
+
+  /**
+   * @param codecs cache for the request and response codecs of each query. Pass a shared
+   *   instance if the dispatcher itself is created per request.
+   */
+  public ResourceQueryDispatcher(Provider<GsonBuilder> gsonBuilder, ServerCodecRegistry codecs) {
     this.gsonBuilder = gsonBuilder;
+    this.codecs = codecs;
   }
 
-  @SuppressWarnings({"rawtypes", "unchecked"})
+  @SuppressWarnings("rawtypes")
   public void service(HttpServletRequest req, HttpServletResponse res,
       String queryName, CallPath callPath, ResourceQueryBase resourceQuery) {
+    AsyncDispatch.await(serviceAsync(req, res, queryName, callPath, resourceQuery,
+        MoreExecutors.sameThreadExecutor()));
+  }
+
+  /**
+   * Services a query on {@code executor}. If {@code resourceQuery} is an
+   * {@link AsyncResourceQuery}, the results are sent when its future completes.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public ListenableFuture<Void> serviceAsync(final HttpServletRequest req,
+      final HttpServletResponse res, final String queryName, final CallPath callPath,
+      final ResourceQueryBase resourceQuery, ListeningExecutorService executor) {
     Preconditions.checkNotNull(resourceQuery);
-    WebContextSpec webContextSpec = resourceQuery.getWebContextSpec();
-    WebServiceCallSpec spec = ResourceQueryUtils.generateCallSpec(callPath,
-        resourceQuery.getResourceType(), resourceQuery.getQueryType(),
-        webContextSpec);
-    RequestSpec requestSpec = spec.getRequestSpec();
-    RequestReceiver requestReceiver = new RequestReceiver(gsonBuilder.get(), requestSpec);
-    WebServiceRequest webServiceRequest = requestReceiver.receive(req);
+    return AsyncDispatch.submit(executor, new Callable<ListenableFuture<Void>>() {
+      @Override
+      public ListenableFuture<Void> call() {
+        WebContextSpec webContextSpec = resourceQuery.getWebContextSpec();
+        WebServiceCallSpec spec = ResourceQueryUtils.generateCallSpec(callPath,
+            resourceQuery.getResourceType(), resourceQuery.getQueryType(),
+            webContextSpec);
+        RequestSpec requestSpec = spec.getRequestSpec();
+        RequestReceiver requestReceiver =
+            codecs.getRequestReceiver(callPath, queryName, requestSpec);
+        WebServiceRequest webServiceRequest = requestReceiver.receive(req);
 
-    ResourceQueryParams queryParams =
-      (ResourceQueryParams) webServiceRequest.getUrlParameters().getParamsObject();
-    WebContext context = new WebContextExtractor(webContextSpec).extract(webServiceRequest.getHeaders());
-    List results = resourceQuery.query(queryParams, context);
+        ResourceQueryParams queryParams =
+          (ResourceQueryParams) webServiceRequest.getUrlParameters().getParamsObject();
+        WebContext context =
+            new WebContextExtractor(webContextSpec).extract(webServiceRequest.getHeaders());
+        ListenableFuture<List> results = resourceQuery instanceof AsyncResourceQuery
+            ? ((AsyncResourceQuery) resourceQuery).queryAsync(queryParams, context)
+            : Futures.immediateFuture(resourceQuery.query(queryParams, context));
+        return Futures.transform(results, new Function<List, Void>() {
+          @Override
+          public Void apply(List results) {
+            sendResults(req, res, queryName, callPath, resourceQuery, results);
+            return null;
+          }
+        });
+      }
+    });
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private void sendResults(HttpServletRequest req, HttpServletResponse res, String queryName,
+      CallPath callPath, ResourceQueryBase resourceQuery, List results) {
     HeaderMapSpec headerSpec = new HeaderMapSpec.Builder().build();
     HeaderMap responseHeaders = new HeaderMap.Builder(headerSpec).build();
     ResponseBodySpec bodySpec = new ResponseBodySpec.Builder()
@@ -80,14 +131,31 @@ public class ResourceQueryDispatcher {
       .setListBody(results)
       .build();
     WebServiceResponse response = new WebServiceResponse(responseHeaders, responseBody);
-    Gson gson = gsonBuilder.get()
-        .registerTypeAdapterFactory(new ResponseBodyGsonTypeAdapterFactory(bodySpec))
-        .create();
-    ResponseSender responseSender = new ResponseSender(gson);
+    Gson gson = codecs.getResponseGson(callPath, queryName, bodySpec);
+    ResponseSender responseSender = new ResponseSender(gson, ResponseCompression.get(req));
     responseSender.send(res, response);
   }
 
   public void service(HttpServletRequest req, HttpServletResponse res, String queryName,
       CallPath callPath) {
   }
+
+  /**
+   * Services the named query on {@code executor}. The default implementation runs
+   * {@link #service(HttpServletRequest, HttpServletResponse, String, CallPath)} there. Subclasses
+   * that serve {@link AsyncResourceQuery}s should override this method to call
+   * {@link #serviceAsync(HttpServletRequest, HttpServletResponse, String, CallPath,
+   * ResourceQueryBase, ListeningExecutorService)} with the query instead.
+   */
+  public ListenableFuture<Void> serviceAsync(final HttpServletRequest req,
+      final HttpServletResponse res, final String queryName, final CallPath callPath,
+      ListeningExecutorService executor) {
+    return AsyncDispatch.submit(executor, new Callable<ListenableFuture<Void>>() {
+      @Override
+      public ListenableFuture<Void> call() {
+        service(req, res, queryName, callPath);
+        return Futures.immediateFuture(null);
+      }
+    });
+  }
 }
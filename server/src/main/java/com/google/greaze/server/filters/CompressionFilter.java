@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server.filters;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Preconditions;
+import com.google.greaze.definition.ContentEncoding;
+import com.google.greaze.webservice.server.ResponseCompression;
+import com.google.inject.Injector;
+
+/**
+ * A {@link GreazeFilter} that negotiates response compression with the client using the
+ * Accept-Encoding header. Responses smaller than the configured threshold are sent
+ * uncompressed. Compressed request bodies are accepted regardless of this filter.
+ */
+public final class CompressionFilter implements GreazeFilter {
+  /** Compressing payloads smaller than this typically costs more than it saves */
+  public static final int DEFAULT_MIN_BYTES = 1024;
+
+  private final int minBytes;
+
+  public CompressionFilter() {
+    this(DEFAULT_MIN_BYTES);
+  }
+
+  /**
+   * @param minBytes responses smaller than this are not compressed
+   */
+  public CompressionFilter(int minBytes) {
+    Preconditions.checkArgument(minBytes >= 0);
+    this.minBytes = minBytes;
+  }
+
+  @Override
+  public void init(Injector injector, String resourcePrefix) {
+  }
+
+  @Override
+  public boolean service(HttpServletRequest req, HttpServletResponse res) {
+    ContentEncoding encoding =
+        ContentEncoding.negotiate(req.getHeader(ContentEncoding.ACCEPT_ENCODING_HEADER));
+    if (encoding != ContentEncoding.IDENTITY) {
+      new ResponseCompression(encoding, minBytes).attachTo(req);
+    }
+    return true;
+  }
+}
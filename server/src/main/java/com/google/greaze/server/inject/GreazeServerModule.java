@@ -23,7 +23,6 @@ import javax.servlet.http.HttpServletRequest;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.greaze.definition.CallPath;
-import com.google.greaze.definition.CallPathParser;
 import com.google.greaze.definition.LogConfig;
 import com.google.greaze.definition.rest.Id;
 import com.google.greaze.definition.rest.ResourceIdFactory;
@@ -34,9 +33,11 @@ import com.google.greaze.definition.rest.WebContext;
 import com.google.greaze.rest.server.ResponseBuilderMap;
 import com.google.greaze.rest.server.RestRequestBaseReceiver;
 import com.google.greaze.rest.server.RestResponseBaseBuilder;
+import com.google.greaze.server.CallPathRouter;
+import com.google.greaze.server.DispatchMode;
 import com.google.greaze.server.GreazeDispatcherServlet;
+import com.google.greaze.server.ServerCodecRegistry;
 import com.google.greaze.server.internal.utils.WebContextExtractor;
-import com.google.gson.GsonBuilder;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
@@ -51,8 +52,9 @@ import com.google.inject.servlet.ServletModule;
 public class GreazeServerModule extends ServletModule {
 
   private final String greazeDispatcherServletPath;
-  private final Collection<CallPath> servicePaths;
+  private final CallPathRouter router;
   private final String resourcePrefix;
+  private final DispatchMode dispatchMode;
   private final Logger log = Logger.getLogger(GreazeServerModule.class.getSimpleName());
 
   /**
@@ -66,12 +68,23 @@ public class GreazeServerModule extends ServletModule {
    */
   public GreazeServerModule(String greazeDispatcherServletPath,
       Collection<CallPath> servicePaths, String resourcePrefix) {
+    this(greazeDispatcherServletPath, servicePaths, resourcePrefix, DispatchMode.BLOCKING);
+  }
+
+  /**
+   * @param dispatchMode how the dispatcher servlet runs the request handlers. {@link
+   *   DispatchMode#ASYNC} and {@link DispatchMode#VIRTUAL_THREADS} need a Servlet 3.0 container
+   *   and the servlet and its filters to be registered with async support.
+   */
+  public GreazeServerModule(String greazeDispatcherServletPath,
+      Collection<CallPath> servicePaths, String resourcePrefix, DispatchMode dispatchMode) {
     Preconditions.checkArgument(!Strings.isNullOrEmpty(greazeDispatcherServletPath));
     Preconditions.checkArgument(!Strings.isNullOrEmpty(resourcePrefix));
     Preconditions.checkArgument(servicePaths != null && !servicePaths.isEmpty());
     this.greazeDispatcherServletPath = greazeDispatcherServletPath;
-    this.servicePaths = servicePaths;
+    this.router = new CallPathRouter(servicePaths);
     this.resourcePrefix = resourcePrefix;
+    this.dispatchMode = Preconditions.checkNotNull(dispatchMode);
   }
 
   @Override
@@ -86,6 +99,13 @@ public class GreazeServerModule extends ServletModule {
     return resourcePrefix;
   }
 
+  @Named("dispatch-mode")
+  @Provides
+  @Singleton
+  public DispatchMode getDispatchMode() {
+    return dispatchMode;
+  }
+
   @RequestScoped
   @Provides
   public CallPath getCallPath(HttpServletRequest request) {
@@ -93,21 +113,11 @@ public class GreazeServerModule extends ServletModule {
     String servletPath = request.getServletPath();
     if (LogConfig.FINE) log.fine("Received ServletPath: " + servletPath);
     String incomingPath =  servletPath.substring(greazeDispatcherServletPath.length());
-    for (CallPath servicePath : servicePaths) {
-      CallPathParser callPathParser = servicePath.toParser();
-      try {
-        CallPath incomingCallPath = callPathParser.parse(incomingPath);
-        if (incomingCallPath.matches(servicePath)) {
-          if (LogConfig.FINE) {
-            log.fine(String.format(
-                "Matched: Incoming path: %s, servicePath: %s", incomingPath, servicePath));
-          }
-          return callPathParser.parse(incomingPath);
-        }
-      } catch (CallPathParser.ParseException e) {
-      }
+    CallPath callPath = router.route(incomingPath);
+    if (LogConfig.FINE) {
+      log.fine(String.format("Matched: Incoming path: %s, callPath: %s", incomingPath, callPath));
     }
-    return CallPath.NULL_PATH;
+    return callPath;
   }
 
   @RequestScoped
@@ -134,10 +144,10 @@ public class GreazeServerModule extends ServletModule {
   @RequestScoped
   @SuppressWarnings({"rawtypes", "unchecked"})
   @Provides
-  public RestRequestBase getRestRequest(GsonBuilder gsonBuilder, RestCallSpec callSpec,
+  public RestRequestBase getRestRequest(ServerCodecRegistry codecs, RestCallSpec callSpec,
       CallPath callPath, HttpServletRequest request, ResourceIdFactory<Id<?>> idFactory) {
       RestRequestBaseReceiver requestReceiver =
-          new RestRequestBaseReceiver(gsonBuilder, callSpec.getRequestSpec());
+          codecs.getRestRequestReceiver(callPath, callSpec.getRequestSpec());
       return requestReceiver.receive(request, idFactory.createId(callPath.getResourceId()));
   }
 
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server.internal.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.greaze.definition.Deadline;
+import com.google.greaze.definition.WebServiceSystemException;
+
+/**
+ * Utilities to run the dispatch of a request on an executor and to wait for its result.
+ */
+public final class AsyncDispatch {
+
+  /**
+   * Runs {@code task} on {@code executor} with the current {@link Deadline}, and returns a future
+   * for the result of the future returned by the task. Exceptions thrown by the task fail the
+   * returned future.
+   */
+  public static <T> ListenableFuture<T> submit(ListeningExecutorService executor,
+      final Callable<ListenableFuture<T>> task) {
+    final Deadline deadline = Deadline.getCurrent();
+    return Futures.dereference(executor.submit(new Callable<ListenableFuture<T>>() {
+      @Override
+      public ListenableFuture<T> call() throws Exception {
+        Deadline previous = Deadline.setCurrent(deadline);
+        try {
+          return task.call();
+        } finally {
+          Deadline.setCurrent(previous);
+        }
+      }
+    }));
+  }
+
+  /**
+   * Waits for {@code future} and rethrows its failure. Unchecked exceptions are rethrown as is.
+   */
+  public static <T> T await(ListenableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WebServiceSystemException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new WebServiceSystemException(e);
+    }
+  }
+
+  private AsyncDispatch() {
+  }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server.internal.utils;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Access to Servlet 3.0 asynchronous processing ({@code AsyncContext}) without a compile-time
+ * dependency on it, since this project still builds against the Servlet 2.5 API. If the Servlet
+ * 3.0 API is not on the class path, the same methods are looked up on the request and context
+ * objects themselves.
+ */
+public final class AsyncServlets {
+
+  private static final Class<?> ASYNC_CONTEXT = classForName("javax.servlet.AsyncContext");
+  private static final Class<?> ASYNC_LISTENER = classForName("javax.servlet.AsyncListener");
+  private static final Method IS_ASYNC_SUPPORTED = lookup(ServletRequest.class, "isAsyncSupported");
+  private static final Method START_ASYNC = lookup(ServletRequest.class, "startAsync");
+  private static final Method SET_TIMEOUT = lookup(ASYNC_CONTEXT, "setTimeout", long.class);
+  private static final Method COMPLETE = lookup(ASYNC_CONTEXT, "complete");
+  private static final Method ADD_LISTENER = lookup(ASYNC_CONTEXT, "addListener", ASYNC_LISTENER);
+
+  private static Class<?> classForName(String className) {
+    try {
+      return Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static Method lookup(Class<?> type, String name, Class<?>... parameterTypes) {
+    if (type == null) {
+      return null;
+    }
+    for (Class<?> parameterType : parameterTypes) {
+      if (parameterType == null) {
+        return null;
+      }
+    }
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (SecurityException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return {@code method} if it was resolved against the Servlet 3.0 API, or else the method of
+   *   the same name on {@code target}'s class
+   */
+  private static Method resolve(Method method, Object target, String name,
+      Class<?>... parameterTypes) {
+    return method != null ? method : lookup(target.getClass(), name, parameterTypes);
+  }
+
+  private static Method resolveAddListener(Object asyncContext) {
+    if (ADD_LISTENER != null) {
+      return ADD_LISTENER;
+    }
+    for (Method method : asyncContext.getClass().getMethods()) {
+      if (method.getName().equals("addListener") && method.getParameterTypes().length == 1
+          && method.getParameterTypes()[0].isInterface()) {
+        return method;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the request that supports asynchronous processing, unwrapping
+   *   {@link ServletRequestWrapper}s if the Servlet 3.0 API is not available
+   */
+  private static ServletRequest asyncRequest(ServletRequest request) {
+    while (IS_ASYNC_SUPPORTED == null && request instanceof ServletRequestWrapper
+        && lookup(request.getClass(), "isAsyncSupported") == null) {
+      request = ((ServletRequestWrapper) request).getRequest();
+    }
+    return request;
+  }
+
+  /**
+   * @return true if the container and all the filters that {@code request} went through support
+   *   asynchronous processing
+   */
+  public static boolean isSupported(HttpServletRequest request) {
+    ServletRequest target = asyncRequest(request);
+    Method isAsyncSupported = resolve(IS_ASYNC_SUPPORTED, target, "isAsyncSupported");
+    if (isAsyncSupported == null || resolve(START_ASYNC, target, "startAsync") == null) {
+      return false;
+    }
+    try {
+      return (Boolean) isAsyncSupported.invoke(target);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * Puts {@code request} into asynchronous mode so that the container does not commit the
+   * response when the servlet returns.
+   *
+   * @param timeoutMillis the time after which the container times out the request, or 0 to keep
+   *   the container's default timeout
+   * @param listener notified if the container times out or fails the request before it is
+   *   completed
+   * @return the context to complete once the response is written, or null if the request does
+   *   not support asynchronous processing
+   */
+  public static Context start(HttpServletRequest request, long timeoutMillis,
+      Listener listener) {
+    if (!isSupported(request)) {
+      return null;
+    }
+    ServletRequest target = asyncRequest(request);
+    try {
+      Object asyncContext = resolve(START_ASYNC, target, "startAsync").invoke(target);
+      Context context = new Context(asyncContext);
+      Method addListener = resolveAddListener(asyncContext);
+      if (addListener != null) {
+        Class<?> listenerType = addListener.getParameterTypes()[0];
+        addListener.invoke(asyncContext, Proxy.newProxyInstance(listenerType.getClassLoader(),
+            new Class<?>[] {listenerType}, new ListenerAdapter(context, listener)));
+      }
+      Method setTimeout = resolve(SET_TIMEOUT, asyncContext, "setTimeout", long.class);
+      if (timeoutMillis > 0L && setTimeout != null) {
+        setTimeout.invoke(asyncContext, timeoutMillis);
+      }
+      return context;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Receives the events of a started {@code AsyncContext}. Each is invoked on a container thread.
+   */
+  public interface Listener {
+    /**
+     * The container timed out the request. Unless the response is completed, the container
+     * sends an error response of its own once this returns.
+     */
+    void onTimeout(Context context);
+
+    /**
+     * The container failed the request, typically because of an I/O error with the client.
+     */
+    void onError(Context context);
+  }
+
+  /**
+   * Adapts the container's {@code AsyncListener} calls to a {@link Listener}
+   */
+  private static final class ListenerAdapter implements InvocationHandler {
+    private final Context context;
+    private final Listener listener;
+
+    ListenerAdapter(Context context, Listener listener) {
+      this.context = context;
+      this.listener = listener;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if (method.getDeclaringClass() == Object.class) {
+        if (name.equals("equals")) {
+          return proxy == args[0];
+        } else if (name.equals("hashCode")) {
+          return System.identityHashCode(proxy);
+        }
+        return listener.toString();
+      }
+      if (name.equals("onTimeout")) {
+        listener.onTimeout(context);
+      } else if (name.equals("onError")) {
+        listener.onError(context);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A started {@code AsyncContext}. Both the dispatch and the container's timeout may try to
+   * finish the request; {@link #finish()} ensures that only one of them writes its outcome.
+   */
+  public static final class Context {
+    private final Object asyncContext;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private Context(Object asyncContext) {
+      this.asyncContext = asyncContext;
+    }
+
+    /**
+     * Claims the response for writing the outcome of the request. Only the first call returns
+     * true. Once claimed, the responses returned by {@link #guard} reject further writes.
+     */
+    public boolean finish() {
+      return finished.compareAndSet(false, true);
+    }
+
+    public boolean isFinished() {
+      return finished.get();
+    }
+
+    /**
+     * @return a response that writes to {@code response} until the request is finished, and
+     *   throws {@link IllegalStateException} for writes after that, since the container may
+     *   have already completed and recycled {@code response}
+     */
+    public HttpServletResponse guard(HttpServletResponse response) {
+      return new GuardedResponse(response, this);
+    }
+
+    /**
+     * Completes the request. The container flushes and closes the response.
+     */
+    public void complete() {
+      try {
+        resolve(COMPLETE, asyncContext, "complete").invoke(asyncContext);
+      } catch (Exception e) {
+        // The container has already completed the request, for example on a timeout
+      }
+    }
+
+    void checkNotFinished() {
+      if (finished.get()) {
+        throw new IllegalStateException("Request already finished");
+      }
+    }
+  }
+
+  private static final class GuardedResponse extends HttpServletResponseWrapper {
+    private final Context context;
+    private ServletOutputStream out;
+    private PrintWriter writer;
+
+    GuardedResponse(HttpServletResponse response, Context context) {
+      super(response);
+      this.context = context;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      context.checkNotFinished();
+      if (out == null) {
+        out = new GuardedOutputStream(super.getOutputStream(), context);
+      }
+      return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      context.checkNotFinished();
+      if (writer == null) {
+        writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+      context.checkNotFinished();
+      super.setStatus(sc);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+      context.checkNotFinished();
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      context.checkNotFinished();
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      context.checkNotFinished();
+      super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      context.checkNotFinished();
+      super.addHeader(name, value);
+    }
+
+    @Override
+    public void setContentType(String type) {
+      context.checkNotFinished();
+      super.setContentType(type);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+      context.checkNotFinished();
+      super.setContentLength(len);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      context.checkNotFinished();
+      super.flushBuffer();
+    }
+  }
+
+  private static final class GuardedOutputStream extends ServletOutputStream {
+    private final ServletOutputStream out;
+    private final Context context;
+
+    GuardedOutputStream(ServletOutputStream out, Context context) {
+      this.out = out;
+      this.context = context;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      context.checkNotFinished();
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      context.checkNotFinished();
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      context.checkNotFinished();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      context.checkNotFinished();
+      out.close();
+    }
+  }
+
+  private AsyncServlets() {
+  }
+}
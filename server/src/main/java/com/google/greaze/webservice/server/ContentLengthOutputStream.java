@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A stream for an uncompressed response body. The body is held back till more than a limit of
+ * bytes have been written. If the stream is closed before that, the body is sent with a
+ * Content-Length header. Otherwise it is written out as it comes and the container falls back to
+ * chunked transfer encoding. Closing the stream finishes the body but keeps the servlet stream
+ * open.
+ */
+final class ContentLengthOutputStream extends OutputStream {
+  private final HttpServletResponse res;
+  private final int limit;
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private OutputStream out;
+
+  ContentLengthOutputStream(HttpServletResponse res, int limit) {
+    this.res = res;
+    this.limit = limit;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (out != null) {
+      out.write(b, off, len);
+      return;
+    }
+    if (pending.size() + len <= limit) {
+      pending.write(b, off, len);
+      return;
+    }
+    out = res.getOutputStream();
+    pending.writeTo(out);
+    pending = null;
+    out.write(b, off, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.flush();
+    } else if (pending != null) {
+      res.setContentLength(pending.size());
+      OutputStream servletOut = res.getOutputStream();
+      pending.writeTo(servletOut);
+      servletOut.flush();
+      pending = null;
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.google.greaze.webservice.server;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.List;
@@ -23,11 +24,14 @@ import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.google.greaze.definition.ContentEncoding;
+import com.google.greaze.definition.ErrorReason;
 import com.google.greaze.definition.HeaderMap;
 import com.google.greaze.definition.HeaderMapSpec;
 import com.google.greaze.definition.HttpMethod;
 import com.google.greaze.definition.UrlParams;
 import com.google.greaze.definition.UrlParamsSpec;
+import com.google.greaze.definition.WebServiceSystemException;
 import com.google.greaze.definition.internal.utils.GreazeStrings;
 import com.google.greaze.definition.internal.utils.Streams;
 import com.google.greaze.definition.webservice.RequestBody;
@@ -224,9 +228,20 @@ public abstract class RequestData {
   private static String getInputStreamAsJson(HttpServletRequest request) throws IOException {
     String inputJson = (String) request.getAttribute(REQUEST_BODY_JSON);
     if (inputJson == null) {
-      inputJson = Streams.readAsString(request.getInputStream());
+      inputJson = Streams.readAsString(getDecodedInputStream(request));
       request.setAttribute(REQUEST_BODY_JSON, inputJson);
     }
     return inputJson;
   }
+
+  private static InputStream getDecodedInputStream(HttpServletRequest request)
+      throws IOException {
+    String contentEncoding = request.getHeader(ContentEncoding.CONTENT_ENCODING_HEADER);
+    ContentEncoding encoding = ContentEncoding.fromHeader(contentEncoding);
+    if (encoding == null) {
+      throw new WebServiceSystemException(
+          ErrorReason.BAD_REQUEST, "Unsupported Content-Encoding: " + contentEncoding);
+    }
+    return encoding.decode(request.getInputStream());
+  }
 }
@@ -40,9 +40,18 @@ public class RequestReceiver {
   protected final UrlParamsExtractor urlParamsExtractor;
 
   public RequestReceiver(GsonBuilder gsonBuilder, RequestSpec spec) {
-    this.gson = gsonBuilder
+    this(gsonBuilder
         .registerTypeAdapterFactory(new RequestBodyGsonTypeAdapterFactory(spec.getBodySpec()))
-        .create();
+        .create(), spec);
+  }
+
+  /**
+   * @param gson a Gson instance that already has a {@link RequestBodyGsonTypeAdapterFactory}
+   *   registered for the body spec of {@code spec}. Since Gson is immutable and thread-safe,
+   *   the receiver can be shared across requests.
+   */
+  public RequestReceiver(Gson gson, RequestSpec spec) {
+    this.gson = gson;
     this.spec = spec;
     this.urlParamsExtractor = new UrlParamsExtractor(spec.getUrlParamsSpec(), gson);
   }
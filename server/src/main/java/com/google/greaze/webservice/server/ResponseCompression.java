@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.greaze.definition.ContentEncoding;
+import com.google.greaze.server.filters.CompressionFilter;
+
+/**
+ * The compression negotiated for a response. It is attached to the request by
+ * {@link CompressionFilter} and used by {@link ResponseSender} to encode the response body.
+ */
+public final class ResponseCompression {
+  private static final String REQUEST_ATTRIBUTE = ResponseCompression.class.getName();
+
+  private final ContentEncoding encoding;
+  private final int minBytes;
+
+  public ResponseCompression(ContentEncoding encoding, int minBytes) {
+    this.encoding = encoding;
+    this.minBytes = minBytes;
+  }
+
+  public ContentEncoding getEncoding() {
+    return encoding;
+  }
+
+  public int getMinBytes() {
+    return minBytes;
+  }
+
+  public void attachTo(HttpServletRequest req) {
+    req.setAttribute(REQUEST_ATTRIBUTE, this);
+  }
+
+  /**
+   * @return the compression negotiated for this request, or null if the response should not be
+   *   compressed
+   */
+  public static ResponseCompression get(HttpServletRequest req) {
+    return (ResponseCompression) req.getAttribute(REQUEST_ATTRIBUTE);
+  }
+
+  /**
+   * Returns a stream for the response body. The body is held back till {@link #getMinBytes()}
+   * have been written. If the stream is closed before that, the body is sent uncompressed.
+   * Otherwise the Content-Encoding header is set and the rest of the body is compressed as it is
+   * written. Closing the returned stream finishes the body but keeps the servlet stream open.
+   */
+  public OutputStream open(HttpServletResponse res) {
+    return new ThresholdEncodingOutputStream(res);
+  }
+
+  private final class ThresholdEncodingOutputStream extends OutputStream {
+    private final HttpServletResponse res;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private OutputStream out;
+
+    ThresholdEncodingOutputStream(HttpServletResponse res) {
+      this.res = res;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (out != null) {
+        out.write(b, off, len);
+        return;
+      }
+      pending.write(b, off, len);
+      if (pending.size() >= minBytes) {
+        res.setHeader(ContentEncoding.CONTENT_ENCODING_HEADER, encoding.getHeaderValue());
+        res.setHeader("Vary", ContentEncoding.ACCEPT_ENCODING_HEADER);
+        out = encoding.encode(new NonClosingOutputStream(res.getOutputStream()));
+        pending.writeTo(out);
+        pending = null;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (out != null) {
+        out.close();
+      } else if (pending != null) {
+        res.setContentLength(pending.size());
+        OutputStream servletOut = res.getOutputStream();
+        pending.writeTo(servletOut);
+        servletOut.flush();
+        pending = null;
+      }
+    }
+  }
+
+  /** Lets the encoder finish its trailer on close without closing the servlet stream */
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+}
@@ -15,7 +15,11 @@
  */
 package com.google.greaze.webservice.server;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.util.Map;
 import java.util.logging.Logger;
@@ -38,10 +42,38 @@ import com.google.gson.Gson;
 public class ResponseSender {
   private static final Logger logger = Logger.getLogger(ResponseSender.class.getCanonicalName());
 
+  /** Bodies up to this many bytes are sent with a Content-Length header by default */
+  public static final int DEFAULT_CONTENT_LENGTH_LIMIT = 8 * 1024;
+  private static final int WRITER_BUFFER_SIZE = 8 * 1024;
+
   protected final Gson gson;
+  protected final ResponseCompression compression;
+  protected final int contentLengthLimit;
 
   public ResponseSender(Gson gson) {
+    this(gson, null);
+  }
+
+  /**
+   * @param compression the compression negotiated for this response. Null if the response
+   *   should not be compressed.
+   */
+  public ResponseSender(Gson gson, ResponseCompression compression) {
+    this(gson, compression, DEFAULT_CONTENT_LENGTH_LIMIT);
+  }
+
+  /**
+   * @param compression the compression negotiated for this response. Null if the response
+   *   should not be compressed.
+   * @param contentLengthLimit uncompressed bodies up to this many bytes are buffered and sent
+   *   with a Content-Length header. Larger bodies are streamed with chunked transfer encoding
+   *   while they are serialized. Use 0 to always stream. Compressed bodies are framed by
+   *   {@link ResponseCompression} instead.
+   */
+  public ResponseSender(Gson gson, ResponseCompression compression, int contentLengthLimit) {
     this.gson = gson;
+    this.compression = compression;
+    this.contentLengthLimit = contentLengthLimit;
   }
   
   public void send(HttpServletResponse conn, WebServiceResponse response) {
@@ -68,8 +100,36 @@ public class ResponseSender {
   private void sendBody(HttpServletResponse conn, ResponseBody responseBody) throws IOException {
     conn.setContentType(responseBody.getContentType());
     conn.setCharacterEncoding(responseBody.getCharacterEncoding());
-    String json = gson.toJson(responseBody);
-    if (LogConfig.INFO) logger.info("Response Body:" + json);
-    conn.getWriter().append(json);
+    writeBody(conn, responseBody, responseBody.getClass());
+  }
+
+  protected void writeBody(HttpServletResponse res, String json) throws IOException {
+    OutputStream out = openBody(res);
+    out.write(json.getBytes(res.getCharacterEncoding()));
+    out.close();
+  }
+
+  /**
+   * Serializes {@code src} directly into the response body, without building the JSON string
+   * first. The character encoding of the response must already be set. Bodies are logged at
+   * FINE only, since logging them needs the whole JSON string.
+   */
+  protected void writeBody(HttpServletResponse res, Object src, Type srcType)
+      throws IOException {
+    if (LogConfig.FINE) {
+      String json = gson.toJson(src, srcType);
+      logger.fine("Response Body:" + json);
+      writeBody(res, json);
+      return;
+    }
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(openBody(res), res.getCharacterEncoding()), WRITER_BUFFER_SIZE);
+    gson.toJson(src, srcType, writer);
+    writer.close();
+  }
+
+  private OutputStream openBody(HttpServletResponse res) {
+    return compression == null
+        ? new ContentLengthOutputStream(res, contentLengthLimit) : compression.open(res);
   }
 }
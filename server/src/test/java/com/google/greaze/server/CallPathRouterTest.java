@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.ImmutableList;
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.CallPathParser;
+
+/**
+ * Unit tests for {@link CallPathRouter}
+ */
+public class CallPathRouterTest extends TestCase {
+
+  private static final List<CallPath> SERVICE_PATHS = ImmutableList.of(
+      new CallPath("/rest", 1D, "/order", null),
+      new CallPath("/rest", 2D, "/order", null),
+      new CallPath("/rest", 1D, "/orderline", null),
+      new CallPath("/rest", CallPath.IGNORE_VERSION, "/employee", null),
+      new CallPath("/rest", CallPath.IGNORE_VERSION, "/employees", null),
+      new CallPath("/restricted", 1D, "/order", null),
+      new CallPath("/resource", CallPath.IGNORE_VERSION, "/cart", null),
+      new CallPath(null, CallPath.IGNORE_VERSION, "/ping", null),
+      new CallPath("/query", 1.5D, null, null));
+
+  private static final String[] INCOMING_PATHS = {
+    "/rest/1.0/order", "/rest/1/order/123", "/rest/2.0/order/abc?x=1", "/rest/3.0/order/1",
+    "/rest/1.0/orderline/7", "/rest/1.0/orders/7", "/rest/employee", "/rest/employee/9/x",
+    "/rest/employees/9", "/restricted/1.0/order/5", "/restricted/2.0/order/5",
+    "/resource/cart/", "/resource/carts", "/ping", "/ping/1", "/query/1.5/", "/query/1.5/foo",
+    "/rest/1.0.0/order", "/rest/x/order", "/rest/1.0", "/rest", "/unknown", "", "/",
+    "/rest//order", "/rest/1.0/order/ ", "rest/1.0/order"
+  };
+
+  public void testSameAsParsingEachServicePath() {
+    CallPathRouter router = new CallPathRouter(SERVICE_PATHS);
+    for (String incomingPath : INCOMING_PATHS) {
+      CallPath expected = routeByParsing(SERVICE_PATHS, incomingPath);
+      assertEquals(incomingPath, expected, router.route(incomingPath));
+    }
+  }
+
+  public void testRoutes() {
+    CallPathRouter router = new CallPathRouter(SERVICE_PATHS);
+    assertEquals(new CallPath("/rest", 2D, "/order", "abc"),
+        router.route("/rest/2.0/order/abc?x=1"));
+    assertEquals(new CallPath("/restricted", 1D, "/order", "5"),
+        router.route("/restricted/1.0/order/5"));
+    assertEquals(new CallPath(null, CallPath.IGNORE_VERSION, "/ping", null), router.route("/ping"));
+    assertEquals(new CallPath("/rest", CallPath.IGNORE_VERSION, "/employee", "9"),
+        router.route("/rest/employee/9/x"));
+    assertSame(CallPath.NULL_PATH, router.route("/rest/3.0/order/1"));
+    assertSame(CallPath.NULL_PATH, router.route(""));
+  }
+
+  public void testFirstRegisteredWins() {
+    CallPath employees = new CallPath("/rest", CallPath.IGNORE_VERSION, "/employees", null);
+    CallPath employee = new CallPath("/rest", CallPath.IGNORE_VERSION, "/employee", null);
+    CallPathRouter router = new CallPathRouter(ImmutableList.of(employees, employee));
+    assertEquals(new CallPath(employees, "9"), router.route("/rest/employees/9"));
+    router = new CallPathRouter(ImmutableList.of(employee, employees));
+    assertEquals(new CallPath(employee, "s"), router.route("/rest/employees/9"));
+  }
+
+  /** The routing done by GreazeServerModule before the router */
+  private static CallPath routeByParsing(List<CallPath> servicePaths, String incomingPath) {
+    for (CallPath servicePath : servicePaths) {
+      CallPathParser callPathParser = servicePath.toParser();
+      try {
+        CallPath incomingCallPath = callPathParser.parse(incomingPath);
+        if (incomingCallPath.matches(servicePath)) {
+          return incomingCallPath;
+        }
+      } catch (CallPathParser.ParseException e) {
+      }
+    }
+    return CallPath.NULL_PATH;
+  }
+}
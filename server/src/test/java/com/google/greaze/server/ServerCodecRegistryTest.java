@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.CallPath;
+import com.google.greaze.definition.HeaderMapSpec;
+import com.google.greaze.definition.UrlParamsSpec;
+import com.google.greaze.definition.webservice.RequestBodySpec;
+import com.google.greaze.definition.webservice.RequestSpec;
+import com.google.greaze.definition.webservice.ResponseBodySpec;
+import com.google.greaze.definition.webservice.WebServiceRequest;
+import com.google.greaze.server.fixtures.HttpServletRequestFake;
+import com.google.greaze.webservice.server.RequestReceiver;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.inject.Provider;
+
+/**
+ * Unit tests for {@link ServerCodecRegistry}
+ */
+public class ServerCodecRegistryTest extends TestCase {
+
+  private int buildersCreated;
+  private ServerCodecRegistry codecs;
+  private RequestSpec spec;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    buildersCreated = 0;
+    codecs = new ServerCodecRegistry(new Provider<GsonBuilder>() {
+      @Override
+      public GsonBuilder get() {
+        ++buildersCreated;
+        return new GsonBuilder();
+      }
+    });
+    HeaderMapSpec headersSpec = new HeaderMapSpec.Builder().build();
+    UrlParamsSpec urlParamSpec = new UrlParamsSpec.Builder().put("foo", String.class).build();
+    RequestBodySpec bodySpec = new RequestBodySpec.Builder().build();
+    spec = new RequestSpec(headersSpec, urlParamSpec, bodySpec);
+  }
+
+  public void testRequestReceiverCachedAcrossResourceIds() {
+    RequestReceiver first =
+      codecs.getRequestReceiver(new CallPath("/rest", 1.0, "/order", "1"), spec);
+    RequestReceiver second =
+      codecs.getRequestReceiver(new CallPath("/rest", 1.0, "/order", "2"), spec);
+    assertSame(first, second);
+    assertEquals(1, buildersCreated);
+
+    WebServiceRequest request = second.receive(new HttpServletRequestFake()
+      .setRequestMethod("GET")
+      .setUrlParam("foo", "bar"));
+    assertEquals("bar", request.getUrlParameters().getParamsMap().get("foo"));
+  }
+
+  public void testRequestReceiverKeyedByVersionAndQualifier() {
+    CallPath v1Path = new CallPath("/rest", 1.0, "/order", null);
+    RequestReceiver v1 = codecs.getRequestReceiver(v1Path, spec);
+    RequestReceiver v2 =
+      codecs.getRequestReceiver(new CallPath("/rest", 2.0, "/order", null), spec);
+    RequestReceiver query = codecs.getRequestReceiver(v1Path, "byName", spec);
+    assertNotSame(v1, v2);
+    assertNotSame(v1, query);
+    assertEquals(3, buildersCreated);
+  }
+
+  public void testResponseGsonCached() {
+    ResponseBodySpec bodySpec = new ResponseBodySpec.Builder().build();
+    CallPath callPath = new CallPath("/rest", CallPath.IGNORE_VERSION, "/order", null);
+    Gson gson = codecs.getResponseGson(callPath, bodySpec);
+    assertSame(gson, codecs.getResponseGson(new CallPath(callPath, "5"), bodySpec));
+    assertEquals(1, buildersCreated);
+
+    codecs.clear();
+    assertNotSame(gson, codecs.getResponseGson(callPath, bodySpec));
+    assertEquals(2, buildersCreated);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.server.fixtures;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test fixture for the Servlet 3.0 {@code AsyncContext}. This project builds against the
+ * Servlet 2.5 API, so it only has the methods of {@code AsyncContext} that are needed, and the
+ * server finds them through reflection.
+ */
+public final class AsyncContextFake {
+
+  /**
+   * Stands in for the Servlet 3.0 {@code AsyncListener}. The events are always null.
+   */
+  public interface Listener {
+    void onComplete(Object event);
+    void onTimeout(Object event);
+    void onError(Object event);
+    void onStartAsync(Object event);
+  }
+
+  private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+  private final CountDownLatch completed = new CountDownLatch(1);
+  private final AtomicInteger completeCount = new AtomicInteger();
+  private volatile long timeout = -1L;
+
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * @return the timeout set by the server, or -1 if it kept the container default
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void complete() {
+    completeCount.incrementAndGet();
+    completed.countDown();
+    for (Listener listener : listeners) {
+      listener.onComplete(null);
+    }
+  }
+
+  /**
+   * @return the number of times {@link #complete()} was called
+   */
+  public int getCompleteCount() {
+    return completeCount.get();
+  }
+
+  public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+    return completed.await(timeout, unit);
+  }
+
+  /**
+   * Times out the request the way a container does when its timeout passes
+   */
+  public void fireTimeout() {
+    for (Listener listener : listeners) {
+      listener.onTimeout(null);
+    }
+  }
+}
@@ -48,6 +48,8 @@ public final class HttpServletRequestFake implements HttpServletRequest {
   private Map<String, String> headers;
   private URL url;
   private String pathInfo;
+  private boolean asyncSupported;
+  private volatile AsyncContextFake asyncContext;
 
   public HttpServletRequestFake setResourceUrlPaths(URL actualUrl, ResourceUrlPaths urlPaths) {
     this.url = actualUrl;
@@ -93,6 +95,32 @@ public final class HttpServletRequestFake implements HttpServletRequest {
     return this;
   }
 
+  public HttpServletRequestFake setAsyncSupported(boolean asyncSupported) {
+    this.asyncSupported = asyncSupported;
+    return this;
+  }
+
+  /** The Servlet 3.0 method, found by the server through reflection */
+  public boolean isAsyncSupported() {
+    return asyncSupported;
+  }
+
+  /** The Servlet 3.0 method, found by the server through reflection */
+  public AsyncContextFake startAsync() {
+    if (!asyncSupported) {
+      throw new IllegalStateException("Asynchronous processing not supported");
+    }
+    asyncContext = new AsyncContextFake();
+    return asyncContext;
+  }
+
+  /**
+   * @return the context of the asynchronous processing, or null if it was not started
+   */
+  public AsyncContextFake getAsyncContext() {
+    return asyncContext;
+  }
+
   public HttpServletRequestFake setUrlParams(String urlParamsString) {
     if (GreazeStrings.isEmpty(urlParamsString)) {
       return this;
@@ -44,6 +44,7 @@ public final class HttpServletResponseFake implements HttpServletResponse {
   private Locale locale;
   /** Doesn't really matter as we just use {@link #sos} */
   private int bufferSize = 1024;
+  private int contentLength = -1;
   private HttpURLConnectionFake conn;
 
   public HttpServletResponseFake(OutputStream out, HttpURLConnectionFake conn) {
@@ -79,6 +80,12 @@ public final class HttpServletResponseFake implements HttpServletResponse {
 
   @Override
   public void setContentLength(int len) {
+    this.contentLength = len;
+  }
+
+  /** @return the length set with {@link #setContentLength(int)}, or -1 if none was set */
+  public int getContentLength() {
+    return contentLength;
   }
 
   @Override
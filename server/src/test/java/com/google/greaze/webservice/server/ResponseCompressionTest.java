@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.definition.ContentEncoding;
+import com.google.greaze.definition.internal.utils.Streams;
+import com.google.greaze.server.fixtures.HttpServletResponseFake;
+
+/**
+ * Unit tests for {@link ResponseCompression}
+ */
+public class ResponseCompressionTest extends TestCase {
+
+  public void testSmallBodyNotCompressed() throws Exception {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    HttpServletResponseFake res = new HttpServletResponseFake(wire, null);
+    OutputStream out = new ResponseCompression(ContentEncoding.GZIP, 100).open(res);
+    out.write("{}".getBytes("UTF-8"));
+    out.close();
+    assertFalse(res.containsHeader(ContentEncoding.CONTENT_ENCODING_HEADER));
+    assertEquals("{}", wire.toString("UTF-8"));
+  }
+
+  public void testLargeBodyCompressed() throws Exception {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 100; ++i) {
+      json.append(i).append(',');
+    }
+    json.append("100]");
+    for (ContentEncoding encoding : new ContentEncoding[] {
+        ContentEncoding.GZIP, ContentEncoding.DEFLATE}) {
+      ByteArrayOutputStream wire = new ByteArrayOutputStream();
+      HttpServletResponseFake res = new HttpServletResponseFake(wire, null);
+      OutputStream out = new ResponseCompression(encoding, 100).open(res);
+      byte[] bytes = json.toString().getBytes("UTF-8");
+      // Write in two parts so that the threshold is crossed midway
+      out.write(bytes, 0, 50);
+      out.write(bytes, 50, bytes.length - 50);
+      out.close();
+      assertTrue(res.containsHeader(ContentEncoding.CONTENT_ENCODING_HEADER));
+      ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+      Streams.copy(encoding.decode(new ByteArrayInputStream(wire.toByteArray())),
+          decoded, true, true);
+      assertEquals(json.toString(), decoded.toString("UTF-8"));
+    }
+  }
+}
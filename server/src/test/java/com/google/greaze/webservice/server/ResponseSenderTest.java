@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Greaze Authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.greaze.webservice.server;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.greaze.server.fixtures.HttpServletResponseFake;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Unit tests for {@link ResponseSender}
+ */
+public class ResponseSenderTest extends TestCase {
+  private static final Type LIST_TYPE = new TypeToken<List<String>>() {}.getType();
+
+  private final Gson gson = new Gson();
+
+  public void testSmallBodySentWithContentLength() throws Exception {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    HttpServletResponseFake res = new HttpServletResponseFake(wire, null);
+    List<String> list = createList(3);
+    new ResponseSender(gson, null, 1024).writeBody(res, list, LIST_TYPE);
+    String json = gson.toJson(list, LIST_TYPE);
+    assertEquals(json, wire.toString("UTF-8"));
+    assertEquals(json.length(), res.getContentLength());
+  }
+
+  public void testLargeBodyStreamed() throws Exception {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    HttpServletResponseFake res = new HttpServletResponseFake(wire, null);
+    List<String> list = createList(10000);
+    new ResponseSender(gson, null, 1024).writeBody(res, list, LIST_TYPE);
+    assertEquals(gson.toJson(list, LIST_TYPE), wire.toString("UTF-8"));
+    assertEquals(-1, res.getContentLength());
+  }
+
+  public void testNonAsciiBody() throws Exception {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    HttpServletResponseFake res = new HttpServletResponseFake(wire, null);
+    List<String> list = new ArrayList<String>();
+    list.add("\u00fcber \u20ac");
+    new ResponseSender(gson, null, 0).writeBody(res, list, LIST_TYPE);
+    assertEquals(gson.toJson(list, LIST_TYPE), wire.toString("UTF-8"));
+  }
+
+  private static List<String> createList(int size) {
+    List<String> list = new ArrayList<String>(size);
+    for (int i = 0; i < size; ++i) {
+      list.add("item" + i);
+    }
+    return list;
+  }
+}